@@ -0,0 +1,83 @@
+package com.voicecall;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+
+/**
+ * The call's microphone and speaker, created but not started. Building
+ * them takes the platform tens of milliseconds, so it's done while the
+ * host waits or the guest searches, leaving only starting them for when
+ * the peer answers. Buffers are sized from the frame duration: two frames
+ * normally, the device minimum in the low-latency profile.
+ */
+final class AudioDevices {
+
+    final AudioRecord record;
+    final AudioTrack track;
+    final int sampleRate;
+    final int frameMs;
+    final int recordBufferBytes;
+
+    private AudioDevices(AudioRecord record, AudioTrack track, int sampleRate, int frameMs, int recordBufferBytes) {
+        this.record = record;
+        this.track = track;
+        this.sampleRate = sampleRate;
+        this.frameMs = frameMs;
+        this.recordBufferBytes = recordBufferBytes;
+    }
+
+    /**
+     * Builds both devices; throws if the platform can't open either, e.g.
+     * without the permission or with the microphone held by another app.
+     */
+    static AudioDevices create(int sampleRate, int frameMs, boolean lowLatency) {
+        int frameBytes = CallParams.frameSamples(sampleRate, frameMs) * 2;
+        int recordBuffer = AudioRecord.getMinBufferSize(sampleRate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        int trackBuffer = AudioTrack.getMinBufferSize(sampleRate,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        int frames = lowLatency ? 1 : 2;
+        recordBuffer = Math.max(recordBuffer, frameBytes * frames);
+        trackBuffer = Math.max(trackBuffer, frameBytes * frames);
+
+        AudioRecord record = null;
+        AudioTrack track = null;
+        try {
+            record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, recordBuffer);
+            track = new AudioTrack(AudioManager.STREAM_VOICE_CALL, sampleRate,
+                    AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                    trackBuffer, AudioTrack.MODE_STREAM);
+            if (record.getState() != AudioRecord.STATE_INITIALIZED) throw new IllegalStateException("microphone unavailable");
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) throw new IllegalStateException("speaker unavailable");
+            return new AudioDevices(record, track, sampleRate, frameMs, recordBuffer);
+        } catch (RuntimeException e) {
+            if (record != null) record.release();
+            if (track != null) track.release();
+            throw e;
+        }
+    }
+
+    /** Starts capture and playout; throws if either won't start. */
+    void start() {
+        record.startRecording();
+        // Refused quietly when another app holds the microphone
+        if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING)
+            throw new IllegalStateException("microphone did not start");
+        track.play();
+    }
+
+    /** Whether a call settled on {@code frameMs} at {@code sampleRate} can use these as they are. */
+    boolean suits(int sampleRate, int frameMs) {
+        return this.sampleRate == sampleRate && this.frameMs == frameMs;
+    }
+
+    /** For devices that never got started, or failed to. */
+    void release() {
+        record.release();
+        track.release();
+    }
+}
@@ -0,0 +1,49 @@
+package com.voicecall;
+
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The threads calls' audio runs on: one for the microphone, one for the
+ * speaker, both at urgent-audio priority so discovery, keep-alives and
+ * the UI can't hold a frame up. They live as long as the process, so a
+ * call doesn't begin by creating them, and jobs on each run one after
+ * another: the dial tone, then the call, then its disconnect tone. Also
+ * keeps the process's {@link AudioMetrics}, which {@link CallService}
+ * dumps.
+ */
+final class AudioEngine {
+
+    private static AudioEngine instance;
+
+    private final ExecutorService capture = Executors.newSingleThreadExecutor(r -> audioThread(r, "VoiceCall-capture"));
+    private final ExecutorService playout = Executors.newSingleThreadExecutor(r -> audioThread(r, "VoiceCall-playout"));
+    private final AudioMetrics metrics = new AudioMetrics();
+
+    private AudioEngine() {}
+
+    static synchronized AudioEngine get() {
+        if (instance == null) instance = new AudioEngine();
+        return instance;
+    }
+
+    AudioMetrics getMetrics() { return metrics; }
+
+    /** Runs {@code job} on the capture thread once whatever is there has finished. */
+    Future<?> capture(Runnable job) { return capture.submit(job); }
+
+    /** Runs {@code job} on the playout thread once whatever is there has finished. */
+    Future<?> playout(Runnable job) { return playout.submit(job); }
+
+    private static Thread audioThread(Runnable r, String name) {
+        Thread t = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            r.run();
+        }, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -9,8 +9,12 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
+import android.util.Log;
 import androidx.core.app.NotificationCompat;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class CallService extends Service {
 
     private static final String CHANNEL_ID = "voicecall_channel";
@@ -18,6 +22,9 @@ public class CallService extends Service {
     public static final String ACTION_END_CALL = "com.voicecall.END_CALL";
 
     private final IBinder binder = new LocalBinder();
+    // Built once, with its intents; an update only sets the text, and only a new text is posted
+    private NotificationCompat.Builder builder;
+    private String shownTitle, shownMessage;
 
     public class LocalBinder extends Binder {
         CallService getService() { return CallService.this; }
@@ -40,11 +47,25 @@ public class CallService extends Service {
     }
 
     public void updateNotification(String title, String message) {
+        if (title.equals(shownTitle) && message.equals(shownMessage)) return;
         NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         manager.notify(NOTIFICATION_ID, buildNotification(title, message));
     }
 
+    /** Shows the time since {@code connectedAtMs}, counted by the system rather than by updates. */
+    public void setConnectedAt(long connectedAtMs) {
+        builder().setWhen(connectedAtMs).setShowWhen(true).setUsesChronometer(true);
+        shownTitle = null;
+    }
+
     private Notification buildNotification(String title, String message) {
+        shownTitle = title;
+        shownMessage = message;
+        return builder().setContentTitle(title).setContentText(message).build();
+    }
+
+    private NotificationCompat.Builder builder() {
+        if (builder != null) return builder;
         Intent openIntent = new Intent(this, MainActivity.class);
         openIntent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         PendingIntent openPending = PendingIntent.getActivity(this, 0, openIntent,
@@ -55,17 +76,15 @@ public class CallService extends Service {
         PendingIntent endPending = PendingIntent.getService(this, 1, endIntent,
                 PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
-        return new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setContentTitle(title)
-                .setContentText(message)
+        builder = new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setSmallIcon(android.R.drawable.ic_menu_call)
                 .setContentIntent(openPending)
                 .addAction(android.R.drawable.ic_delete, "End Call", endPending)
                 .setOngoing(true)
                 .setPriority(NotificationCompat.PRIORITY_LOW)
                 .setSilent(true)
-                .setOnlyAlertOnce(true)
-                .build();
+                .setOnlyAlertOnce(true);
+        return builder;
     }
 
     private void createNotificationChannel() {
@@ -80,9 +99,17 @@ public class CallService extends Service {
         }
     }
 
+    // adb shell dumpsys activity service com.voicecall/.CallService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Audio metrics:");
+        writer.print(AudioEngine.get().getMetrics().dump());
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        Log.i("VoiceCall", "audio metrics:\n" + AudioEngine.get().getMetrics().dump());
         stopForeground(true);
     }
 }
\ No newline at end of file
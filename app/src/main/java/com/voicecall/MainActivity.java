@@ -7,60 +7,92 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioRecord;
-import android.media.AudioTrack;
-import android.media.MediaRecorder;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.Environment;
 import android.os.IBinder;
-import android.os.Looper;
+import android.util.Log;
 import android.text.format.Formatter;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.Enumeration;
+import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final int AUDIO_PORT = 50005;
     private static final int DISCOVERY_PORT = 50006;
-    private static final int SAMPLE_RATE = 8000;
-    private static final int BUFFER_SIZE = 1024;
+    private static final int DISCOVERY_ROUNDS = 8;
+    private static final int DISCOVERY_ROUND_MS = 1000;
 
     private Button btnHost, btnCall, btnEndCall, btnMute, btnSpeaker;
     private EditText etRoomCode;
     private TextView tvStatus, tvRoomCode, tvTimer, tvQuality, tvLabel;
-    private AudioRecord audioRecord;
-    private AudioTrack audioTrack;
+    private CheckBox cbLowLatency, cbRecord;
     private AudioManager audioManager;
-    private DatagramSocket audioSocket;
-    private DatagramSocket discoverySocket;
-    private InetAddress remoteAddress;
-    private int remotePort;
+    private NetLoop netLoop;
+    private DatagramChannel discoveryChannel;
+    private PeerDiscovery discovery;
+    private PeerDiscovery.HostCache hostCache;
+    // host:port of a relay for calls between networks, empty to stay on the local one
+    private String relayAddress;
+    private volatile long timeToConnectMs = -1;
+    private volatile CallSession session;
+    // The rate the audio devices run at
+    private int deviceRate = CallParams.BASE_SAMPLE_RATE;
+    private boolean lowLatency;
+    private boolean recordCall;
+    private volatile CallRecorder recorder;
+    // Devices built ahead of the call; preparedAudio and preparingAudio are guarded by audioLock
+    private final Object audioLock = new Object();
+    private AudioDevices preparedAudio;
+    private boolean preparingAudio;
+    private boolean setupLogged;
+    // Call-progress tones, mixed into whatever is writing to the speaker
+    private ToneMixer tones;
+    private volatile boolean dialing;
+    private Future<?> dialJob;
     private AtomicBoolean isRunning = new AtomicBoolean(false);
     private AtomicBoolean isMuted = new AtomicBoolean(false);
-    private boolean isSpeakerOn = false;
+    private volatile boolean isSpeakerOn = false;
+    private boolean isHost;
     private String currentRoomCode;
-    private long callStartTime;
-    private long lastPacketTime;
-    private Handler timerHandler = new Handler(Looper.getMainLooper());
-    private Handler qualityHandler = new Handler(Looper.getMainLooper());
+    private volatile long callStartTime;
+    // Samples the call on the net loop; the screen and notification redraw only what changed
+    private CallStatePublisher statePublisher;
+    private CallState shownState;
     private CallService callService;
     private boolean serviceBound = false;
+    private ConnectivityManager.NetworkCallback networkCallback;
 
     private ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
@@ -93,7 +125,18 @@ public class MainActivity extends AppCompatActivity {
         tvTimer = findViewById(R.id.tvTimer);
         tvQuality = findViewById(R.id.tvQuality);
         tvLabel = findViewById(R.id.tvLabel);
+        cbLowLatency = findViewById(R.id.cbLowLatency);
+        cbRecord = findViewById(R.id.cbRecord);
         audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        SharedPreferences hosts = getSharedPreferences("known_hosts", Context.MODE_PRIVATE);
+        hostCache = new PeerDiscovery.HostCache() {
+            @Override
+            public String get(String roomCode) { return hosts.getString(roomCode, null); }
+            @Override
+            public void put(String roomCode, String hostAddress) {
+                hosts.edit().putString(roomCode, hostAddress).apply();
+            }
+        };
 
         String[] perms = {Manifest.permission.RECORD_AUDIO};
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
@@ -120,13 +163,41 @@ public class MainActivity extends AppCompatActivity {
         btnEndCall.setOnClickListener(v -> endCall());
         btnMute.setOnClickListener(v -> toggleMute());
         btnSpeaker.setOnClickListener(v -> toggleSpeaker());
+        relayAddress = getString(R.string.relay_address).trim();
+        loadTones();
+    }
+
+    // Decoded once, off the UI thread, at the rate the speaker runs at in a call
+    private void loadTones() {
+        tones = new ToneMixer(nativeSampleRate());
+        int[] ids = new int[3];
+        ids[ToneMixer.DIAL] = R.raw.dial_tone;
+        ids[ToneMixer.CONNECT] = R.raw.connect_tone;
+        ids[ToneMixer.DISCONNECT] = R.raw.disconnect_tone;
+        ToneMixer tones = this.tones;
+        new Thread(() -> {
+            for (int i = 0; i < ids.length; i++) {
+                try {
+                    tones.load(i, new WavAudioSource(getResources().openRawResource(ids[i]), false));
+                } catch (IOException e) {
+                    Log.w("VoiceCall", "tone " + i + " not loaded", e);
+                }
+            }
+        }, "VoiceCall-tones").start();
     }
 
     private void startHostMode() {
+        isHost = true;
+        setupLogged = false;
+        lowLatency = cbLowLatency.isChecked();
+        recordCall = cbRecord.isChecked();
+        deviceRate = nativeSampleRate();
+        cbLowLatency.setVisibility(View.GONE);
+        cbRecord.setVisibility(View.GONE);
         currentRoomCode = String.format("%06d", new Random().nextInt(999999));
         tvRoomCode.setText("Room Code: " + currentRoomCode);
         tvRoomCode.setVisibility(View.VISIBLE);
-        tvLabel.setText("Share this code with the other phone");
+        tvLabel.setText("Share this code with the other phones");
         tvLabel.setVisibility(View.VISIBLE);
         tvStatus.setText("Status: Waiting for call...");
         btnHost.setVisibility(View.GONE);
@@ -135,51 +206,51 @@ public class MainActivity extends AppCompatActivity {
         btnEndCall.setVisibility(View.VISIBLE);
         startCallService();
 
-        // Discovery thread - keeps responding to guest searches
-        new Thread(() -> {
-            try {
-                discoverySocket = new DatagramSocket(DISCOVERY_PORT);
-                discoverySocket.setSoTimeout(0);
-                byte[] buf = new byte[512];
-                while (!isRunning.get()) {
-                    DatagramPacket pkt = new DatagramPacket(buf, buf.length);
-                    discoverySocket.receive(pkt);
-                    String msg = new String(pkt.getData(), 0, pkt.getLength()).trim();
-                    if (msg.equals("FIND:" + currentRoomCode)) {
-                        String myIp = getDeviceIpAddress();
-                        String response = "HOST:" + myIp;
-                        byte[] resp = response.getBytes();
-                        discoverySocket.send(new DatagramPacket(resp, resp.length,
-                                pkt.getAddress(), pkt.getPort()));
-                        runOnUiThread(() -> tvStatus.setText("Status: Guest found! Connecting..."));
-                    }
-                }
-            } catch (Exception ignored) {}
-        }).start();
-
-        // Audio thread - waits for first packet from guest
-        new Thread(() -> {
-            try {
-                audioSocket = new DatagramSocket(AUDIO_PORT);
-                audioSocket.setSoTimeout(0);
-                byte[] buf = new byte[BUFFER_SIZE * 2];
-                DatagramPacket pkt = new DatagramPacket(buf, buf.length);
-                audioSocket.receive(pkt);
-                remoteAddress = pkt.getAddress();
-                remotePort = pkt.getPort();
-                isRunning.set(true);
-                lastPacketTime = System.currentTimeMillis();
-                runOnUiThread(this::onCallConnected);
-                startAudioStreaming();
-            } catch (Exception e) {
-                if (isRunning.get())
-                    runOnUiThread(() -> tvStatus.setText("Error: " + e.getMessage()));
+        try {
+            netLoop = new NetLoop(CallSession.MAX_PACKET);
+            netLoop.start("VoiceCall-net");
+            // Discovery - keeps answering guest searches while the room has space
+            discoveryChannel = netLoop.open(DISCOVERY_PORT, false, this::onDiscoveryRequest);
+            // Audio - each guest's HELLO adds it to the room, the first one starts the call
+            session = newSession(true);
+            session.listen(AUDIO_PORT);
+            prepareAudio(session);
+            // Guests on other networks come in through the relay, local ones still directly
+            if (!relayAddress.isEmpty()) {
+                CallSession s = session;
+                String roomCode = currentRoomCode;
+                new Thread(() -> {
+                    InetSocketAddress relay = resolveRelay();
+                    if (relay != null && this.session == s) s.useRelay(relay, roomCode);
+                }, "VoiceCall-relay").start();
             }
-        }).start();
+        } catch (IOException e) {
+            tvStatus.setText("Error: " + e.getMessage());
+        }
+    }
+
+    private void onDiscoveryRequest(DatagramChannel channel, byte[] data, int len, SocketAddress from)
+            throws IOException {
+        CallSession session = this.session;
+        if (session == null || session.getParticipants().length >= CallSession.MAX_PARTICIPANTS - 1) return;
+        String msg = new String(data, 0, len).trim();
+        if (msg.equals("FIND:" + currentRoomCode)) {
+            byte[] resp = ("HOST:" + getDeviceIpAddress()).getBytes();
+            channel.send(ByteBuffer.wrap(resp), from);
+            if (!isRunning.get()) runOnUiThread(() -> tvStatus.setText("Status: Guest found! Connecting..."));
+        }
     }
 
     private void connectToHost(String roomCode) {
+        isHost = false;
+        setupLogged = false;
+        lowLatency = cbLowLatency.isChecked();
+        recordCall = cbRecord.isChecked();
+        deviceRate = nativeSampleRate();
+        cbLowLatency.setVisibility(View.GONE);
+        cbRecord.setVisibility(View.GONE);
         currentRoomCode = roomCode;
+        timeToConnectMs = -1;
         tvStatus.setText("Status: Searching...");
         btnHost.setVisibility(View.GONE);
         btnCall.setVisibility(View.GONE);
@@ -187,213 +258,405 @@ public class MainActivity extends AppCompatActivity {
         btnEndCall.setVisibility(View.VISIBLE);
         startCallService();
 
-        new Thread(() -> {
-            try {
-                // Try to find host by broadcasting on all subnets
-                DatagramSocket discSocket = new DatagramSocket();
-                discSocket.setBroadcast(true);
-                discSocket.setSoTimeout(2000);
-
-                String findMsg = "FIND:" + roomCode;
-                byte[] findBytes = findMsg.getBytes();
-
-                String[] subnets = {
-                    "192.168.43.255",
-                    "192.168.1.255",
-                    "192.168.0.255",
-                    "192.168.2.255",
-                    "10.0.0.255",
-                    "172.20.10.255",
-                    "172.16.0.255"
-                };
-
-                InetAddress hostAddress = null;
-
-                // Try multiple times with all subnets
-                for (int attempt = 0; attempt < 5 && hostAddress == null; attempt++) {
-                    final int attemptNum = attempt + 1;
-                    runOnUiThread(() -> tvStatus.setText("Status: Searching... " + attemptNum + "/5"));
-
-                    for (String subnet : subnets) {
-                        try {
-                            DatagramPacket findPkt = new DatagramPacket(
-                                    findBytes, findBytes.length,
-                                    InetAddress.getByName(subnet), DISCOVERY_PORT);
-                            discSocket.send(findPkt);
-                        } catch (Exception ignored) {}
-                    }
-
-                    // Also try direct IP scan on common hotspot subnet
-                    try {
-                        String myIp = getDeviceIpAddress();
-                        if (!myIp.equals("0.0.0.0")) {
-                            String subnet = myIp.substring(0, myIp.lastIndexOf(".") + 1);
-                            for (int i = 1; i <= 20; i++) {
-                                try {
-                                    DatagramPacket findPkt = new DatagramPacket(
-                                            findBytes, findBytes.length,
-                                            InetAddress.getByName(subnet + i), DISCOVERY_PORT);
-                                    discSocket.send(findPkt);
-                                } catch (Exception ignored) {}
+        try {
+            netLoop = new NetLoop(CallSession.MAX_PACKET);
+            netLoop.start("VoiceCall-net");
+            // The socket and devices get ready while the search runs
+            session = newSession(false);
+            session.open();
+            prepareAudio(session);
+            startDialTone();
+            discovery = new PeerDiscovery(netLoop, roomCode, DISCOVERY_PORT, hostCache,
+                    new PeerDiscovery.Listener() {
+                        @Override
+                        public void onSearching(int round, int rounds) {
+                            runOnUiThread(() -> tvStatus.setText("Status: Searching... " + round + "/" + rounds));
+                        }
+                        @Override
+                        public void onHostFound(InetAddress host, long elapsedMs) {
+                            timeToConnectMs = elapsedMs;
+                            discovery = null;
+                            CallSession session = MainActivity.this.session;
+                            if (session == null) return;
+                            try {
+                                session.connect(new InetSocketAddress(host, AUDIO_PORT));
+                            } catch (IOException e) {
+                                runOnUiThread(() -> {
+                                    failCall();
+                                    tvStatus.setText("Error: " + e.getMessage());
+                                });
                             }
                         }
-                    } catch (Exception ignored) {}
-
-                    // Wait for response
-                    try {
-                        byte[] respBuf = new byte[256];
-                        DatagramPacket respPkt = new DatagramPacket(respBuf, respBuf.length);
-                        discSocket.receive(respPkt);
-                        String response = new String(respPkt.getData(), 0, respPkt.getLength()).trim();
-                        if (response.startsWith("HOST:")) {
-                            String ip = response.substring(5);
-                            hostAddress = InetAddress.getByName(ip);
+                        @Override
+                        public void onFailed(long elapsedMs) {
+                            discovery = null;
+                            CallSession session = MainActivity.this.session;
+                            if (session != null && !relayAddress.isEmpty()) {
+                                connectThroughRelay(session, roomCode);
+                                return;
+                            }
+                            runOnUiThread(() -> {
+                                failCall();
+                                tvStatus.setText("Status: Host not found. Check room code.");
+                            });
                         }
-                    } catch (Exception ignored) {}
-
-                    if (hostAddress == null) Thread.sleep(500);
-                }
-
-                discSocket.close();
-
-                if (hostAddress == null) {
-                    runOnUiThread(() -> {
-                        tvStatus.setText("Status: Host not found. Check room code.");
-                        resetUI();
-                        stopCallService();
-                    });
-                    return;
-                }
-
-                final InetAddress finalHost = hostAddress;
-                remoteAddress = finalHost;
-                remotePort = AUDIO_PORT;
-
-                audioSocket = new DatagramSocket();
-                audioSocket.setSoTimeout(0);
-
-                // Send hello packet to host
-                byte[] hello = "HELLO".getBytes();
-                audioSocket.send(new DatagramPacket(hello, hello.length, remoteAddress, remotePort));
-
-                isRunning.set(true);
-                lastPacketTime = System.currentTimeMillis();
-                runOnUiThread(this::onCallConnected);
-                startAudioStreaming();
+                    }, DISCOVERY_ROUNDS, DISCOVERY_ROUND_MS);
+            discovery.start();
+        } catch (IOException e) {
+            tvStatus.setText("Error: " + e.getMessage());
+            failCall();
+        }
+    }
 
-            } catch (Exception e) {
+    // Guest side, once the host isn't on this network: meets it at the relay
+    // instead, if it registered the room there
+    private void connectThroughRelay(CallSession session, String roomCode) {
+        runOnUiThread(() -> tvStatus.setText("Status: Connecting through relay..."));
+        new Thread(() -> {
+            InetSocketAddress relay = resolveRelay();
+            if (this.session != session) return;
+            try {
+                if (relay == null) throw new IOException("relay " + relayAddress + " not found");
+                session.useRelay(relay, roomCode);
+                session.connect(relay);
+            } catch (IOException e) {
                 runOnUiThread(() -> {
+                    failCall();
                     tvStatus.setText("Error: " + e.getMessage());
-                    resetUI();
-                    stopCallService();
                 });
             }
-        }).start();
+        }, "VoiceCall-relay").start();
     }
 
-    private void startAudioStreaming() {
-        int minBuffer = AudioRecord.getMinBufferSize(SAMPLE_RATE,
-                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-        if (!checkPermission()) return;
+    // Looks the relay's name up, so not on the UI thread; null if it can't be
+    private InetSocketAddress resolveRelay() {
+        int colon = relayAddress.lastIndexOf(':');
+        try {
+            InetSocketAddress relay = colon < 0
+                    ? new InetSocketAddress(relayAddress, RelayControl.DEFAULT_PORT)
+                    : new InetSocketAddress(relayAddress.substring(0, colon),
+                            Integer.parseInt(relayAddress.substring(colon + 1)));
+            return relay.isUnresolved() ? null : relay;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE,
-                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
-                Math.max(minBuffer, BUFFER_SIZE * 2));
+    private CallSession newSession(boolean host) {
+        int frameMs = lowLatency ? CallParams.LOW_LATENCY_FRAME_MS : CallParams.DEFAULT_FRAME_MS;
+        CallSession session = new CallSession(netLoop, host, frameMs, CallParams.preferredSampleRate(deviceRate),
+                currentRoomCode, new CallSession.Listener() {
+                    @Override
+                    public void onConnected() {
+                        isRunning.set(true);
+                        tones.play(ToneMixer.CONNECT);
+                        runOnUiThread(MainActivity.this::onCallConnected);
+                        // Stopping the dial tone, the devices and storage can all block the loop
+                        CallSession s = MainActivity.this.session;
+                        new Thread(() -> startAudioStreaming(s), "VoiceCall-start").start();
+                    }
+                    @Override
+                    public void onParticipantsChanged(int count) {
+                        runOnUiThread(MainActivity.this::showParticipants);
+                    }
+                    @Override
+                    public void onAudioFailed(Exception error) {
+                        runOnUiThread(() -> {
+                            if (!isRunning.get()) return;
+                            endCall();
+                            tvStatus.setText("Error: audio device failed (" + error.getMessage() + ")");
+                        });
+                    }
+                });
+        session.setTones(tones);
+        return session;
+    }
 
-        audioTrack = new AudioTrack(AudioManager.STREAM_VOICE_CALL, SAMPLE_RATE,
-                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
-                Math.max(AudioTrack.getMinBufferSize(SAMPLE_RATE,
-                        AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT),
-                        BUFFER_SIZE * 2), AudioTrack.MODE_STREAM);
+    // Runs on its own thread once the call is up; gives up if the call ended meanwhile
+    private void startAudioStreaming(CallSession session) {
+        stopDialTone();
+        if (!checkPermission() || this.session != session) return;
 
-        audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
-        audioRecord.startRecording();
-        audioTrack.play();
+        // The devices run at their native rate and the session resamples to the wire rate.
+        // Usually they were built while we waited and only need starting
+        AudioDevices devices;
+        try {
+            devices = takeAudio(session);
+        } catch (RuntimeException e) {
+            audioStartFailed(session, e);
+            return;
+        }
+        if (this.session != session) {
+            devices.release();
+            return;
+        }
+        int deviceRate = devices.sampleRate;
+        session.getPipelineDelay().setCaptureDeviceMs(devices.recordBufferBytes / 2 * 1000 / deviceRate);
+        session.setMuted(isMuted.get());
+        try {
+            devices.start();
+        } catch (RuntimeException e) {
+            devices.release();
+            audioStartFailed(session, e);
+            return;
+        }
+        AudioEngine engine = AudioEngine.get();
+        AudioMetrics metrics = engine.getMetrics();
+        session.setMetrics(metrics);
+        AudioSource source = new RecordAudioSource(devices.record, deviceRate, devices.recordBufferBytes / 2,
+                metrics.counter(AudioMetrics.CAPTURE_OVERRUNS));
+        AudioSink sink = new TrackAudioSink(devices.track, deviceRate, metrics.counter(AudioMetrics.PLAYOUT_UNDERRUNS));
+
+        // Each job owns its device and releases it when the call ends
+        if (recordCall) startRecording(session);
+
+        engine.capture(() -> {
+            session.runCapture(source);
+            source.close();
+        });
+        int frameSamples = CallParams.frameSamples(deviceRate, devices.frameMs);
+        engine.playout(() -> {
+            session.runPlayout(sink);
+            finishTone(sink, frameSamples);
+            sink.close();
+        });
+    }
+
+    // The devices wouldn't open or start, so the call can't go on
+    private void audioStartFailed(CallSession session, RuntimeException error) {
+        Log.w("VoiceCall", "audio devices failed", error);
+        runOnUiThread(() -> {
+            if (this.session != session) return;
+            // Nothing is playing out, so there's no disconnect tone to wait for
+            isRunning.set(false);
+            endCall();
+            tvStatus.setText("Error: audio device failed (" + error.getMessage() + ")");
+        });
+    }
 
-        // Send audio thread
+    // Builds the devices on their own thread while the host waits or the guest searches,
+    // for the frame duration we'll offer, and puts the phone in call mode now rather
+    // than when the peer answers
+    private void prepareAudio(CallSession session) {
+        if (!checkPermission()) return;
+        audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
+        int rate = deviceRate;
+        int frameMs = session.getFrameMs();
+        boolean lowLatency = this.lowLatency;
+        synchronized (audioLock) { preparingAudio = true; }
         new Thread(() -> {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while (isRunning.get()) {
-                try {
-                    int read = audioRecord.read(buffer, 0, buffer.length);
-                    if (read > 0) {
-                        byte[] data = isMuted.get() ? new byte[read] : buffer.clone();
-                        audioSocket.send(new DatagramPacket(data, read, remoteAddress, remotePort));
+            AudioDevices devices = null;
+            try {
+                devices = AudioDevices.create(rate, frameMs, lowLatency);
+                session.getTimeline().mark(CallTimeline.DEVICES_READY);
+            } catch (RuntimeException e) {
+                // Nothing prepared: starting the call tries again and reports it
+                Log.w("VoiceCall", "audio devices not prepared", e);
+            } finally {
+                synchronized (audioLock) {
+                    preparingAudio = false;
+                    audioLock.notifyAll();
+                    // Kept only if the call they were built for is still on
+                    if (this.session == session) {
+                        preparedAudio = devices;
+                        devices = null;
                     }
-                } catch (Exception e) {
-                    if (isRunning.get()) break;
                 }
             }
-        }).start();
+            if (devices != null) devices.release();
+        }, "VoiceCall-prepare").start();
+    }
 
-        // Receive audio thread - no timeout, runs forever
-        new Thread(() -> {
-            byte[] buffer = new byte[BUFFER_SIZE * 2];
-            while (isRunning.get()) {
+    // The prepared devices if they suit what the call settled on, otherwise new ones
+    private AudioDevices takeAudio(CallSession session) {
+        AudioDevices devices;
+        synchronized (audioLock) {
+            while (preparingAudio) {
                 try {
-                    DatagramPacket pkt = new DatagramPacket(buffer, buffer.length);
-                    audioSocket.receive(pkt);
-                    lastPacketTime = System.currentTimeMillis();
-                    // Skip HELLO packets
-                    String check = new String(pkt.getData(), 0, Math.min(pkt.getLength(), 5));
-                    if (!check.equals("HELLO")) {
-                        audioTrack.write(pkt.getData(), 0, pkt.getLength());
-                    }
-                } catch (Exception e) {
-                    if (isRunning.get()) break;
+                    audioLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
-        }).start();
+            devices = preparedAudio;
+            preparedAudio = null;
+        }
+        if (devices != null && devices.suits(deviceRate, session.getFrameMs())) return devices;
+        if (devices != null) devices.release();
+        devices = AudioDevices.create(deviceRate, session.getFrameMs(), lowLatency);
+        session.getTimeline().mark(CallTimeline.DEVICES_READY);
+        return devices;
+    }
 
-        // Keep-alive thread - sends silent packet every 3 seconds to keep connection alive
-        new Thread(() -> {
-            byte[] keepAlive = new byte[BUFFER_SIZE];
-            while (isRunning.get()) {
-                try {
-                    Thread.sleep(3000);
-                    if (isRunning.get()) {
-                        audioSocket.send(new DatagramPacket(keepAlive, keepAlive.length,
-                                remoteAddress, remotePort));
+    // Guest side, while searching: the prepared speaker plays the dial tone from the
+    // playout thread, until the call's own playout takes over or the search is given up
+    private void startDialTone() {
+        tones.loop(ToneMixer.DIAL);
+        dialing = true;
+        dialJob = AudioEngine.get().playout(() -> {
+            AudioDevices devices;
+            synchronized (audioLock) {
+                while (preparingAudio && dialing) {
+                    try {
+                        audioLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
-                } catch (Exception ignored) {}
+                }
+                devices = preparedAudio;
+            }
+            if (devices == null) return;
+            int samples = CallParams.frameSamples(devices.sampleRate, devices.frameMs);
+            short[] frame = new short[samples];
+            devices.track.play();
+            while (dialing) {
+                Arrays.fill(frame, 0, samples, (short) 0);
+                tones.mixInto(frame, 0, samples);
+                if (devices.track.write(frame, 0, samples) < 0) break;
             }
-        }).start();
+        });
+    }
 
-        qualityHandler.postDelayed(qualityRunnable, 2000);
+    // Before anything else uses or releases the prepared devices
+    private void stopDialTone() {
+        dialing = false;
+        Future<?> job = dialJob;
+        dialJob = null;
+        if (job == null) return;
+        synchronized (audioLock) { audioLock.notifyAll(); }
+        // Still queued behind the last call's disconnect tone: it needn't run at all
+        if (job.cancel(false)) return;
+        try {
+            job.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException ignored) {
+        }
     }
 
-    private Runnable qualityRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (isRunning.get()) {
-                long t = System.currentTimeMillis() - lastPacketTime;
-                String quality = t < 500 ? "Excellent" : t < 2000 ? "Good" : t < 5000 ? "Poor" : "No Signal";
-                tvQuality.setText("Signal: " + quality);
-                if (serviceBound && callService != null)
-                    callService.updateNotification("Call Active",
-                            "Duration: " + tvTimer.getText() + " | " + quality);
-                qualityHandler.postDelayed(this, 3000);
-            }
+    // Playout thread, once the call is over: lets the disconnect tone finish on the call's track
+    private void finishTone(AudioSink sink, int samples) {
+        short[] frame = new short[samples];
+        while (tones.isActive()) {
+            Arrays.fill(frame, 0, samples, (short) 0);
+            tones.mixInto(frame, 0, samples);
+            sink.write(frame, 0, samples);
         }
-    };
+    }
 
-    private Runnable timerRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (isRunning.get()) {
-                long elapsed = System.currentTimeMillis() - callStartTime;
-                long seconds = (elapsed / 1000) % 60;
-                long minutes = (elapsed / 1000) / 60;
-                tvTimer.setText(String.format("%02d:%02d", minutes, seconds));
-                timerHandler.postDelayed(this, 1000);
-            }
+    private void releasePreparedAudio() {
+        AudioDevices devices;
+        synchronized (audioLock) {
+            devices = preparedAudio;
+            preparedAudio = null;
         }
-    };
+        if (devices != null) devices.release();
+    }
+
+    // Both directions go to a stereo WAV in the app's music folder, written off the audio threads
+    private void startRecording(CallSession session) {
+        File dir = getExternalFilesDir(Environment.DIRECTORY_MUSIC);
+        if (dir == null) dir = getFilesDir();
+        String name = new SimpleDateFormat("'call-'yyyyMMdd-HHmmss'.wav'", Locale.US).format(new Date());
+        try {
+            CallRecorder r = new CallRecorder(new File(dir, name), session.getSampleRate(), session.getFrameMs());
+            r.start();
+            recorder = r;
+            session.setRecorder(r);
+        } catch (IOException e) {
+            Log.w("VoiceCall", "recording not started", e);
+        }
+    }
+
+    // Finishing the file waits on storage, so it happens on its own thread
+    private void stopRecording() {
+        CallRecorder r = recorder;
+        recorder = null;
+        if (r == null) return;
+        new Thread(() -> {
+            r.close();
+            Log.i("VoiceCall", "recorded " + r.getRecordedMs() / 1000 + " s to " + r.getFile()
+                    + ", " + r.getDroppedFrames() + " frames dropped"
+                    + (r.getError() != null ? ", stopped by " + r.getError() : ""));
+        }, "VoiceCall-recorder-close").start();
+    }
+
+    // Rate the audio HAL runs at; capturing and playing at it skips the platform's own
+    // resampling. Falls back to the highest wire rate the microphone accepts
+    private int nativeSampleRate() {
+        try {
+            String value = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+            int rate = value != null ? Integer.parseInt(value) : 0;
+            if (rate > 0 && rate <= CallParams.MAX_SAMPLE_RATE && AudioRecord.getMinBufferSize(rate,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT) > 0) return rate;
+        } catch (NumberFormatException ignored) {}
+        for (int i = CallParams.SAMPLE_RATES.length - 1; i > 0; i--) {
+            int rate = CallParams.SAMPLE_RATES[i];
+            if (AudioRecord.getMinBufferSize(rate,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT) > 0) return rate;
+        }
+        return CallParams.BASE_SAMPLE_RATE;
+    }
+
+    // Main thread: touches only what differs from the state shown before
+    private void render(CallState state) {
+        if (!isRunning.get()) return;
+        CallState shown = shownState;
+        shownState = state;
+        if (shown == null || shown.durationSec != state.durationSec) tvTimer.setText(state.formatDuration());
+        if (state.sameApartFromDuration(shown)) return;
+        String detail = !state.hasStats ? "" : "Loss: " + state.lossTenths / 10 + "." + state.lossTenths % 10
+                + "% | Jitter: " + state.jitterMs + " ms | RTT: " + (state.rttMs >= 0 ? state.rttMs + " ms" : "-");
+        if (state.recording) {
+            long dropped = state.recordingDroppedFrames;
+            detail += " | REC" + (dropped > 0 ? " (" + dropped + " frames lost)" : "");
+        }
+        tvQuality.setText("Signal: " + state.quality + " | " + state.sampleRateKhz + " kHz | Delay: ~"
+                + state.delayMs + " ms\n" + detail);
+        // The notification counts the duration itself, so it changes only with the rating
+        if (serviceBound && callService != null) {
+            callService.updateNotification("Call Active", state.quality
+                    + (state.muted ? " | Muted" : "") + (state.recording ? " | REC" : ""));
+        }
+    }
+
+    // Net loop, every few seconds: the figures behind the screen, for the log
+    private void logStats(CallSession session) {
+        CallStats.Snapshot s = session.worstSnapshot();
+        if (s != null) Log.i("VoiceCall", s.toString());
+        CallTimeline timeline = session.getTimeline();
+        if (!setupLogged && timeline.getTimeToFirstAudioMs() >= 0) {
+            setupLogged = true;
+            Log.i("VoiceCall", "setup: " + timeline);
+        }
+        AudioMixer m = session.getMixer();
+        if (m != null && m.getFrames() > 0) {
+            Log.i("VoiceCall", "mixer: " + session.getParticipants().length + " guests, "
+                    + m.getMixNanos() / m.getFrames() / 1000 + " us/frame");
+        }
+    }
+
+    private void showParticipants() {
+        CallSession session = this.session;
+        if (!isRunning.get() || session == null) return;
+        int guests = session.getParticipants().length;
+        if (guests == 0) {
+            // The last guest timed out and nobody took its place: there's no call left
+            endCall();
+            tvStatus.setText("Status: Call ended. All guests left.");
+            return;
+        }
+        tvStatus.setText(guests == 1 ? "Status: Connected!" : "Status: Connected! (" + guests + " guests)");
+    }
 
     private void onCallConnected() {
         callStartTime = System.currentTimeMillis();
-        tvStatus.setText("Status: Connected!");
-        tvRoomCode.setVisibility(View.GONE);
+        tvStatus.setText(timeToConnectMs >= 0
+                ? "Status: Connected! (host found in " + timeToConnectMs + " ms)" : "Status: Connected!");
+        // The host keeps showing the code so more guests can join
+        tvRoomCode.setVisibility(isHost ? View.VISIBLE : View.GONE);
         tvLabel.setVisibility(View.GONE);
         tvTimer.setVisibility(View.VISIBLE);
         tvQuality.setVisibility(View.VISIBLE);
@@ -403,24 +666,67 @@ public class MainActivity extends AppCompatActivity {
         btnEndCall.setVisibility(View.VISIBLE);
         btnMute.setVisibility(View.VISIBLE);
         btnSpeaker.setVisibility(View.VISIBLE);
-        timerHandler.post(timerRunnable);
-        qualityHandler.post(qualityRunnable);
-        if (serviceBound && callService != null)
+        watchNetwork();
+        if (serviceBound && callService != null) {
+            callService.setConnectedAt(callStartTime);
             callService.updateNotification("Call Active", "VoiceCall connected");
+        }
+        CallSession session = this.session;
+        NetLoop loop = netLoop;
+        if (session == null || loop == null) return;
+        statePublisher = new CallStatePublisher(loop,
+                now -> CallState.sample(session, callStartTime, isSpeakerOn, recorder, now),
+                state -> runOnUiThread(() -> render(state)));
+        statePublisher.start();
+        loop.schedule(3000, 3000, () -> logStats(session));
+    }
+
+    // A switch between Wi-Fi and mobile data moves the call to the new network straight
+    // away; before API 24, or if this misses one, the session's liveness probing notices
+    private void watchNetwork() {
+        if (networkCallback != null || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            private Network current;
+            @Override
+            public void onAvailable(Network network) {
+                // The first callback is the network we're already on
+                Network previous = current;
+                current = network;
+                CallSession session = MainActivity.this.session;
+                if (previous != null && !previous.equals(network) && session != null) session.onNetworkChanged();
+            }
+        };
+        cm.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    private void unwatchNetwork() {
+        if (networkCallback == null) return;
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        try { cm.unregisterNetworkCallback(networkCallback); } catch (IllegalArgumentException ignored) {}
+        networkCallback = null;
     }
 
     private void endCall() {
+        // Asked for before the call stops, so its playout thread is still there to play it
+        if (isRunning.get()) tones.play(ToneMixer.DISCONNECT);
+        else tones.stop();
         isRunning.set(false);
-        timerHandler.removeCallbacks(timerRunnable);
-        qualityHandler.removeCallbacks(qualityRunnable);
-        new Thread(() -> {
-            try { if (audioRecord != null) { audioRecord.stop(); audioRecord.release(); } } catch (Exception ignored) {}
-            try { if (audioTrack != null) { audioTrack.stop(); audioTrack.release(); } } catch (Exception ignored) {}
-            try { if (audioSocket != null) audioSocket.close(); } catch (Exception ignored) {}
-            try { if (discoverySocket != null) discoverySocket.close(); } catch (Exception ignored) {}
-            audioRecord = null; audioTrack = null; audioSocket = null;
-            discoverySocket = null; remoteAddress = null;
-        }).start();
+        if (session != null) session.stop();
+        session = null;
+        stopDialTone();
+        releasePreparedAudio();
+        stopRecording();
+        if (statePublisher != null) statePublisher.stop();
+        statePublisher = null;
+        shownState = null;
+        unwatchNetwork();
+        // The loop closes every channel on its way out; the capture and playout
+        // threads see isRunning drop and release their own devices
+        if (netLoop != null) netLoop.shutdown();
+        netLoop = null;
+        discoveryChannel = null;
+        discovery = null;
         audioManager.setMode(AudioManager.MODE_NORMAL);
         audioManager.setSpeakerphoneOn(false);
         isSpeakerOn = false;
@@ -429,6 +735,19 @@ public class MainActivity extends AppCompatActivity {
         resetUI();
     }
 
+    private void failCall() {
+        tones.stop();
+        if (session != null) session.stop();
+        session = null;
+        stopDialTone();
+        releasePreparedAudio();
+        audioManager.setMode(AudioManager.MODE_NORMAL);
+        if (netLoop != null) netLoop.shutdown();
+        netLoop = null;
+        resetUI();
+        stopCallService();
+    }
+
     private void resetUI() {
         runOnUiThread(() -> {
             tvStatus.setText("Status: Idle");
@@ -440,6 +759,8 @@ public class MainActivity extends AppCompatActivity {
             btnHost.setVisibility(View.VISIBLE);
             btnCall.setVisibility(View.VISIBLE);
             etRoomCode.setVisibility(View.VISIBLE);
+            cbLowLatency.setVisibility(View.VISIBLE);
+            cbRecord.setVisibility(View.VISIBLE);
             btnEndCall.setVisibility(View.GONE);
             btnMute.setVisibility(View.GONE);
             btnSpeaker.setVisibility(View.GONE);
@@ -453,9 +774,12 @@ public class MainActivity extends AppCompatActivity {
     private void toggleMute() {
         boolean muted = !isMuted.get();
         isMuted.set(muted);
+        CallSession session = this.session;
+        if (session != null) session.setMuted(muted);
         btnMute.setText(muted ? "UNMUTE" : "MUTE");
         btnMute.setBackgroundTintList(getColorStateList(
                 muted ? android.R.color.holo_red_dark : android.R.color.holo_blue_dark));
+        if (statePublisher != null) statePublisher.refresh();
     }
 
     private void toggleSpeaker() {
@@ -470,6 +794,7 @@ public class MainActivity extends AppCompatActivity {
         btnSpeaker.setText(isSpeakerOn ? "EARPIECE" : "SPEAKER");
         btnSpeaker.setBackgroundTintList(getColorStateList(
                 isSpeakerOn ? android.R.color.holo_green_dark : android.R.color.holo_blue_dark));
+        if (statePublisher != null) statePublisher.refresh();
     }
 
     private String getDeviceIpAddress() {
@@ -0,0 +1,54 @@
+package com.voicecall;
+
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.os.Build;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The microphone as an {@link AudioSource}; closing it stops and releases the recorder.
+ * An overrun, where the device captured more than its buffer holds before we read it
+ * and dropped the rest, is counted into {@code overruns} (API 24 and up).
+ */
+final class RecordAudioSource implements AudioSource {
+
+    private final AudioRecord record;
+    private final int sampleRate;
+    private final int bufferFrames;
+    private final LongAdder overruns;
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    // Frames read, plus any the device dropped, so it lines up with its frame position
+    private long framesRead;
+
+    RecordAudioSource(AudioRecord record, int sampleRate, int bufferFrames, LongAdder overruns) {
+        this.record = record;
+        this.sampleRate = sampleRate;
+        this.bufferFrames = bufferFrames;
+        this.overruns = overruns;
+    }
+
+    @Override public int getSampleRate() { return sampleRate; }
+
+    @Override
+    public int read(short[] pcm, int off, int samples) {
+        // Error codes are transient as far as the call is concerned - try again next frame
+        int n = Math.max(0, record.read(pcm, off, samples));
+        framesRead += n;
+        if (n > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && record.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+            long dropped = timestamp.framePosition - framesRead - bufferFrames;
+            if (dropped > 0) {
+                overruns.increment();
+                framesRead += dropped;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void close() {
+        try { record.stop(); } catch (Exception ignored) {}
+        record.release();
+    }
+}
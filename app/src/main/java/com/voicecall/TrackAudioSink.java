@@ -0,0 +1,53 @@
+package com.voicecall;
+
+import android.media.AudioTrack;
+import android.os.Build;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The speaker as an {@link AudioSink}; closing it stops and releases the track.
+ * Times the track ran dry are counted into {@code underruns} (API 24 and up).
+ */
+final class TrackAudioSink implements AudioSink {
+
+    private final AudioTrack track;
+    private final int sampleRate;
+    private final LongAdder underruns;
+    private long written;
+    // The track's own count, which includes any from before the call
+    private int lastUnderruns;
+
+    TrackAudioSink(AudioTrack track, int sampleRate, LongAdder underruns) {
+        this.track = track;
+        this.sampleRate = sampleRate;
+        this.underruns = underruns;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) lastUnderruns = track.getUnderrunCount();
+    }
+
+    @Override public int getSampleRate() { return sampleRate; }
+
+    @Override
+    public int write(short[] pcm, int off, int samples) {
+        int n = track.write(pcm, off, samples);
+        if (n > 0) written += n;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            int u = track.getUnderrunCount();
+            if (u > lastUnderruns) underruns.add(u - lastUnderruns);
+            lastUnderruns = u;
+        }
+        return Math.max(0, n);
+    }
+
+    @Override
+    public int getPendingSamples() {
+        long played = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+        return (int) Math.max(0, written - played);
+    }
+
+    @Override
+    public void close() {
+        try { track.stop(); } catch (Exception ignored) {}
+        track.release();
+    }
+}
@@ -0,0 +1,118 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallParams;
+import com.voicecall.CallSession;
+import com.voicecall.Codecs;
+import com.voicecall.KeyExchange;
+import com.voicecall.MediaCipher;
+import com.voicecall.MediaSender;
+import com.voicecall.PacketHeader;
+import com.voicecall.Participant;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Checks that the per-frame paths stay off the heap once a call is
+ * running: {@link MediaSender#send} and {@link Participant#pull} are
+ * driven as in {@link PipelineBenchmark} for each rate, codec and with
+ * and without encryption, and the bytes the thread allocated inside each
+ * are read from the JVM's per-thread counter after a warm-up. Prints
+ * bytes per frame and exits non-zero if either path averages a byte a
+ * frame or more, so it can gate a build. Anything allocated per frame is
+ * at least an object header, 16 bytes; below that is the JIT recompiling
+ * now and then, which a call pays once and not with every frame.
+ *
+ * <pre>
+ * AllocationCheck [--frames n]
+ * </pre>
+ */
+public final class AllocationCheck {
+
+    private static final int WARMUP_FRAMES = 20_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private AllocationCheck() {}
+
+    public static void main(String[] args) throws Exception {
+        int frames = 10_000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--frames")) {
+                frames = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("usage: AllocationCheck [--frames n]");
+                System.exit(2);
+            }
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        System.out.printf("%-6s %-6s %-9s %14s %14s%n", "rate", "codec", "encrypted", "send B/frame", "pull B/frame");
+        boolean clean = true;
+        for (int rate : new int[] {8000, 16000, 48000}) {
+            for (int codec = 0; codec < Codecs.COUNT; codec++) {
+                for (boolean encrypted : new boolean[] {false, true}) {
+                    clean &= run(rate, codec, encrypted, frames);
+                }
+            }
+        }
+        System.out.println(clean ? "no per-frame allocation" : "ALLOCATES per frame");
+        System.exit(clean ? 0 : 1);
+    }
+
+    private static boolean run(int sampleRate, int codec, boolean encrypted, int frames) throws Exception {
+        int frameMs = CallParams.DEFAULT_FRAME_MS;
+        int samples = CallParams.frameSamples(sampleRate, frameMs);
+        int loop = 1000 / frameMs;
+        short[] speech = Signals.speech(sampleRate, samples * loop, 1);
+        try (DatagramChannel rx = DatagramChannel.open(); DatagramChannel tx = DatagramChannel.open()) {
+            rx.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            rx.configureBlocking(false);
+            tx.connect(rx.socket().getLocalSocketAddress());
+            ByteBuffer rxBuffer = ByteBuffer.allocate(CallSession.MAX_PACKET);
+            MediaSender sender = new MediaSender(1, CallSession.MAX_FRAME_SAMPLES, CallSession.MAX_PACKET);
+            sender.setCodec(codec);
+            Participant receiver = new Participant(null, null, CallSession.MAX_FRAME_SAMPLES, 20, 400);
+            receiver.configure(frameMs, sampleRate, System.currentTimeMillis());
+            MediaCipher opener = null;
+            byte[] opened = new byte[CallSession.MAX_PACKET];
+            if (encrypted) {
+                KeyExchange guest = new KeyExchange("000000");
+                KeyExchange host = new KeyExchange("000000");
+                sender.setCipher(guest.derive(host.getPublicKey(), false));
+                opener = host.derive(guest.getPublicKey(), true);
+            }
+            long[] bytes = new long[2];
+            for (int i = 0; i < WARMUP_FRAMES + frames; i++) {
+                if (i == WARMUP_FRAMES) bytes[0] = bytes[1] = 0;
+                int off = i % loop * samples;
+                long before = THREADS.getCurrentThreadAllocatedBytes();
+                sender.send(tx, null, speech, off, samples, sampleRate, frameMs, false);
+                bytes[0] += THREADS.getCurrentThreadAllocatedBytes() - before;
+                rxBuffer.clear();
+                // Every fiftieth packet is dropped so concealment and FEC recovery run too
+                if (rx.receive(rxBuffer) != null && i % 50 != 7) {
+                    byte[] buf = rxBuffer.array();
+                    int len = rxBuffer.position();
+                    if (opener != null) {
+                        len = opener.open(buf, len, opened);
+                        buf = opened;
+                    }
+                    if (PacketHeader.type(buf) == PacketHeader.TYPE_AUDIO) {
+                        receiver.onAudio(buf, len, System.currentTimeMillis());
+                    } else {
+                        receiver.onSilence(buf, len);
+                    }
+                }
+                before = THREADS.getCurrentThreadAllocatedBytes();
+                receiver.pull(samples);
+                bytes[1] += THREADS.getCurrentThreadAllocatedBytes() - before;
+            }
+            System.out.printf("%-6d %-6d %-9b %14.2f %14.2f%n", sampleRate, codec, encrypted,
+                    (double) bytes[0] / frames, (double) bytes[1] / frames);
+            return bytes[0] < frames && bytes[1] < frames;
+        }
+    }
+}
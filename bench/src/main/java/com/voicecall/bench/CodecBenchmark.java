@@ -0,0 +1,64 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallParams;
+import com.voicecall.Codec;
+import com.voicecall.Codecs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Encoding and decoding one 20 ms frame with each codec. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"0", "1", "2"})
+    public int codec;
+
+    @Param({"8000", "48000"})
+    public int sampleRate;
+
+    private Codec encoder;
+    private Codec decoder;
+    private short[] pcm;
+    private short[] decoded;
+    private byte[] encoded;
+    private int samples;
+    private int encodedLen;
+
+    @Setup
+    public void setup() {
+        samples = CallParams.frameSamples(sampleRate, CallParams.DEFAULT_FRAME_MS);
+        encoder = Codecs.create(codec);
+        decoder = Codecs.create(codec);
+        pcm = Signals.speech(sampleRate, samples, 1);
+        decoded = new short[samples * 2];
+        encoded = new byte[encoder.maxEncodedSize(samples)];
+        encodedLen = encoder.encode(pcm, 0, samples, encoded, 0);
+    }
+
+    @Benchmark
+    public int encode() {
+        return encoder.encode(pcm, 0, samples, encoded, 0);
+    }
+
+    @Benchmark
+    public int decode() {
+        return decoder.decode(encoded, 0, encodedLen, decoded, 0);
+    }
+}
@@ -0,0 +1,77 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallSession;
+import com.voicecall.KeyExchange;
+import com.voicecall.MediaCipher;
+import com.voicecall.PacketHeader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What sealing costs per packet against sending it in the clear, where
+ * the packet is only copied into the socket's buffer. Payloads are one
+ * 20 ms frame: PCMU at 8 and 16 kHz, and PCM at 48 kHz.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBenchmark {
+
+    @Param({"160", "320", "1920"})
+    public int payload;
+
+    private MediaCipher sender;
+    private MediaCipher receiver;
+    private byte[] packet;
+    private byte[] sealed;
+    private byte[] opened;
+    private int len;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        KeyExchange guest = new KeyExchange("000000");
+        KeyExchange host = new KeyExchange("000000");
+        sender = guest.derive(host.getPublicKey(), false);
+        receiver = host.derive(guest.getPublicKey(), true);
+        len = PacketHeader.SIZE + payload;
+        packet = new byte[len];
+        new Random(1).nextBytes(packet);
+        PacketHeader.write(packet, PacketHeader.TYPE_AUDIO, 1, 1, 0, 0);
+        sealed = new byte[CallSession.MAX_PACKET];
+        opened = new byte[CallSession.MAX_PACKET];
+    }
+
+    @Benchmark
+    public byte[] clear() {
+        System.arraycopy(packet, 0, sealed, 0, len);
+        return sealed;
+    }
+
+    @Benchmark
+    public int seal() {
+        return sender.sealMedia(packet, len, sealed);
+    }
+
+    /** Both ends of one packet; each seal uses a fresh counter, so the open is never a replay. */
+    @Benchmark
+    public int sealAndOpen() {
+        return receiver.open(sealed, sender.sealMedia(packet, len, sealed), opened);
+    }
+}
@@ -0,0 +1,178 @@
+package com.voicecall.bench;
+
+import com.voicecall.NetLoop;
+import com.voicecall.PeerDiscovery;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands up a subnet's worth of hosts on loopback, each its own socket on
+ * its own 127.0.0.x address answering FINDs for its own room code as the
+ * app does, and times {@link PeerDiscovery} finding one of them: from
+ * cold, with the right address cached, with a stale cache pointing at
+ * another host, with every host ignoring half the probes, and with the
+ * host only starting to answer part way into the search. The sweep
+ * covers 127.0.0.1 to .254 in place of the local subnets. Reports the
+ * median and worst time to connect, and any search that failed or was
+ * answered by the wrong host.
+ *
+ * <pre>
+ * DiscoveryLoopback [--hosts n] [--runs n] [--rounds n] [--round ms] [--seed n]
+ * </pre>
+ */
+public final class DiscoveryLoopback {
+
+    /** Hosts on loopback, served by one selector thread. */
+    private static final class Hosts implements Runnable {
+        final Selector selector = Selector.open();
+        final List<DatagramChannel> channels = new ArrayList<>();
+        final Map<DatagramChannel, String> codes = new HashMap<>();
+        final Random random;
+        final int port;
+        volatile double ignorePercent;
+        volatile DatagramChannel lateHost;
+        volatile long lateUntilMs;
+        volatile boolean running = true;
+
+        Hosts(int count, Random random) throws IOException {
+            this.random = random;
+            int port = 0;
+            for (int i = 0; i < count; i++) {
+                DatagramChannel ch = DatagramChannel.open();
+                ch.configureBlocking(false);
+                ch.bind(new InetSocketAddress(InetAddress.getByName("127.0.0." + (2 + i)), port));
+                port = ((InetSocketAddress) ch.getLocalAddress()).getPort();
+                ch.register(selector, SelectionKey.OP_READ);
+                channels.add(ch);
+                codes.put(ch, String.format("%06d", 100000 + i));
+            }
+            this.port = port;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buf = ByteBuffer.allocate(256);
+            try {
+                while (running) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        DatagramChannel ch = (DatagramChannel) key.channel();
+                        buf.clear();
+                        SocketAddress from = ch.receive(buf);
+                        if (from == null) continue;
+                        String msg = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+                        if (!msg.equals("FIND:" + codes.get(ch))) continue;
+                        if (random.nextDouble() * 100 < ignorePercent) continue;
+                        if (ch == lateHost && System.currentTimeMillis() < lateUntilMs) continue;
+                        InetSocketAddress self = (InetSocketAddress) ch.getLocalAddress();
+                        ch.send(ByteBuffer.wrap(("HOST:" + self.getAddress().getHostAddress()).getBytes()), from);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (DatagramChannel ch : channels) {
+                    try { ch.close(); } catch (IOException ignored) {}
+                }
+            }
+        }
+    }
+
+    private DiscoveryLoopback() {}
+
+    public static void main(String[] args) throws Exception {
+        int hosts = 32, runs = 20, rounds = 8, roundMs = 1000;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--hosts": hosts = Math.min(253, Integer.parseInt(args[++i])); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--round": roundMs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.err.println("usage: DiscoveryLoopback [--hosts n] [--runs n] [--rounds n]"
+                            + " [--round ms] [--seed n]");
+                    System.exit(2);
+            }
+        }
+        Random random = new Random(seed);
+        Hosts stand = new Hosts(hosts, random);
+        Thread thread = new Thread(stand, "hosts");
+        thread.start();
+        NetLoop loop = new NetLoop(256);
+        loop.start("discovery");
+        List<InetSocketAddress> sweep = new ArrayList<>();
+        for (int h = 1; h < 255; h++) sweep.add(new InetSocketAddress(InetAddress.getByName("127.0.0." + h), stand.port));
+        System.out.printf("%d hosts on loopback, %d probes a round, %d rounds of %d ms%n",
+                hosts, sweep.size(), rounds, roundMs);
+        System.out.printf("%-12s %10s %10s %7s %6s%n", "case", "median", "worst", "failed", "wrong");
+        for (String scenario : new String[] {"cold", "cached", "stale cache", "lossy 50%", "late host"}) {
+            long[] elapsed = new long[runs];
+            int found = 0, failed = 0, wrong = 0;
+            for (int r = 0; r < runs; r++) {
+                int target = random.nextInt(hosts);
+                int other = (target + 1 + random.nextInt(hosts - 1)) % hosts;
+                String code = stand.codes.get(stand.channels.get(target));
+                String expected = "127.0.0." + (2 + target);
+                String cachedAddress = scenario.equals("cached") ? expected
+                        : scenario.equals("stale cache") ? "127.0.0." + (2 + other) : null;
+                stand.ignorePercent = scenario.equals("lossy 50%") ? 50 : 0;
+                stand.lateHost = stand.channels.get(target);
+                stand.lateUntilMs = scenario.equals("late host") ? System.currentTimeMillis() + roundMs * 3 / 2 : 0;
+                PeerDiscovery.HostCache cache = new PeerDiscovery.HostCache() {
+                    @Override public String get(String roomCode) { return cachedAddress; }
+                    @Override public void put(String roomCode, String hostAddress) {}
+                };
+                CountDownLatch done = new CountDownLatch(1);
+                long[] result = {-1};
+                String[] answered = new String[1];
+                PeerDiscovery discovery = new PeerDiscovery(loop, code, stand.port, cache,
+                        new PeerDiscovery.Listener() {
+                            @Override public void onSearching(int round, int total) {}
+                            @Override
+                            public void onHostFound(InetAddress host, long elapsedMs) {
+                                answered[0] = host.getHostAddress();
+                                result[0] = elapsedMs;
+                                done.countDown();
+                            }
+                            @Override public void onFailed(long elapsedMs) { done.countDown(); }
+                        }, rounds, roundMs);
+                discovery.setTargets(sweep);
+                discovery.start();
+                done.await((long) (rounds + 2) * roundMs, TimeUnit.MILLISECONDS);
+                discovery.stop();
+                if (result[0] < 0) {
+                    failed++;
+                } else {
+                    elapsed[found++] = result[0];
+                    if (!expected.equals(answered[0])) wrong++;
+                }
+            }
+            Arrays.sort(elapsed, 0, found);
+            System.out.printf("%-12s %7s ms %7s ms %7d %6d%n", scenario,
+                    found == 0 ? "-" : String.valueOf(elapsed[found / 2]),
+                    found == 0 ? "-" : String.valueOf(elapsed[found - 1]), failed, wrong);
+        }
+        stand.running = false;
+        thread.join();
+        loop.shutdown();
+    }
+}
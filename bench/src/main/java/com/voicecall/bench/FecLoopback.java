@@ -0,0 +1,112 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallParams;
+import com.voicecall.CallSession;
+import com.voicecall.FrameRedundancy;
+import com.voicecall.MediaSender;
+import com.voicecall.PacketHeader;
+import com.voicecall.Participant;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+
+/**
+ * Sends speech through a real {@link MediaSender} over loopback at each
+ * {@link FrameRedundancy} level, drops packets on the way in, random or
+ * in bursts, and plays the rest through a {@link Participant} as a call
+ * would. Reports the share of lost frames the redundant copies rebuilt
+ * before their turn to play, the loss left for concealment, and what the
+ * copies cost in bytes on the wire. Packets are delivered a frame apart,
+ * so only the jitter buffer's own depth gives a copy time to arrive.
+ *
+ * <pre>
+ * FecLoopback [--seconds n] [--rate hz] [--seed n]
+ * </pre>
+ */
+public final class FecLoopback {
+
+    private FecLoopback() {}
+
+    public static void main(String[] args) throws IOException {
+        int seconds = 120, rate = 8000;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.err.println("usage: FecLoopback [--seconds n] [--rate hz] [--seed n]");
+                    System.exit(2);
+            }
+        }
+        System.out.printf("%-14s %5s %8s %10s %9s %9s%n", "loss", "level", "lost", "recovered", "residual", "overhead");
+        double[][] patterns = {{2, 1}, {5, 1}, {10, 1}, {10, 2}, {20, 3}};
+        for (double[] pattern : patterns) {
+            long baseBytes = 0;
+            for (int level = 0; level <= FrameRedundancy.MAX_LEVEL; level++) {
+                long[] r = run(rate, seconds, level, pattern[0] / 100, pattern[1], seed);
+                if (level == 0) baseBytes = r[3];
+                System.out.printf("%-14s %5d %8d %9.1f%% %8.2f%% %8.1f%%%n",
+                        pattern[1] > 1 ? String.format("%.0f%% burst %.0f", pattern[0], pattern[1])
+                                : String.format("%.0f%%", pattern[0]),
+                        level, r[0], r[0] == 0 ? 0 : 100.0 * r[1] / r[0],
+                        100.0 * (r[0] - r[1]) / r[2], 100.0 * (r[3] - baseBytes) / baseBytes);
+            }
+        }
+    }
+
+    /** Frames lost on the wire, frames rebuilt, frames sent and bytes sent. */
+    private static long[] run(int rate, int seconds, int level, double loss, double burst, long seed)
+            throws IOException {
+        int frameMs = CallParams.DEFAULT_FRAME_MS;
+        int samples = CallParams.frameSamples(rate, frameMs);
+        int frames = seconds * 1000 / frameMs;
+        short[] speech = Signals.speech(rate, samples * (1000 / frameMs), seed);
+        Random random = new Random(seed);
+        try (DatagramChannel rx = DatagramChannel.open(); DatagramChannel tx = DatagramChannel.open()) {
+            rx.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            rx.configureBlocking(false);
+            tx.connect(rx.socket().getLocalSocketAddress());
+            ByteBuffer rxBuffer = ByteBuffer.allocate(CallSession.MAX_PACKET);
+            MediaSender sender = new MediaSender(1, CallSession.MAX_FRAME_SAMPLES, CallSession.MAX_PACKET);
+            sender.getRedundancy().setLevel(level);
+            Participant receiver = new Participant(null, null, CallSession.MAX_FRAME_SAMPLES, 20, 400);
+            long nowMs = 0;
+            receiver.configure(frameMs, rate, nowMs);
+            long lost = 0, bytes = 0;
+            boolean inBurst = false;
+            for (int i = 0; i < frames; i++, nowMs += frameMs) {
+                int off = i % (1000 / frameMs) * samples;
+                sender.send(tx, null, speech, off, samples, rate, frameMs, false);
+                rxBuffer.clear();
+                if (rx.receive(rxBuffer) != null) {
+                    bytes += rxBuffer.position();
+                    // Independent losses, or the Gilbert model NetworkSimulator uses for bursts
+                    boolean drop;
+                    if (burst <= 1) {
+                        drop = random.nextDouble() < loss;
+                    } else {
+                        if (inBurst) {
+                            if (random.nextDouble() < 1 / burst) inBurst = false;
+                        } else if (random.nextDouble() < loss / burst / (1 - loss)) {
+                            inBurst = true;
+                        }
+                        drop = inBurst;
+                    }
+                    byte[] buf = rxBuffer.array();
+                    if (drop) {
+                        lost++;
+                    } else if (PacketHeader.type(buf) == PacketHeader.TYPE_AUDIO) {
+                        receiver.onAudio(buf, rxBuffer.position(), nowMs);
+                    }
+                }
+                receiver.pull(samples);
+            }
+            return new long[] {lost, receiver.getJitterBuffer().getRecovered(), frames, bytes};
+        }
+    }
+}
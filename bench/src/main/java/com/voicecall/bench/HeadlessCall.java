@@ -0,0 +1,252 @@
+package com.voicecall.bench;
+
+import com.voicecall.AudioMetrics;
+import com.voicecall.AudioSource;
+import com.voicecall.CallParams;
+import com.voicecall.CallRecorder;
+import com.voicecall.CallSession;
+import com.voicecall.CallStats;
+import com.voicecall.CallTimeline;
+import com.voicecall.NetLoop;
+import com.voicecall.Participant;
+import com.voicecall.RateController;
+import com.voicecall.WavAudioSink;
+import com.voicecall.WavAudioSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs a whole call on one JVM: a guest speaking a WAV file to a host over
+ * loopback through a {@link NetworkSimulator}, with the host's playout
+ * written to another WAV file. Both files are paced in real time, so the
+ * jitter buffer, concealment and statistics see the same timing as on a
+ * phone. {@code --drop-at} cuts the link to {@code --drop-to} kbit/s part
+ * way through, to watch the guest's rate controller react; a line a second
+ * shows its mode next to the queue building on the link. {@code --record}
+ * has the host record the call as a conference member would. Media is
+ * encrypted under {@code --room}'s code unless that is {@code none}.
+ * {@code --skew} runs the guest's microphone clock that many ppm fast or
+ * slow, to watch the host's drift estimate and time-stretching hold its
+ * jitter buffer at target. {@code --rebind-at} loses the guest's network
+ * part way through, so it has to notice, move to a new socket and have the
+ * host follow it there; the time each side took to hear the other again
+ * is printed. In the clear the host can't tell the guest from anyone
+ * else at the new address, so the two stay apart. The guest's capture and
+ * the host's playout frame times end the output, as the app's metrics
+ * dump shows them.
+ *
+ * <pre>
+ * HeadlessCall in.wav out.wav [--delay ms] [--jitter ms] [--loss %] [--burst packets]
+ *              [--reorder %] [--kbps n] [--drop-at ms --drop-to kbps]
+ *              [--record file.wav] [--room code|none] [--skew ppm] [--rebind-at ms]
+ *              [--frame ms] [--rate hz] [--seed n] [--port n]
+ * </pre>
+ */
+public final class HeadlessCall {
+
+    private HeadlessCall() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: HeadlessCall in.wav out.wav [--delay ms] [--jitter ms] [--loss %]"
+                    + " [--burst packets] [--reorder %] [--kbps n] [--drop-at ms --drop-to kbps]"
+                    + " [--record file.wav] [--room code|none] [--skew ppm] [--rebind-at ms] [--frame ms]"
+                    + " [--rate hz] [--seed n] [--port n]");
+            System.exit(2);
+        }
+        File in = new File(args[0]);
+        File out = new File(args[1]);
+        int delay = 0, jitter = 0, kbps = 0, frameMs = CallParams.DEFAULT_FRAME_MS;
+        int rate = CallParams.BASE_SAMPLE_RATE, port = 50105, dropAt = -1, dropTo = 0, rebindAt = -1;
+        double loss = 0, burst = 1, reorder = 0, skew = 0;
+        long seed = 1;
+        File recordFile = null;
+        String room = "000000";
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--delay": delay = Integer.parseInt(v); break;
+                case "--jitter": jitter = Integer.parseInt(v); break;
+                case "--loss": loss = Double.parseDouble(v); break;
+                case "--burst": burst = Double.parseDouble(v); break;
+                case "--reorder": reorder = Double.parseDouble(v); break;
+                case "--skew": skew = Double.parseDouble(v); break;
+                case "--kbps": kbps = Integer.parseInt(v); break;
+                case "--drop-at": dropAt = Integer.parseInt(v); break;
+                case "--drop-to": dropTo = Integer.parseInt(v); break;
+                case "--rebind-at": rebindAt = Integer.parseInt(v); break;
+                case "--frame": frameMs = Integer.parseInt(v); break;
+                case "--rate": rate = Integer.parseInt(v); break;
+                case "--seed": seed = Long.parseLong(v); break;
+                case "--port": port = Integer.parseInt(v); break;
+                case "--record": recordFile = new File(v); break;
+                case "--room": room = v.equals("none") ? null : v; break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        AudioSource source = skew == 0 ? new WavAudioSource(in, true)
+                : new SkewedSource(new WavAudioSource(in, false), skew);
+        WavAudioSink sink = new WavAudioSink(out, source.getSampleRate(), true);
+        NetLoop loop = new NetLoop(CallSession.MAX_PACKET);
+        loop.start("headless-net");
+
+        NetworkSimulator link = new NetworkSimulator(loop, new InetSocketAddress("127.0.0.1", port), seed);
+        link.setDelayMs(delay);
+        link.setJitterMs(jitter);
+        link.setLossPercent(loss);
+        link.setBurstLength(burst);
+        link.setReorderPercent(reorder);
+        link.setBandwidthKbps(kbps);
+        link.start(port + 1);
+
+        Thread[] threads = new Thread[2];
+        CountDownLatch connected = new CountDownLatch(1);
+        CallSession[] guest = new CallSession[1];
+        File record = recordFile;
+        CallSession[] hostRef = new CallSession[1];
+        CallRecorder[] recorder = new CallRecorder[1];
+        CallSession host = new CallSession(loop, true, frameMs, rate, room, new CallSession.Listener() {
+            @Override
+            public void onConnected() {
+                CallSession session = hostRef[0];
+                if (record != null) {
+                    try {
+                        recorder[0] = new CallRecorder(record, session.getSampleRate(), session.getFrameMs());
+                        recorder[0].start();
+                        session.setRecorder(recorder[0]);
+                    } catch (IOException e) {
+                        System.err.println("recording not started: " + e);
+                    }
+                }
+                threads[1] = new Thread(() -> session.runPlayout(sink), "headless-playout");
+                threads[1].start();
+            }
+            @Override
+            public void onParticipantsChanged(int count) {}
+            @Override
+            public void onAudioFailed(Exception error) {
+                System.err.println("audio failed: " + error);
+            }
+        });
+        hostRef[0] = host;
+        host.listen(port);
+        AudioMetrics metrics = new AudioMetrics();
+        host.setMetrics(metrics);
+        guest[0] = new CallSession(loop, false, frameMs, rate, room, new CallSession.Listener() {
+            @Override
+            public void onConnected() {
+                CallSession session = guest[0];
+                threads[0] = new Thread(() -> session.runCapture(source), "headless-capture");
+                threads[0].start();
+                connected.countDown();
+            }
+            @Override
+            public void onParticipantsChanged(int count) {}
+            @Override
+            public void onAudioFailed(Exception error) {
+                System.err.println("audio failed: " + error);
+            }
+        });
+        guest[0].setMetrics(metrics);
+        // The WAV files are the devices, and they're open already
+        host.getTimeline().mark(CallTimeline.DEVICES_READY);
+        guest[0].getTimeline().mark(CallTimeline.DEVICES_READY);
+        long startMs = System.currentTimeMillis();
+        guest[0].connect(new InetSocketAddress("127.0.0.1", port + 1));
+        if (dropAt >= 0) {
+            int to = dropTo;
+            loop.schedule(dropAt, 0, () -> {
+                link.setBandwidthKbps(to);
+                System.out.println("link cut to " + to + " kbps");
+            });
+        }
+        if (rebindAt >= 0) {
+            loop.schedule(rebindAt, 0, () -> {
+                link.dropClient();
+                System.out.println("guest's network lost");
+                watchRecovery(loop, host, guest[0], System.currentTimeMillis());
+            });
+        }
+        loop.schedule(1000, 1000, () -> {
+            RateController rc = guest[0].getParticipants()[0].getSender().getRateController();
+            Participant[] heard = host.getParticipants();
+            Participant p = heard.length > 0 ? heard[0] : null;
+            CallStats.Snapshot s = p != null ? p.getStats().snapshot() : null;
+            int perMs = host.getSampleRate() / 1000;
+            System.out.printf("%5.1fs  send: target %d kbps, codec %d, %d frame(s)/packet, fec %d"
+                            + " | link queue %d ms | host: %d kbps, queue %d ms, loss %.1f%%"
+                            + " | buffer %d/%d, drift %+.0f ppm, stretch -%d/+%d ms%n",
+                    (System.currentTimeMillis() - startMs) / 1000.0, rc.getTargetKbps(), rc.getCodec(),
+                    rc.getFramesPerPacket(), guest[0].getParticipants()[0].getSender().getRedundancy().getLevel(),
+                    link.takePeakQueueMs(), s != null ? s.receiveKbps : 0, s != null ? s.queueDelayMs : 0,
+                    s != null ? s.intervalLossPercent : 0,
+                    p != null && p.getJitterBuffer() != null ? p.getJitterBuffer().depth() : 0,
+                    p != null && p.getJitterBuffer() != null ? p.getJitterBuffer().getTargetDepth() : 0,
+                    s != null ? s.driftPpm : 0,
+                    p != null ? p.getShortenedSamples() / perMs : 0, p != null ? p.getLengthenedSamples() / perMs : 0);
+        });
+
+        connected.await();
+        threads[0].join();
+        // Let the jitter buffer and the link drain what's still in flight
+        Thread.sleep(delay + jitter + 500L);
+        guest[0].stop();
+        host.stop();
+        threads[1].join();
+        source.close();
+        sink.close();
+        loop.shutdown();
+        if (recorder[0] != null) {
+            recorder[0].close();
+            System.out.printf("recorded %d ms to %s, %d frames dropped%n", recorder[0].getRecordedMs(),
+                    recordFile, recorder[0].getDroppedFrames());
+        }
+
+        System.out.printf("call: %d ms, %d kHz, %d ms frames, %d samples written%n",
+                System.currentTimeMillis() - startMs, host.getSampleRate() / 1000, host.getFrameMs(),
+                sink.getWrittenSamples());
+        System.out.printf("link: %d forwarded, %d lost, %d reordered, %d queue drops%n",
+                link.getForwarded(), link.getLost(), link.getReordered(), link.getQueueDrops());
+        for (Participant p : host.getParticipants()) {
+            CallStats.Snapshot s = p.getStats().snapshot();
+            System.out.println("host received" + (p.getCipher() != null ? " (encrypted)" : "") + ": " + s);
+            System.out.printf("host path: guest moved %d time(s), %d outage(s), %d probe(s)%n",
+                    p.getMoves(), p.getLiveness().getOutages(), p.getLiveness().getProbes());
+            System.out.printf("host buffer: %d trimmed, %d underruns, stretched -%d/+%d ms%n",
+                    p.getJitterBuffer().getTrimmed(), p.getJitterBuffer().getUnderruns(),
+                    p.getShortenedSamples() * 1000 / host.getSampleRate(),
+                    p.getLengthenedSamples() * 1000 / host.getSampleRate());
+        }
+        for (Participant p : guest[0].getParticipants()) {
+            System.out.printf("guest path: host moved %d time(s), %d outage(s), %d probe(s)%n",
+                    p.getMoves(), p.getLiveness().getOutages(), p.getLiveness().getProbes());
+        }
+        System.out.println("host delay estimate: " + host.getPipelineDelay().getTotalMs() + " ms");
+        System.out.println("host setup: " + host.getTimeline());
+        System.out.println("guest setup: " + guest[0].getTimeline());
+        System.out.print(metrics.dump());
+    }
+
+    // Polls on the loop until the host hears the guest at its new address, then until
+    // the guest hears back, and prints how long each took
+    private static void watchRecovery(NetLoop loop, CallSession host, CallSession guest, long lostMs) {
+        long[] hostHeardMs = {0};
+        NetLoop.Timer[] timer = new NetLoop.Timer[1];
+        timer[0] = loop.schedule(5, 5, () -> {
+            Participant[] heard = host.getParticipants();
+            long now = System.currentTimeMillis();
+            if (hostHeardMs[0] == 0) {
+                if (heard.length == 0 || heard[0].getStats().getLastPacketMs() <= lostMs) return;
+                hostHeardMs[0] = now;
+                System.out.printf("host hears the guest again after %d ms%n", now - lostMs);
+            }
+            if (guest.getParticipants()[0].getStats().getLastPacketMs() <= hostHeardMs[0]) return;
+            System.out.printf("guest hears the host again after %d ms%n", now - lostMs);
+            timer[0].cancel();
+        });
+    }
+}
@@ -0,0 +1,148 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallParams;
+import com.voicecall.JitterBuffer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Replays synthetic arrival traces through two kinds of playout and
+ * prints the mouth-to-ear delay each gives: the {@link JitterBuffer}
+ * drained once a frame, as a call plays now, and writing every frame to
+ * the device the moment it arrives, as calls played before there was a
+ * jitter buffer. The device is modelled as taking one frame every frame
+ * period from the first arrival on, playing silence when it has none.
+ * Mouth-to-ear is when a frame plays less when it was captured; glitches
+ * are periods with nothing to play, and for write-on-arrival also frames
+ * played out of order. Traces are drawn from a seeded {@link Random}, so
+ * a run can be repeated exactly.
+ *
+ * <pre>
+ * JitterTrace [--seconds n] [--seed n]
+ * </pre>
+ */
+public final class JitterTrace {
+
+    private static final int FRAME_MS = CallParams.DEFAULT_FRAME_MS;
+    private static final int BASE_DELAY_MS = 40;
+
+    private interface Delay {
+        /** One-way delay for frame {@code seq}, or -1 if it is lost. */
+        long of(int seq, Random random);
+    }
+
+    private JitterTrace() {}
+
+    public static void main(String[] args) {
+        int seconds = 120;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.err.println("usage: JitterTrace [--seconds n] [--seed n]");
+                    System.exit(2);
+            }
+        }
+        int frames = seconds * 1000 / FRAME_MS;
+        System.out.printf("%-8s %-17s %6s %6s %6s %9s%n", "trace", "playout", "p50", "p99", "max", "glitches");
+        run("steady", frames, seed, (seq, r) -> BASE_DELAY_MS + r.nextInt(6));
+        run("wifi", frames, seed, (seq, r) -> r.nextDouble() < 0.01 ? -1
+                : BASE_DELAY_MS + (long) Math.abs(r.nextGaussian() * 15));
+        run("tail", frames, seed, (seq, r) -> BASE_DELAY_MS
+                + (long) Math.min(500, 5 / Math.pow(1 - r.nextDouble(), 1 / 1.5)));
+        // Every ten seconds the link stalls for 300 ms and then delivers the backlog at once
+        run("stalls", frames, seed, (seq, r) -> {
+            long sentMs = (long) seq * FRAME_MS;
+            long intoCycle = sentMs % 10_000;
+            long stall = intoCycle < 300 ? 300 - intoCycle : 0;
+            return BASE_DELAY_MS + stall + r.nextInt(6);
+        });
+    }
+
+    private static void run(String name, int frames, long seed, Delay delay) {
+        // Arrival time of each frame, in arrival order
+        Random random = new Random(seed);
+        long[] arrivals = new long[frames];
+        int[] order = new int[frames];
+        int n = 0;
+        for (int seq = 0; seq < frames; seq++) {
+            long d = delay.of(seq, random);
+            if (d < 0) continue;
+            arrivals[n] = (long) seq * FRAME_MS + d;
+            order[n++] = seq;
+        }
+        Integer[] byArrival = new Integer[n];
+        for (int i = 0; i < n; i++) byArrival[i] = i;
+        Arrays.sort(byArrival, (a, b) -> arrivals[a] != arrivals[b]
+                ? Long.compare(arrivals[a], arrivals[b]) : Integer.compare(order[a], order[b]));
+        long[] at = new long[n];
+        int[] seqs = new int[n];
+        for (int i = 0; i < n; i++) {
+            at[i] = arrivals[byArrival[i]];
+            seqs[i] = order[byArrival[i]];
+        }
+        report(name, "write-on-arrival", writeOnArrival(at, seqs, frames));
+        report(name, "jitter buffer", jitterBuffer(at, seqs, frames));
+    }
+
+    /** Mouth-to-ear of each frame played, with the glitch count in the last slot. */
+    private static long[] writeOnArrival(long[] at, int[] seqs, int frames) {
+        long[] played = new long[at.length + 1];
+        int count = 0;
+        long glitches = 0;
+        int queued = 0;
+        int lastSeq = -1;
+        int next = 0;
+        long end = (long) frames * FRAME_MS + 1000;
+        for (long tick = at[0]; tick < end && count < at.length; tick += FRAME_MS) {
+            while (next < at.length && at[next] <= tick) { next++; queued++; }
+            if (queued == 0) { glitches++; continue; }
+            int i = next - queued--;
+            if (seqs[i] < lastSeq) glitches++;
+            lastSeq = seqs[i];
+            played[count++] = tick - (long) seqs[i] * FRAME_MS;
+        }
+        played = Arrays.copyOf(played, count + 1);
+        played[count] = glitches;
+        return played;
+    }
+
+    private static long[] jitterBuffer(long[] at, int[] seqs, int frames) {
+        JitterBuffer buffer = new JitterBuffer(64, 2, FRAME_MS, 1, 400 / FRAME_MS);
+        byte[] frame = new byte[2];
+        byte[] out = new byte[2];
+        long[] played = new long[at.length + 1];
+        int count = 0;
+        long glitches = 0;
+        int next = 0;
+        long end = (long) frames * FRAME_MS + 1000;
+        for (long tick = at[0]; tick < end; tick += FRAME_MS) {
+            while (next < at.length && at[next] <= tick) {
+                // The tag carries the sequence number back out so the frame's age is known
+                buffer.put(seqs[next], seqs[next], frame, 0, frame.length, at[next]);
+                next++;
+            }
+            int len = buffer.take(out);
+            if (len > 0) {
+                played[count++] = tick - (long) buffer.lastTag() * FRAME_MS;
+            } else if (next < at.length || buffer.depth() > 0) {
+                glitches++;
+            }
+        }
+        played = Arrays.copyOf(played, count + 1);
+        played[count] = glitches;
+        return played;
+    }
+
+    private static void report(String trace, String playout, long[] result) {
+        int n = result.length - 1;
+        long glitches = result[n];
+        long[] delays = Arrays.copyOf(result, n);
+        Arrays.sort(delays);
+        System.out.printf("%-8s %-17s %4d ms %4d ms %4d ms %9d%n", trace, playout,
+                delays[n / 2], delays[(int) Math.min(n - 1, Math.ceil(n * 0.99) - 1)], delays[n - 1], glitches);
+    }
+}
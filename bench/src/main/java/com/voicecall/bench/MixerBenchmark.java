@@ -0,0 +1,59 @@
+package com.voicecall.bench;
+
+import com.voicecall.AudioMixer;
+import com.voicecall.CallParams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A conference host's mixing work for one frame: every input summed once,
+ * then a mix-minus for each of them, as the host's playout loop does it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MixerBenchmark {
+
+    @Param({"2", "4", "8"})
+    public int participants;
+
+    @Param({"8000", "48000"})
+    public int sampleRate;
+
+    private AudioMixer mixer;
+    private short[][] inputs;
+    private short[] out;
+    private int samples;
+
+    @Setup
+    public void setup() {
+        samples = CallParams.frameSamples(sampleRate, CallParams.DEFAULT_FRAME_MS);
+        mixer = new AudioMixer(participants, samples);
+        inputs = new short[participants][];
+        for (int i = 0; i < participants; i++) inputs[i] = Signals.speech(sampleRate, samples, i);
+        out = new short[samples];
+    }
+
+    @Benchmark
+    public short[] frame() {
+        mixer.begin(samples);
+        for (int i = 0; i < participants; i++) mixer.add(i, inputs[i], 0);
+        for (int i = 0; i < participants; i++) mixer.mixMinus(i, out, 0);
+        return out;
+    }
+}
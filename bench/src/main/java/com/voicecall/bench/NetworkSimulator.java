@@ -0,0 +1,217 @@
+package com.voicecall.bench;
+
+import com.voicecall.NetLoop;
+import com.voicecall.PacketHeader;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * In-process impaired link: a UDP relay on a {@link NetLoop} that sits
+ * between two call endpoints and applies one-way delay, jitter, loss
+ * (independent or in bursts), reordering and a bandwidth cap to each
+ * direction. Whoever sends to the relay's port is a client, and reaches
+ * the target from a port of the relay's own, as through a NAT: each client
+ * address gets its own port and the target's replies to it go back there.
+ * {@link #dropClient} cuts the clients off as if their network went away.
+ * Impairments are drawn from a seeded {@link Random}, so a run can be
+ * repeated exactly; they can be changed while packets are flowing.
+ */
+public final class NetworkSimulator {
+
+    // A capped link drops at the tail once this much is queued, like a router would
+    private static final int MAX_QUEUE_MS = 200;
+
+    private static final class Held implements Comparable<Held> {
+        final byte[] data;
+        final DatagramChannel via;
+        final SocketAddress to;
+        final long dueMs;
+        final long order;
+
+        Held(byte[] data, DatagramChannel via, SocketAddress to, long dueMs, long order) {
+            this.data = data;
+            this.via = via;
+            this.to = to;
+            this.dueMs = dueMs;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Held o) {
+            if (dueMs != o.dueMs) return Long.compare(dueMs, o.dueMs);
+            return Long.compare(order, o.order);
+        }
+    }
+
+    private final NetLoop loop;
+    private final SocketAddress target;
+    private final Random random;
+    private final PriorityQueue<Held> held = new PriorityQueue<>();
+    // Per direction, 0 toward the target: when the last in-order packet leaves and
+    // when the capped link is free again
+    private final long[] lastDueMs = new long[2];
+    private final long[] linkFreeUs = new long[2];
+    private final boolean[] inBurst = new boolean[2];
+    private final Set<SocketAddress> deadClients = new HashSet<>();
+    // Each client's mapping: the channel its packets reach the target from, and back
+    private final Map<SocketAddress, DatagramChannel> upstreams = new HashMap<>();
+    private final Map<DatagramChannel, SocketAddress> clients = new HashMap<>();
+    private DatagramChannel channel;
+    private long order;
+
+    private volatile int delayMs;
+    private volatile int jitterMs;
+    private volatile double lossPercent;
+    private volatile double burstLength = 1;
+    private volatile double reorderPercent;
+    private volatile int bandwidthKbps;
+
+    private volatile long forwarded;
+    private volatile long lost;
+    private volatile long reordered;
+    private volatile long queueDrops;
+    private volatile int peakQueueMs;
+
+    public NetworkSimulator(NetLoop loop, SocketAddress target, long seed) {
+        this.loop = loop;
+        this.target = target;
+        random = new Random(seed);
+    }
+
+    /** Starts relaying on {@code port}; point the client there instead of at the target. */
+    public void start(int port) throws IOException {
+        channel = loop.open(port, false, this::onPacket);
+    }
+
+    public void stop() {
+        loop.close(channel);
+        loop.post(() -> {
+            for (DatagramChannel upstream : clients.keySet()) loop.close(upstream);
+        });
+    }
+
+    /**
+     * From now on whatever the clients send from their current addresses is
+     * lost, and their mappings are gone; only a new address gets through.
+     */
+    public void dropClient() {
+        if (!loop.inLoop()) {
+            loop.post(this::dropClient);
+            return;
+        }
+        deadClients.addAll(upstreams.keySet());
+        for (DatagramChannel upstream : clients.keySet()) loop.close(upstream);
+        upstreams.clear();
+        clients.clear();
+    }
+
+    public void setDelayMs(int delayMs) { this.delayMs = delayMs; }
+    /** Each packet gets a further uniform 0..{@code jitterMs}; packets still leave in order. */
+    public void setJitterMs(int jitterMs) { this.jitterMs = jitterMs; }
+    public void setLossPercent(double lossPercent) { this.lossPercent = lossPercent; }
+    /** Mean length of a loss burst, in packets; 1 gives independent losses at the same rate. */
+    public void setBurstLength(double burstLength) { this.burstLength = Math.max(1, burstLength); }
+    /** Share of packets held back past their successors. */
+    public void setReorderPercent(double reorderPercent) { this.reorderPercent = reorderPercent; }
+    /** 0 for unlimited. */
+    public void setBandwidthKbps(int bandwidthKbps) { this.bandwidthKbps = bandwidthKbps; }
+
+    public long getForwarded() { return forwarded; }
+    public long getLost() { return lost; }
+    public long getReordered() { return reordered; }
+    public long getQueueDrops() { return queueDrops; }
+
+    /** Longest wait in the capped link's queue toward the target since the last call. */
+    public int takePeakQueueMs() {
+        int peak = peakQueueMs;
+        peakQueueMs = 0;
+        return peak;
+    }
+
+    private void onPacket(DatagramChannel channel, byte[] data, int len, SocketAddress from) throws IOException {
+        if (deadClients.contains(from)) return;
+        DatagramChannel upstream = upstreams.get(from);
+        if (upstream == null) {
+            upstream = loop.open(0, false, this::onUpstream);
+            upstreams.put(from, upstream);
+            clients.put(upstream, from);
+        }
+        relay(0, data, len, upstream, target);
+    }
+
+    private void onUpstream(DatagramChannel upstream, byte[] data, int len, SocketAddress from) {
+        SocketAddress client = clients.get(upstream);
+        if (client != null && from.equals(target)) relay(1, data, len, channel, client);
+    }
+
+    private void relay(int dir, byte[] data, int len, DatagramChannel via, SocketAddress to) {
+        if (drop(dir)) {
+            lost++;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long due = now + delayMs + (jitterMs > 0 ? random.nextInt(jitterMs + 1) : 0);
+        int kbps = bandwidthKbps;
+        if (kbps > 0) {
+            long free = Math.max(now * 1000, linkFreeUs[dir]);
+            int waitMs = (int) (free / 1000 - now);
+            if (waitMs > MAX_QUEUE_MS) {
+                queueDrops++;
+                return;
+            }
+            if (dir == 0 && waitMs > peakQueueMs) peakQueueMs = waitMs;
+            // Bits over kbit/s is ms on the wire, kept in microseconds so small packets add up
+            linkFreeUs[dir] = free + (len + PacketHeader.UDP_OVERHEAD) * 8000L / kbps;
+            due = Math.max(due, linkFreeUs[dir] / 1000 + delayMs);
+        }
+        if (random.nextDouble() * 100 < reorderPercent) {
+            // Held back a frame or two so later packets overtake it
+            due = Math.max(due, lastDueMs[dir]) + 20 + random.nextInt(40);
+            reordered++;
+        } else {
+            due = Math.max(due, lastDueMs[dir]);
+            lastDueMs[dir] = due;
+        }
+        byte[] copy = new byte[len];
+        System.arraycopy(data, 0, copy, 0, len);
+        held.add(new Held(copy, via, to, due, order++));
+        loop.schedule(due - now, 0, this::release);
+    }
+
+    // Gilbert model: a loss starts a burst that lasts burstLength packets on
+    // average, with the start chance set so the overall rate is lossPercent.
+    // A burst of one would never let two losses touch, so that's a coin toss
+    private boolean drop(int dir) {
+        double p = lossPercent / 100;
+        if (p <= 0) return false;
+        if (p >= 1) return true;
+        if (burstLength <= 1) return random.nextDouble() < p;
+        double end = 1 / burstLength;
+        if (inBurst[dir]) {
+            if (random.nextDouble() < end) inBurst[dir] = false;
+        } else {
+            if (random.nextDouble() < p * end / (1 - p)) inBurst[dir] = true;
+        }
+        return inBurst[dir];
+    }
+
+    private void release() {
+        long now = System.currentTimeMillis();
+        while (!held.isEmpty() && held.peek().dueMs <= now) {
+            Held h = held.poll();
+            try {
+                h.via.send(ByteBuffer.wrap(h.data), h.to);
+                forwarded++;
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallParams;
+import com.voicecall.CallSession;
+import com.voicecall.KeyExchange;
+import com.voicecall.MediaCipher;
+import com.voicecall.MediaSender;
+import com.voicecall.PacketHeader;
+import com.voicecall.Participant;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame end to end through the real classes: VAD, encode, FEC and
+ * packetize in {@link MediaSender}, a loopback datagram, then jitter
+ * buffer, decode and concealment in {@link Participant}. Everything but
+ * the device and the network's delay; with {@code encrypted} each packet
+ * is also sealed and opened as a keyed call would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    @Param({"8000", "16000", "48000"})
+    public int sampleRate;
+
+    @Param({"1"})
+    public int codec;
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    private DatagramChannel tx;
+    private DatagramChannel rx;
+    private ByteBuffer rxBuffer;
+    private MediaSender sender;
+    private Participant receiver;
+    private MediaCipher opener;
+    private byte[] opened;
+    private short[] speech;
+    private int samples;
+    private int frames;
+    private int frame;
+
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException {
+        int frameMs = CallParams.DEFAULT_FRAME_MS;
+        samples = CallParams.frameSamples(sampleRate, frameMs);
+        // A second of audio, sent round and round
+        frames = 1000 / frameMs;
+        speech = Signals.speech(sampleRate, samples * frames, 1);
+        rx = DatagramChannel.open();
+        rx.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        // Loopback delivers on send; a frame the VAD calls silence may send nothing
+        rx.configureBlocking(false);
+        tx = DatagramChannel.open();
+        tx.connect(rx.socket().getLocalSocketAddress());
+        rxBuffer = ByteBuffer.allocate(CallSession.MAX_PACKET);
+        sender = new MediaSender(1, CallSession.MAX_FRAME_SAMPLES, CallSession.MAX_PACKET);
+        sender.setCodec(codec);
+        receiver = new Participant(null, null, CallSession.MAX_FRAME_SAMPLES, 20, 400);
+        receiver.configure(frameMs, sampleRate, System.currentTimeMillis());
+        if (encrypted) {
+            KeyExchange guest = new KeyExchange("000000");
+            KeyExchange host = new KeyExchange("000000");
+            sender.setCipher(guest.derive(host.getPublicKey(), false));
+            opener = host.derive(guest.getPublicKey(), true);
+            opened = new byte[CallSession.MAX_PACKET];
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tx.close();
+        rx.close();
+    }
+
+    @Benchmark
+    public short[] frame() throws IOException {
+        int off = frame * samples;
+        frame = (frame + 1) % frames;
+        sender.send(tx, null, speech, off, samples, sampleRate, CallParams.DEFAULT_FRAME_MS, false);
+        rxBuffer.clear();
+        if (rx.receive(rxBuffer) != null) {
+            byte[] buf = rxBuffer.array();
+            int len = rxBuffer.position();
+            if (opener != null) {
+                len = opener.open(buf, len, opened);
+                buf = opened;
+            }
+            if (PacketHeader.type(buf) == PacketHeader.TYPE_AUDIO) {
+                receiver.onAudio(buf, len, System.currentTimeMillis());
+            } else {
+                receiver.onSilence(buf, len);
+            }
+        }
+        receiver.pull(samples);
+        return receiver.getPcm();
+    }
+}
@@ -0,0 +1,132 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallParams;
+import com.voicecall.PacketLossConcealer;
+import com.voicecall.WavAudioSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Replays a PCM file frame by frame through a loss pattern and the
+ * {@link PacketLossConcealer}, as the playout side would see it, and
+ * reports how many frames were concealed, what each cost, and how many
+ * frame edges jump harder than the original does there: the clicks a
+ * listener hears. The same losses played as silence, as before there was
+ * concealment, are scored alongside. Losses are independent or, with
+ * {@code --burst}, follow the Gilbert model {@link NetworkSimulator} uses;
+ * {@code out.wav} gets the concealed audio.
+ * Without a file a generated voice is used.
+ *
+ * <pre>
+ * PlcReplay [in.wav [out.wav]] [--loss %] [--burst frames] [--frame ms] [--seed n]
+ * </pre>
+ */
+public final class PlcReplay {
+
+    // An edge is a click when it jumps this much more than the original does there
+    private static final int CLICK_EXCESS = 4000;
+
+    private PlcReplay() {}
+
+    public static void main(String[] args) throws IOException {
+        String in = null, out = null;
+        double lossPercent = 5, burst = 1;
+        int frameMs = CallParams.DEFAULT_FRAME_MS;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--loss": lossPercent = Double.parseDouble(args[++i]); break;
+                case "--burst": burst = Math.max(1, Double.parseDouble(args[++i])); break;
+                case "--frame": frameMs = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    if (in == null) in = args[i];
+                    else if (out == null) out = args[i];
+                    else {
+                        System.err.println("usage: PlcReplay [in.wav [out.wav]] [--loss %] [--burst frames]"
+                                + " [--frame ms] [--seed n]");
+                        System.exit(2);
+                    }
+            }
+        }
+        int rate;
+        short[] original;
+        if (in != null) {
+            int[] fileRate = new int[1];
+            original = Signals.read(new File(in), fileRate);
+            rate = fileRate[0];
+        } else {
+            rate = 16000;
+            original = Signals.speech(rate, rate * 30, seed);
+        }
+        int samples = CallParams.frameSamples(rate, frameMs);
+        int frames = original.length / samples;
+        boolean[] lost = lossPattern(frames, lossPercent / 100, burst, new Random(seed));
+
+        PacketLossConcealer concealer = new PacketLossConcealer(rate);
+        short[] concealed = Arrays.copyOf(original, frames * samples);
+        short[] silenced = Arrays.copyOf(original, frames * samples);
+        long[] costs = new long[frames];
+        int n = 0;
+        for (int f = 0; f < frames; f++) {
+            int off = f * samples;
+            if (lost[f]) {
+                long before = concealer.getConcealNanos();
+                concealer.conceal(concealed, off, samples);
+                costs[n++] = concealer.getConcealNanos() - before;
+                Arrays.fill(silenced, off, off + samples, (short) 0);
+            } else {
+                concealer.update(concealed, off, samples);
+            }
+        }
+        if (out != null) {
+            WavAudioSink sink = new WavAudioSink(new File(out), rate, false);
+            sink.write(concealed, 0, concealed.length);
+            sink.close();
+        }
+
+        long lostFrames = 0;
+        for (boolean l : lost) if (l) lostFrames++;
+        System.out.printf("%d frames of %d ms at %d Hz, %d lost (%.1f%%)%n",
+                frames, frameMs, rate, lostFrames, 100.0 * lostFrames / frames);
+        if (n > 0) {
+            Arrays.sort(costs, 0, n);
+            System.out.printf("concealed %d frames, mean %.1f us, p99 %.1f us, worst %.1f us a frame%n",
+                    concealer.getConcealedFrames(), concealer.getConcealNanos() / 1000.0 / n,
+                    costs[(int) Math.ceil(n * 0.99) - 1] / 1000.0, costs[n - 1] / 1000.0);
+        }
+        System.out.printf("clicks at frame edges: %d concealed, %d silence%n",
+                clicks(original, concealed, samples), clicks(original, silenced, samples));
+    }
+
+    private static boolean[] lossPattern(int frames, double p, double burst, Random random) {
+        boolean[] lost = new boolean[frames];
+        double end = 1 / burst;
+        boolean inBurst = false;
+        for (int f = 0; f < frames; f++) {
+            if (burst <= 1) {
+                lost[f] = random.nextDouble() < p;
+                continue;
+            }
+            if (inBurst) {
+                if (random.nextDouble() < end) inBurst = false;
+            } else if (random.nextDouble() < p * end / (1 - p)) {
+                inBurst = true;
+            }
+            lost[f] = inBurst;
+        }
+        return lost;
+    }
+
+    private static int clicks(short[] original, short[] played, int samples) {
+        int clicks = 0;
+        for (int b = samples; b < played.length; b += samples) {
+            int jump = Math.abs(played[b] - played[b - 1]);
+            if (jump > Math.abs(original[b] - original[b - 1]) + CLICK_EXCESS) clicks++;
+        }
+        return clicks;
+    }
+}
@@ -0,0 +1,52 @@
+package com.voicecall.bench;
+
+import com.voicecall.CallParams;
+import com.voicecall.Resampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** One 20 ms frame through the device-edge resampler, for each pair of rates a call can hit. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResamplerBenchmark {
+
+    @Param({"48000:8000", "48000:16000", "44100:16000", "16000:48000", "8000:48000"})
+    public String rates;
+
+    private Resampler resampler;
+    private short[] in;
+    private short[] out;
+    private int samples;
+
+    @Setup
+    public void setup() {
+        String[] r = rates.split(":");
+        int inRate = Integer.parseInt(r[0]);
+        int outRate = Integer.parseInt(r[1]);
+        samples = CallParams.frameSamples(inRate, CallParams.DEFAULT_FRAME_MS);
+        resampler = new Resampler(inRate, outRate, samples);
+        in = Signals.speech(inRate, samples, 1);
+        out = new short[resampler.maxOutput(samples)];
+    }
+
+    @Benchmark
+    public int frame() {
+        return resampler.process(in, 0, samples, out, 0);
+    }
+}
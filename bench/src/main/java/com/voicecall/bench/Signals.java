@@ -0,0 +1,47 @@
+package com.voicecall.bench;
+
+import com.voicecall.WavAudioSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Repeatable test audio for the benchmarks. */
+final class Signals {
+
+    private Signals() {}
+
+    /**
+     * Voiced-speech stand-in: a 140 Hz buzz with a few harmonics under a
+     * slow syllable envelope, plus a little noise. Loud enough to keep the
+     * voice activity detector sending frames rather than silence.
+     */
+    static short[] speech(int sampleRate, int samples, long seed) {
+        Random random = new Random(seed);
+        short[] pcm = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / sampleRate;
+            double v = 0;
+            for (int h = 1; h <= 5; h++) v += Math.sin(2 * Math.PI * 140 * h * t) / h;
+            double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 4 * t);
+            v = v * envelope * 6000 + random.nextGaussian() * 300;
+            pcm[i] = (short) Math.max(-32768, Math.min(32767, v));
+        }
+        return pcm;
+    }
+
+    /** All of a WAV file, mixed down to mono; {@code rate} gets its sample rate. */
+    static short[] read(File file, int[] rate) throws IOException {
+        WavAudioSource source = new WavAudioSource(file, false);
+        rate[0] = source.getSampleRate();
+        short[] pcm = new short[rate[0] * 60];
+        int length = 0, n;
+        while ((n = source.read(pcm, length, Math.min(4096, pcm.length - length))) > 0) {
+            length += n;
+            if (length == pcm.length) pcm = Arrays.copyOf(pcm, pcm.length * 2);
+        }
+        source.close();
+        return Arrays.copyOf(pcm, length);
+    }
+}
@@ -0,0 +1,40 @@
+package com.voicecall.bench;
+
+import com.voicecall.AudioSource;
+
+/**
+ * Paces another source as a microphone whose clock runs {@code ppm} parts
+ * per million fast (or slow, if negative) would: the samples claim the
+ * nominal rate but arrive at the skewed one. The wrapped source should
+ * not pace itself.
+ */
+final class SkewedSource implements AudioSource {
+
+    private final AudioSource source;
+    private final double rate;
+    private long startNanos;
+    private long delivered;
+
+    SkewedSource(AudioSource source, double ppm) {
+        this.source = source;
+        rate = source.getSampleRate() * (1 + ppm / 1e6);
+    }
+
+    @Override public int getSampleRate() { return source.getSampleRate(); }
+
+    @Override
+    public int read(short[] pcm, int off, int samples) {
+        if (startNanos == 0) startNanos = System.nanoTime();
+        int n = source.read(pcm, off, samples);
+        if (n <= 0) return n;
+        delivered += n;
+        long wait = startNanos + (long) (delivered * 1e9 / rate) - System.nanoTime();
+        if (wait > 0) {
+            try { Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000)); }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        return n;
+    }
+
+    @Override public void close() { source.close(); }
+}
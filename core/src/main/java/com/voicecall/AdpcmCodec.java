@@ -0,0 +1,87 @@
+package com.voicecall;
+
+/**
+ * IMA-ADPCM, 4 bits per sample. Each frame starts with the encoder's
+ * predictor and step index, so a frame decodes on its own and a lost
+ * packet never desynchronises the decoder.
+ */
+public final class AdpcmCodec implements Codec {
+
+    private static final int BLOCK_HEADER = 4;
+
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+        253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+        1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+        3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+        12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private int predictor;
+    private int index;
+
+    @Override public int id() { return Codecs.ADPCM; }
+    @Override public String name() { return "IMA-ADPCM"; }
+    @Override public int maxEncodedSize(int samples) { return BLOCK_HEADER + (samples + 1) / 2; }
+
+    @Override
+    public int encode(short[] pcm, int off, int samples, byte[] out, int outOff) {
+        int pred = predictor;
+        int idx = index;
+        out[outOff] = (byte) (pred >> 8);
+        out[outOff + 1] = (byte) pred;
+        out[outOff + 2] = (byte) idx;
+        out[outOff + 3] = 0;
+        int o = outOff + BLOCK_HEADER;
+        for (int i = 0; i < samples; i++) {
+            int step = STEP_TABLE[idx];
+            int diff = pcm[off + i] - pred;
+            int nibble = 0;
+            if (diff < 0) { nibble = 8; diff = -diff; }
+            int vpdiff = step >> 3;
+            if (diff >= step) { nibble |= 4; diff -= step; vpdiff += step; }
+            step >>= 1;
+            if (diff >= step) { nibble |= 2; diff -= step; vpdiff += step; }
+            step >>= 1;
+            if (diff >= step) { nibble |= 1; vpdiff += step; }
+            pred += (nibble & 8) != 0 ? -vpdiff : vpdiff;
+            if (pred > 32767) pred = 32767; else if (pred < -32768) pred = -32768;
+            idx += INDEX_TABLE[nibble];
+            if (idx < 0) idx = 0; else if (idx > 88) idx = 88;
+            if ((i & 1) == 0) out[o] = (byte) nibble;
+            else out[o++] |= (byte) (nibble << 4);
+        }
+        predictor = pred;
+        index = idx;
+        return BLOCK_HEADER + (samples + 1) / 2;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, short[] pcm, int pcmOff) {
+        if (len < BLOCK_HEADER) return 0;
+        int pred = (short) ((in[off] & 0xFF) << 8 | (in[off + 1] & 0xFF));
+        int idx = Math.min(88, in[off + 2] & 0xFF);
+        int samples = (len - BLOCK_HEADER) * 2;
+        int p = off + BLOCK_HEADER;
+        for (int i = 0; i < samples; i++) {
+            int nibble = (i & 1) == 0 ? in[p] & 0x0F : (in[p++] >> 4) & 0x0F;
+            int step = STEP_TABLE[idx];
+            int vpdiff = step >> 3;
+            if ((nibble & 4) != 0) vpdiff += step;
+            if ((nibble & 2) != 0) vpdiff += step >> 1;
+            if ((nibble & 1) != 0) vpdiff += step >> 2;
+            pred += (nibble & 8) != 0 ? -vpdiff : vpdiff;
+            if (pred > 32767) pred = 32767; else if (pred < -32768) pred = -32768;
+            idx += INDEX_TABLE[nibble];
+            if (idx < 0) idx = 0; else if (idx > 88) idx = 88;
+            pcm[pcmOff + i] = (short) pred;
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,115 @@
+package com.voicecall;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where glitches come from, counted as they happen: how long the capture
+ * and playout threads spend on each frame and how often that overran the
+ * frame (CPU), how often a jitter buffer had nothing to play (network),
+ * the devices' own overruns and underruns (device), and the frames either
+ * thread lost to an exception. Entries are created on first use and kept;
+ * callers hold on to the ones they update, so recording is an atomic add
+ * and never takes a lock. Safe from any thread; {@link #dump} reads
+ * without stopping anyone.
+ */
+public final class AudioMetrics {
+
+    public static final String CAPTURE = "capture";
+    public static final String PLAYOUT = "playout";
+    public static final String CAPTURE_OVERRUNS = "device.capture_overruns";
+    public static final String PLAYOUT_UNDERRUNS = "device.playout_underruns";
+    public static final String JITTER_UNDERRUNS = "network.jitter_underruns";
+    public static final String CAPTURE_ERRORS = "capture.errors";
+    public static final String PLAYOUT_ERRORS = "playout.errors";
+
+    /** Per-frame processing time, in power-of-two buckets from 64 us. */
+    public static final class FrameTimes {
+
+        private static final int BUCKETS = 12;
+        private static final int FIRST_US_SHIFT = 6;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder frames = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder missed = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private FrameTimes() {}
+
+        /** A frame took {@code nanos} to process against a budget of {@code deadlineNanos}. */
+        public void record(long nanos, long deadlineNanos) {
+            long us = nanos / 1000;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us >> FIRST_US_SHIFT));
+            buckets.incrementAndGet(bucket);
+            frames.increment();
+            totalNanos.add(nanos);
+            if (nanos > deadlineNanos) missed.increment();
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {}
+        }
+
+        public long getFrames() { return frames.sum(); }
+        public long getMissed() { return missed.sum(); }
+        public long getMaxNanos() { return maxNanos.get(); }
+
+        /** Upper edge, in microseconds, of the bucket holding quantile {@code q}. */
+        public long quantileUs(double q) {
+            long n = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) n += counts[i] = buckets.get(i);
+            long rank = (long) Math.ceil(n * q);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return i == BUCKETS - 1 ? maxNanos.get() / 1000 : 1L << (FIRST_US_SHIFT + i);
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            long n = frames.sum();
+            if (n == 0) return "no frames";
+            StringBuilder sb = new StringBuilder();
+            sb.append(n).append(" frames, mean ").append(totalNanos.sum() / n / 1000)
+                    .append(" us, p50 <").append(quantileUs(0.5)).append(" us, p99 <").append(quantileUs(0.99))
+                    .append(" us, max ").append(maxNanos.get() / 1000).append(" us, ")
+                    .append(missed.sum()).append(" over deadline |");
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = buckets.get(i);
+                if (c == 0) continue;
+                sb.append(' ').append(i == BUCKETS - 1 ? ">=" : "<")
+                        .append(1L << (FIRST_US_SHIFT + (i == BUCKETS - 1 ? i - 1 : i))).append("us:").append(c);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FrameTimes> frameTimes = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public FrameTimes frameTimes(String name) {
+        return frameTimes.computeIfAbsent(name, k -> new FrameTimes());
+    }
+
+    /** Everything recorded so far, one entry a line, sorted by name. */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, FrameTimes> e : new TreeMap<>(frameTimes).entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counters).entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue().sum()).append('\n');
+        }
+        return sb.toString();
+    }
+}
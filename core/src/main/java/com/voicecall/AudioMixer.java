@@ -0,0 +1,86 @@
+package com.voicecall;
+
+import java.util.Arrays;
+
+/**
+ * Conference mixer. Every input frame is added once into a shared 32-bit
+ * sum, and each listener's mix-minus (everyone but themselves) is that sum
+ * less their own input, so the cost grows linearly with participants
+ * instead of quadratically. Sums past a soft knee are compressed smoothly
+ * toward full scale rather than hard-clipped. Inputs are read in place and
+ * nothing is allocated per frame.
+ */
+public final class AudioMixer {
+
+    // Above the knee the remaining headroom is approached asymptotically
+    private static final int KNEE = 24576;
+    private static final int HEADROOM = 32767 - KNEE;
+
+    private final int[] sum;
+    private final short[][] inputs;
+    private final int[] offsets;
+    private int samples;
+    private long mixNanos;
+    private long frames;
+
+    public AudioMixer(int maxInputs, int maxSamples) {
+        sum = new int[maxSamples];
+        inputs = new short[maxInputs][];
+        offsets = new int[maxInputs];
+    }
+
+    public int getMaxInputs() { return inputs.length; }
+
+    /** Starts a frame of {@code samples}; inputs from the previous frame are forgotten. */
+    public void begin(int samples) {
+        long start = System.nanoTime();
+        this.samples = samples;
+        Arrays.fill(sum, 0, samples, 0);
+        Arrays.fill(inputs, null);
+        frames++;
+        mixNanos += System.nanoTime() - start;
+    }
+
+    /** Adds one input's frame. The array is read again by {@link #mixMinus}, so it must stay put until then. */
+    public void add(int input, short[] pcm, int off) {
+        long start = System.nanoTime();
+        inputs[input] = pcm;
+        offsets[input] = off;
+        int[] s = sum;
+        for (int i = 0; i < samples; i++) s[i] += pcm[off + i];
+        mixNanos += System.nanoTime() - start;
+    }
+
+    /** Writes the mix of every input except {@code input}; an input that added nothing hears everyone. */
+    public void mixMinus(int input, short[] out, int off) {
+        long start = System.nanoTime();
+        int[] s = sum;
+        short[] own = input >= 0 ? inputs[input] : null;
+        if (own == null) {
+            for (int i = 0; i < samples; i++) out[off + i] = limit(s[i]);
+        } else {
+            int o = offsets[input];
+            for (int i = 0; i < samples; i++) out[off + i] = limit(s[i] - own[o + i]);
+        }
+        mixNanos += System.nanoTime() - start;
+    }
+
+    /** Writes the mix of every input, for a listener outside the conference such as a recorder. */
+    public void mix(short[] out, int off) { mixMinus(-1, out, off); }
+
+    /** Time spent inside the mixer, and the frames it covers. */
+    public long getMixNanos() { return mixNanos; }
+    public long getFrames() { return frames; }
+
+    static short limit(int x) {
+        if (x > KNEE) {
+            int d = x - KNEE;
+            return (short) (KNEE + (long) d * HEADROOM / (d + HEADROOM));
+        }
+        if (x < -KNEE) {
+            int d = -x - KNEE;
+            return (short) -(KNEE + (long) d * HEADROOM / (d + HEADROOM));
+        }
+        return (short) x;
+    }
+}
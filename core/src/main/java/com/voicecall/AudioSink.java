@@ -0,0 +1,15 @@
+package com.voicecall;
+
+/** Where a call's incoming audio goes: the speaker on a phone, a WAV file off-device. */
+public interface AudioSink {
+
+    int getSampleRate();
+
+    /** Writes 16-bit mono PCM, blocking while the sink catches up; returns the count written. */
+    int write(short[] pcm, int off, int samples);
+
+    /** Samples written but not yet heard, for the delay estimate. */
+    int getPendingSamples();
+
+    void close();
+}
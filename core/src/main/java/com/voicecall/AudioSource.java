@@ -0,0 +1,16 @@
+package com.voicecall;
+
+/** Where a call's outgoing audio comes from: the microphone on a phone, a WAV file off-device. */
+public interface AudioSource {
+
+    int getSampleRate();
+
+    /**
+     * Reads up to {@code samples} of 16-bit mono PCM, blocking at the
+     * source's own clock. Returns the count, 0 if nothing was available,
+     * or -1 once the source has ended.
+     */
+    int read(short[] pcm, int off, int samples);
+
+    void close();
+}
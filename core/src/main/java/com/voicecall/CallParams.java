@@ -0,0 +1,51 @@
+package com.voicecall;
+
+/** Per-call media parameters agreed during the HELLO handshake. */
+public final class CallParams {
+
+    public static final int[] FRAME_DURATIONS_MS = {10, 20, 40, 64};
+    public static final int DEFAULT_FRAME_MS = 20;
+    public static final int LOW_LATENCY_FRAME_MS = 10;
+    public static final int MAX_FRAME_MS = 64;
+
+    // Wire sample rates: narrowband, wideband, fullband
+    public static final int[] SAMPLE_RATES = {8000, 16000, 48000};
+    // Assumed when the peer doesn't name a rate
+    public static final int BASE_SAMPLE_RATE = 8000;
+    public static final int MAX_SAMPLE_RATE = 48000;
+
+    private CallParams() {}
+
+    public static boolean isSupportedFrameMs(int ms) {
+        for (int d : FRAME_DURATIONS_MS) if (d == ms) return true;
+        return false;
+    }
+
+    /** The shorter of the two preferences wins, so a low-latency side is never overridden. */
+    public static int negotiateFrameMs(int peerMs, int ownMs) {
+        if (!isSupportedFrameMs(ownMs)) ownMs = DEFAULT_FRAME_MS;
+        return isSupportedFrameMs(peerMs) ? Math.min(peerMs, ownMs) : ownMs;
+    }
+
+    public static boolean isSupportedSampleRate(int rate) {
+        for (int r : SAMPLE_RATES) if (r == rate) return true;
+        return false;
+    }
+
+    /** Highest wire rate at or below the device rate, so nothing is upsampled for the wire. */
+    public static int preferredSampleRate(int deviceRate) {
+        int best = BASE_SAMPLE_RATE;
+        for (int r : SAMPLE_RATES) if (r <= deviceRate) best = Math.max(best, r);
+        return best;
+    }
+
+    /** The lower of the two preferences, so neither side has to send more than it offered. */
+    public static int negotiateSampleRate(int peerRate, int ownRate) {
+        if (!isSupportedSampleRate(ownRate)) ownRate = BASE_SAMPLE_RATE;
+        return isSupportedSampleRate(peerRate) ? Math.min(peerRate, ownRate) : BASE_SAMPLE_RATE;
+    }
+
+    public static int frameSamples(int sampleRate, int frameMs) {
+        return sampleRate * frameMs / 1000;
+    }
+}
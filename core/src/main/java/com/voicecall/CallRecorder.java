@@ -0,0 +1,178 @@
+package com.voicecall;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records a call to a stereo WAV file, our side on the left and the far
+ * side on the right. The capture and playout loops only copy each frame
+ * into their own {@link FrameQueue}; a background thread pairs the frames
+ * up and writes them through a {@link FileChannel}, so a slow or stalled
+ * disk never holds up audio. While the disk stalls the queues fill and
+ * new frames are dropped. The writer fills the gap with silence so the two
+ * sides stay aligned, and the drops are counted. Memory is fixed by the
+ * queue size however long the call runs.
+ */
+public final class CallRecorder {
+
+    // Frames each side may queue ahead of the writer: a couple of seconds of stall
+    private static final int QUEUE_FRAMES = 128;
+    // Frames written per channel write
+    private static final int BATCH_FRAMES = 16;
+    // One side has stopped (or never started) if the other gets this far ahead
+    private static final int MAX_SKEW_FRAMES = 8;
+    // Data chunk limit of a WAV file
+    private static final long MAX_DATA_BYTES = 0xFFFFFFFFL - WavAudioSink.HEADER_SIZE;
+
+    private final File file;
+    private final int sampleRate;
+    private final int frameSamples;
+    private final FrameQueue local;
+    private final FrameQueue remote;
+    private final FileChannel channel;
+    private final ByteBuffer out;
+    private final short[] left;
+    private final short[] right;
+    private Thread writer;
+    private volatile boolean running;
+    private volatile long dataBytes;
+    private volatile IOException error;
+
+    // Writer thread only
+    private long localPadded;
+    private long remotePadded;
+    private boolean full;
+
+    public CallRecorder(File file, int sampleRate, int frameMs) throws IOException {
+        this.file = file;
+        this.sampleRate = sampleRate;
+        frameSamples = CallParams.frameSamples(sampleRate, frameMs);
+        local = new FrameQueue(QUEUE_FRAMES, frameSamples);
+        remote = new FrameQueue(QUEUE_FRAMES, frameSamples);
+        left = new short[frameSamples];
+        right = new short[frameSamples];
+        out = ByteBuffer.allocateDirect(BATCH_FRAMES * frameSamples * 4).order(ByteOrder.LITTLE_ENDIAN);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(WavAudioSink.header(sampleRate, 2, 0)));
+    }
+
+    public void start() {
+        running = true;
+        writer = new Thread(this::run, "VoiceCall-recorder");
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    public File getFile() { return file; }
+    public int getSampleRate() { return sampleRate; }
+
+    /** Capture side: a frame we sent, at the call rate. Never blocks. */
+    public void recordLocal(short[] pcm, int off, int samples) {
+        if (samples == frameSamples) local.offer(pcm, off, samples);
+    }
+
+    /** Playout side: a frame we played, at the call rate. Never blocks. */
+    public void recordRemote(short[] pcm, int off, int samples) {
+        if (samples == frameSamples) remote.offer(pcm, off, samples);
+    }
+
+    /** Frames either side lost to a full queue; each became silence in the file. */
+    public long getDroppedFrames() { return local.getDropped() + remote.getDropped(); }
+
+    public long getRecordedMs() { return dataBytes / 4 * 1000 / sampleRate; }
+
+    /** The write error that stopped the recording, if one did. */
+    public IOException getError() { return error; }
+
+    /**
+     * Writes what is still queued, fills in the header and closes the file.
+     * Waits for the disk, so call it off the audio threads.
+     */
+    public void close() {
+        running = false;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try { writer.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        try {
+            channel.write(ByteBuffer.wrap(WavAudioSink.header(sampleRate, 2, dataBytes)), 0);
+            channel.force(false);
+        } catch (IOException e) {
+            if (error == null) error = e;
+        } finally {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void run() {
+        long parkNanos = frameSamples * 1_000_000_000L / sampleRate / 2;
+        while (running) {
+            if (!drain(false)) LockSupport.parkNanos(parkNanos);
+        }
+        drain(true);
+    }
+
+    // Writes every frame that can be paired, padding whichever side has fallen behind;
+    // returns whether anything was written. At the end, unpaired frames go out too
+    private boolean drain(boolean last) {
+        boolean wrote = false;
+        while (true) {
+            // Frames a producer dropped are made up with silence, so the sides stay in step
+            boolean padLocal = local.getDropped() > localPadded;
+            boolean padRemote = remote.getDropped() > remotePadded;
+            int l = local.size();
+            int r = remote.size();
+            boolean haveLocal = padLocal || l > 0;
+            boolean haveRemote = padRemote || r > 0;
+            if (!haveLocal && !haveRemote) break;
+            if (!haveLocal && !last && r < MAX_SKEW_FRAMES) break;
+            if (!haveRemote && !last && l < MAX_SKEW_FRAMES) break;
+            take(local, left, padLocal, haveLocal);
+            take(remote, right, padRemote, haveRemote);
+            if (padLocal) localPadded++;
+            if (padRemote) remotePadded++;
+            write(left, right);
+            wrote = true;
+        }
+        flush();
+        return wrote;
+    }
+
+    private static void take(FrameQueue queue, short[] frame, boolean pad, boolean have) {
+        if (pad || !have || queue.poll(frame, 0) == 0) Arrays.fill(frame, (short) 0);
+    }
+
+    private void write(short[] l, short[] r) {
+        if (out.remaining() < frameSamples * 4) flush();
+        for (int i = 0; i < frameSamples; i++) {
+            out.putShort(l[i]);
+            out.putShort(r[i]);
+        }
+    }
+
+    private void flush() {
+        out.flip();
+        try {
+            if (!full && error == null) {
+                int len = out.remaining();
+                if (dataBytes + len > MAX_DATA_BYTES) {
+                    full = true;
+                } else {
+                    while (out.hasRemaining()) channel.write(out);
+                    dataBytes += len;
+                }
+            }
+        } catch (IOException e) {
+            // Keep draining so the queues never back up into the audio threads
+            error = e;
+        }
+        out.clear();
+    }
+}
@@ -0,0 +1,760 @@
+package com.voicecall;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The media side of one call, with no Android in it: the HELLO handshake,
+ * the participant list, the capture and playout loops over an
+ * {@link AudioSource} and {@link AudioSink}, the conference mix on the
+ * host, and the ping and receiver-report timers. Given a room code, each
+ * leg agrees keys in the handshake and every packet after it is sealed by
+ * a {@link MediaCipher}. Packets are handled on the {@link NetLoop}; the
+ * two audio loops run on threads the caller owns.
+ * <p>
+ * A party that changes networks mid-call keeps its place: a packet from an
+ * unknown address carrying a participant's session id, and opening under
+ * that participant's keys, moves the participant there. A
+ * {@link LivenessMonitor} per participant notices when the peer goes quiet
+ * and has us probe it, so it hears from our current address, and a guest
+ * whose probes go unanswered moves to a fresh socket.
+ * <p>
+ * Parties on different networks meet through a relay server: see
+ * {@link #useRelay}. The relay forwards packets untouched, so nothing else
+ * here knows about it.
+ */
+public final class CallSession {
+
+    public interface Listener {
+        /**
+         * The host acked the guest, or the first guest joined the host; frame
+         * duration and rate are settled. Called on the net loop.
+         */
+        void onConnected();
+        /**
+         * A guest joined or left the host's room; 0 once the last one has gone
+         * quiet, leaving the host alone in the call. Called on the net loop.
+         */
+        void onParticipantsChanged(int count);
+        /**
+         * The capture or playout loop gave up: {@code error} and more like it
+         * cost it every frame for about a second. It has returned, so the
+         * call can't be heard any more and should be ended. Called on that
+         * loop's thread.
+         */
+        void onAudioFailed(Exception error);
+    }
+
+    // Largest frame on the wire: 64 ms of 16-bit PCM at the highest rate
+    public static final int MAX_FRAME_SAMPLES =
+            CallParams.frameSamples(CallParams.MAX_SAMPLE_RATE, CallParams.MAX_FRAME_MS);
+    public static final int MAX_FRAME_BYTES = MAX_FRAME_SAMPLES * 2;
+    // Header, redundant copies, the primary frame and what sealing adds
+    public static final int MAX_PACKET = PacketHeader.SIZE + MAX_FRAME_BYTES * 2 + MediaCipher.OVERHEAD;
+    // Conference size, host included
+    public static final int MAX_PARTICIPANTS = 8;
+    private static final int PARTICIPANT_TIMEOUT_MS = 15000;
+    private static final int REPORT_INTERVAL_MS = 1000;
+    private static final int PING_INTERVAL_MS = 2000;
+    private static final int LIVENESS_TICK_MS = 50;
+    private static final int JITTER_MIN_MS = 20;
+    private static final int JITTER_MAX_MS = 400;
+    // Frames in a row an audio loop may lose to errors before it gives up
+    private static final int MAX_AUDIO_ERRORS = 50;
+
+    private final NetLoop loop;
+    private final boolean host;
+    private final int preferredFrameMs;
+    private final int preferredSampleRate;
+    private final Listener listener;
+    // Null when the call runs in the clear
+    private final KeyExchange keys;
+    private final int localSsrc = new Random().nextInt();
+    private final PipelineDelay pipelineDelay = new PipelineDelay();
+    private final CallTimeline timeline = new CallTimeline();
+    // Net loop buffers for control packets
+    private final byte[] report = new byte[PacketHeader.SIZE + 7];
+    private final ByteBuffer reportTx = ByteBuffer.wrap(report);
+    private final byte[] pong = new byte[PacketHeader.SIZE + 4];
+    private final ByteBuffer pongTx = ByteBuffer.wrap(pong);
+    private final byte[] ping = new byte[PacketHeader.SIZE + 4];
+    private final ByteBuffer pingTx = ByteBuffer.wrap(ping);
+    private final byte[] sealedControl = new byte[MAX_PACKET];
+    private final ByteBuffer sealedControlTx = ByteBuffer.wrap(sealedControl);
+    private final byte[] opened = new byte[MAX_PACKET];
+    // The host hands its microphone to the mixer, which sends every guest its own mix
+    private final FrameQueue micFrames;
+    private final AudioMixer mixer;
+
+    // Replaced on the net loop when a guest moves sockets; the capture loop re-reads it per frame
+    private volatile DatagramChannel channel;
+    // The host for a guest, every guest for the host. Replaced, never modified, on the
+    // net loop so the audio loops can iterate it without locking
+    private volatile Participant[] participants = new Participant[0];
+    private volatile boolean running;
+    private volatile boolean muted;
+    private volatile boolean helloAcked;
+    private volatile int frameMs;
+    private volatile int sampleRate;
+    private volatile CallRecorder recorder;
+    private volatile ToneMixer tones;
+    private volatile AudioMetrics metrics;
+    // Set by useRelay: where to register, and what
+    private volatile InetSocketAddress relay;
+    private volatile byte[] relayRegistration;
+    private volatile NetLoop.Timer relayTimer;
+
+    /** A null {@code roomCode} keeps the call's media unencrypted. */
+    public CallSession(NetLoop loop, boolean host, int preferredFrameMs, int preferredSampleRate,
+                       String roomCode, Listener listener) {
+        this.loop = loop;
+        this.host = host;
+        this.preferredFrameMs = preferredFrameMs;
+        this.preferredSampleRate = preferredSampleRate;
+        this.listener = listener;
+        frameMs = preferredFrameMs;
+        sampleRate = host ? CallParams.BASE_SAMPLE_RATE : preferredSampleRate;
+        pipelineDelay.setPacketizationMs(preferredFrameMs);
+        micFrames = host ? new FrameQueue(4, MAX_FRAME_SAMPLES) : null;
+        mixer = host ? new AudioMixer(MAX_PARTICIPANTS, MAX_FRAME_SAMPLES) : null;
+        KeyExchange k = null;
+        if (roomCode != null) {
+            try {
+                k = new KeyExchange(roomCode);
+            } catch (GeneralSecurityException e) {
+                // No EC support on this device; offer the call in the clear
+            }
+        }
+        keys = k;
+    }
+
+    /** Host: waits on {@code port} for guests; each one's HELLO adds it to the room. */
+    public void listen(int port) throws IOException {
+        channel = loop.open(port, false, this::onPacket);
+        timeline.mark(CallTimeline.SOCKET_READY);
+    }
+
+    /**
+     * Guest: binds the call's socket ahead of {@link #connect}, so it's ready
+     * while the host is still being looked for. Optional.
+     */
+    public void open() throws IOException {
+        if (channel != null) return;
+        channel = loop.open(0, false, this::onPacket);
+        timeline.mark(CallTimeline.SOCKET_READY);
+    }
+
+    /**
+     * Guest: the host is our only participant. We offer our codecs, frame duration
+     * and rate, and send no audio until it acks. The channel stays unconnected so the
+     * host can reach us from a new address if it changes networks.
+     */
+    public void connect(InetSocketAddress hostAddress) throws IOException {
+        Participant p = newParticipant(hostAddress);
+        p.configure(frameMs, sampleRate, System.currentTimeMillis());
+        participants = new Participant[]{p};
+        open();
+        timeline.mark(CallTimeline.PEER_FOUND);
+        channel.send(ByteBuffer.wrap(buildHello()), hostAddress);
+        start();
+    }
+
+    /**
+     * The device's network changed. A guest in a keyed call moves to a fresh
+     * socket, since the old one may be tied to the network that went away;
+     * either side probes every peer at once so they learn where we are now.
+     * A call in the clear can't follow a peer to a new address, so it only
+     * survives if the address stays the same.
+     */
+    public void onNetworkChanged() {
+        loop.post(() -> {
+            if (!running) return;
+            Participant[] ps = participants;
+            if (!host && ps.length > 0 && ps[0].getCipher() != null) rebind();
+            sendRelayRegistration();
+            long now = System.currentTimeMillis();
+            for (Participant p : participants) sendPing(p, now);
+        });
+    }
+
+    /**
+     * Also meets the other side through the relay at {@code relay}, from the
+     * call's own socket so the relay learns where to reach it. A host
+     * registers {@code roomCode} there, so guests elsewhere can join while
+     * those on the local network still come straight in. A guest joins the
+     * room, then {@link #connect}s to the relay as if it were the host. Call
+     * after {@link #listen} or {@link #open}.
+     */
+    public void useRelay(InetSocketAddress relay, String roomCode) {
+        this.relay = relay;
+        relayRegistration = host ? RelayControl.host(roomCode) : RelayControl.join(roomCode, localSsrc);
+        // Sent from here, not posted, so a guest's join is on the wire before its HELLO
+        sendRelayRegistration();
+        relayTimer = loop.schedule(RelayControl.REFRESH_MS, RelayControl.REFRESH_MS, this::sendRelayRegistration);
+    }
+
+    public void stop() {
+        running = false;
+        NetLoop.Timer timer = relayTimer;
+        if (timer != null) timer.cancel();
+        loop.close(channel);
+    }
+
+    public boolean isRunning() { return running; }
+    public boolean isHost() { return host; }
+    public boolean isEncryptionOffered() { return keys != null; }
+    public void setMuted(boolean muted) { this.muted = muted; }
+    public boolean isMuted() { return muted; }
+    public int getSampleRate() { return sampleRate; }
+    public int getFrameMs() { return frameMs; }
+    public Participant[] getParticipants() { return participants; }
+    public PipelineDelay getPipelineDelay() { return pipelineDelay; }
+    /** Set-up stages from when the session was created; the caller marks {@link CallTimeline#DEVICES_READY}. */
+    public CallTimeline getTimeline() { return timeline; }
+    /**
+     * Starts tapping both directions into {@code recorder}, which must run at
+     * the call's rate and frame duration; null stops. The audio loops only
+     * hand it frames, so recording never delays them.
+     */
+    public void setRecorder(CallRecorder recorder) { this.recorder = recorder; }
+
+    /** Tones to mix into what the speaker plays; they are left out of any recording. */
+    public void setTones(ToneMixer tones) { this.tones = tones; }
+
+    /** Where the audio loops record frame times and jitter buffer underruns; set before they run. */
+    public void setMetrics(AudioMetrics metrics) { this.metrics = metrics; }
+
+    /** The host's conference mixer, null on a guest. */
+    public AudioMixer getMixer() { return mixer; }
+
+    /** With one peer this is the call itself; on a conference host it's the guest whose link is worst. */
+    public CallStats.Snapshot worstSnapshot() {
+        CallStats.Snapshot worst = null;
+        for (Participant p : participants) {
+            CallStats.Snapshot s = p.getStats().snapshot();
+            if (worst == null || s.intervalLossPercent > worst.intervalLossPercent) worst = s;
+        }
+        return worst;
+    }
+
+    private void start() {
+        running = true;
+        // Keep-alive - a ping every 2 seconds keeps the connection alive and measures
+        // the round trip. Until the host acks our HELLO the guest resends that instead
+        byte[] hello = buildHello();
+        loop.schedule(PING_INTERVAL_MS, PING_INTERVAL_MS, () -> {
+            if (!running) return;
+            if (!host && !helloAcked) {
+                try { channel.send(ByteBuffer.wrap(hello), participants[0].getAddress()); } catch (IOException ignored) {}
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Participant p : participants) sendPing(p, now);
+        });
+
+        // Liveness - a peer quiet for longer than its stream allows gets probed until it
+        // answers; a guest whose probes go unanswered suspects its socket and moves
+        loop.schedule(LIVENESS_TICK_MS, LIVENESS_TICK_MS, () -> {
+            if (!running || (!host && !helloAcked)) return;
+            long now = System.currentTimeMillis();
+            for (Participant p : participants) {
+                LivenessMonitor liveness = p.getLiveness();
+                boolean probe = liveness.poll(now, p.getStats().getLastPacketMs(), p.getJitterBuffer().isSilent());
+                // In the clear the host wouldn't follow us to a new socket
+                if (!host && p.getCipher() != null && liveness.rebindDue(now, p.getStats().getRttMs())) {
+                    rebind();
+                    probe = true;
+                }
+                if (probe) sendPing(p, now);
+            }
+        });
+
+        // Receiver reports - loss, jitter, receive rate and queueing delay over the last
+        // interval, which drive each peer's rate controller. The host also lets go of
+        // guests that have gone quiet
+        loop.schedule(REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, () -> {
+            if (!running) return;
+            long now = System.currentTimeMillis();
+            for (Participant p : participants) {
+                CallStats stats = p.getStats();
+                if (!stats.hasMediaSinceLastInterval()) {
+                    // Nothing to judge loss by (silence or an outage) - keep the snapshot fresh
+                    stats.publish();
+                    continue;
+                }
+                int fraction = stats.closeInterval(now);
+                PacketHeader.write(report, PacketHeader.TYPE_REPORT, 0, localSsrc, 0, 0);
+                report[PacketHeader.SIZE] = (byte) fraction;
+                PacketHeader.putShort(report, PacketHeader.SIZE + 1, (int) Math.min(65535, stats.getJitterMs()));
+                PacketHeader.putShort(report, PacketHeader.SIZE + 3, Math.min(65535, stats.getReceiveKbps()));
+                PacketHeader.putShort(report, PacketHeader.SIZE + 5, stats.getQueueDelayMs());
+                reportTx.clear();
+                sendTo(p, reportTx);
+            }
+            if (host) dropSilentParticipants(now);
+        });
+        // A guest is connected once its HELLO is acked
+        if (host) {
+            timeline.mark(CallTimeline.CONNECTED);
+            listener.onConnected();
+        }
+    }
+
+    // Runs on the net loop for every datagram on the call's channel
+    private void onPacket(DatagramChannel ch, byte[] data, int len, SocketAddress from) throws IOException {
+        Participant[] current = participants;
+        for (Participant p : current) {
+            if (from.equals(p.getAddress())) { onMediaPacket(p, data, len, null); return; }
+        }
+        if (!PacketHeader.isValid(data, len)) return;
+        // Someone we know at a new address: it changed networks or its NAT remapped. Only
+        // keys can prove that - anyone can copy an ssrc, and answer a ping from where they
+        // are - so a call in the clear never moves
+        int ssrc = PacketHeader.ssrc(data);
+        for (Participant p : current) {
+            if (p.isPeerSsrc(ssrc) && p.getCipher() != null) { onMediaPacket(p, data, len, from); return; }
+        }
+        // A new guest announces itself with HELLO; anything else from a stranger is ignored
+        if (!host || PacketHeader.type(data) != PacketHeader.TYPE_HELLO) return;
+        if (current.length >= MAX_PARTICIPANTS - 1) return;
+        Participant guest = newParticipant(from);
+        if (!acceptHello(guest, data, len)) return;
+        timeline.mark(CallTimeline.PEER_FOUND);
+        Participant[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = guest;
+        participants = next;
+        if (!running) start();
+        else listener.onParticipantsChanged(next.length);
+    }
+
+    // movedTo is the keyed party's new address when the packet came from elsewhere; the
+    // party moves only if the packet is genuine, which means it opened under their keys
+    private void onMediaPacket(Participant p, byte[] buffer, int len, SocketAddress movedTo) throws IOException {
+        if (!PacketHeader.isValid(buffer, len)) return;
+        int wireLen = len;
+        MediaCipher cipher = p.getCipher();
+        if (MediaCipher.isSealed(buffer)) {
+            if (cipher == null || (len = cipher.open(buffer, len, opened)) < 0) return;
+            buffer = opened;
+        } else if (cipher != null && (movedTo != null || !isHandshake(PacketHeader.type(buffer)))) {
+            // Once keyed, only the handshake may arrive in the clear, and only from where it started
+            return;
+        }
+        if (movedTo != null) p.moveTo(movedTo);
+        long now = System.currentTimeMillis();
+        p.getStats().onPacket(now, wireLen);
+        switch (PacketHeader.type(buffer)) {
+            case PacketHeader.TYPE_AUDIO:
+                p.onAudio(buffer, len, now);
+                break;
+            case PacketHeader.TYPE_PING:
+                // Echo the sender's clock straight back
+                if (len < PacketHeader.SIZE + 4) break;
+                PacketHeader.write(pong, PacketHeader.TYPE_PONG, 0, localSsrc, 0, 0);
+                System.arraycopy(buffer, PacketHeader.SIZE, pong, PacketHeader.SIZE, 4);
+                pongTx.clear();
+                sendTo(p, pongTx);
+                break;
+            case PacketHeader.TYPE_PONG:
+                if (len >= PacketHeader.SIZE + 4) p.getStats().onPong(PacketHeader.getInt(buffer, PacketHeader.SIZE), now);
+                break;
+            case PacketHeader.TYPE_REPORT:
+                // Payload: loss out of 256, then jitter ms, receive kbit/s and queueing delay ms.
+                // Older peers send only the loss, which still steers FEC
+                if (len >= PacketHeader.SIZE + 7) {
+                    p.getSender().getRateController().onReport(buffer[PacketHeader.SIZE] & 0xFF,
+                            PacketHeader.getShort(buffer, PacketHeader.SIZE + 1),
+                            PacketHeader.getShort(buffer, PacketHeader.SIZE + 3),
+                            PacketHeader.getShort(buffer, PacketHeader.SIZE + 5));
+                } else if (len > PacketHeader.SIZE) {
+                    p.getSender().getRedundancy().onLossReport(buffer[PacketHeader.SIZE] & 0xFF);
+                }
+                break;
+            case PacketHeader.TYPE_SID:
+                p.onSilence(buffer, len);
+                break;
+            case PacketHeader.TYPE_HELLO:
+                // Guest resends HELLO until acked
+                if (host) acceptHello(p, buffer, len);
+                break;
+            case PacketHeader.TYPE_HELLO_ACK:
+                // Acks to resent HELLOs mustn't undo what the rate controller has done since
+                if (host || helloAcked) break;
+                int ackedCodec = PacketHeader.codec(buffer);
+                int hostCodecs = len > PacketHeader.SIZE + 2 ? buffer[PacketHeader.SIZE + 2] & 0xFF : 1 << ackedCodec;
+                int hostFeatures = len > PacketHeader.SIZE + 3 ? buffer[PacketHeader.SIZE + 3] & 0xFF : 0;
+                p.getSender().getRateController().configure(ackedCodec, hostCodecs,
+                        (hostFeatures & PacketHeader.FEATURE_BUNDLING) != 0);
+                if (keys != null && (hostFeatures & PacketHeader.FEATURE_ENCRYPTION) != 0) {
+                    byte[] hostKey = peerKey(buffer, len);
+                    // A host that offers encryption and sends no usable key isn't one to talk to
+                    if (hostKey == null) break;
+                    try {
+                        p.setCipher(keys.derive(hostKey, false));
+                    } catch (GeneralSecurityException e) {
+                        break;
+                    }
+                }
+                p.setPeerSsrc(PacketHeader.ssrc(buffer));
+                int ackedFrameMs = len > PacketHeader.SIZE ? buffer[PacketHeader.SIZE] & 0xFF : 0;
+                int ackedRate = len > PacketHeader.SIZE + 1
+                        ? (buffer[PacketHeader.SIZE + 1] & 0xFF) * 1000 : CallParams.BASE_SAMPLE_RATE;
+                if (!CallParams.isSupportedFrameMs(ackedFrameMs)) ackedFrameMs = frameMs;
+                if (!CallParams.isSupportedSampleRate(ackedRate)) ackedRate = CallParams.BASE_SAMPLE_RATE;
+                if (ackedFrameMs != frameMs || ackedRate != sampleRate) {
+                    // The host only starts sending after this ack, so nothing queued is lost
+                    frameMs = ackedFrameMs;
+                    sampleRate = ackedRate;
+                    p.configure(ackedFrameMs, ackedRate, now);
+                    pipelineDelay.setPacketizationMs(ackedFrameMs);
+                }
+                helloAcked = true;
+                timeline.mark(CallTimeline.CONNECTED);
+                // Only now are frame duration and rate settled for the devices and any recorder
+                listener.onConnected();
+                break;
+            default:
+                // Keep-alive only refreshes liveness
+                break;
+        }
+    }
+
+    private Participant newParticipant(SocketAddress address) {
+        return new Participant(address, new MediaSender(localSsrc, MAX_FRAME_SAMPLES, MAX_PACKET),
+                MAX_FRAME_SAMPLES, JITTER_MIN_MS, JITTER_MAX_MS);
+    }
+
+    private void sendTo(Participant p, ByteBuffer packet) {
+        MediaCipher cipher = p.getCipher();
+        if (cipher != null) {
+            sealedControlTx.limit(cipher.sealControl(packet.array(), packet.limit(), sealedControl)).position(0);
+            packet = sealedControlTx;
+        }
+        try {
+            channel.send(packet, p.getAddress());
+        } catch (IOException ignored) {}
+    }
+
+    private void sendPing(Participant p, long now) {
+        PacketHeader.write(ping, PacketHeader.TYPE_PING, 0, localSsrc, 0, 0);
+        PacketHeader.putInt(ping, PacketHeader.SIZE, (int) now);
+        pingTx.clear();
+        sendTo(p, pingTx);
+    }
+
+    // Guest side, on the net loop: carries the call on to a new socket, and so a new
+    // local port and NAT mapping. The host follows once it hears from it; a relay
+    // needs telling first
+    private void rebind() {
+        DatagramChannel old = channel;
+        try {
+            channel = loop.open(0, false, this::onPacket);
+        } catch (IOException e) {
+            return;
+        }
+        loop.close(old);
+        sendRelayRegistration();
+    }
+
+    private void sendRelayRegistration() {
+        InetSocketAddress to = relay;
+        if (to == null) return;
+        try {
+            channel.send(ByteBuffer.wrap(relayRegistration), to);
+        } catch (IOException ignored) {}
+    }
+
+    // Host side, on the net loop: a guest that has sent nothing for a while has left
+    private void dropSilentParticipants(long now) {
+        Participant[] current = participants;
+        int kept = 0;
+        for (Participant p : current) {
+            if (now - p.getStats().getLastPacketMs() < PARTICIPANT_TIMEOUT_MS) kept++;
+        }
+        if (kept == current.length) return;
+        Participant[] next = new Participant[kept];
+        int i = 0;
+        for (Participant p : current) {
+            if (now - p.getStats().getLastPacketMs() < PARTICIPANT_TIMEOUT_MS) next[i++] = p;
+        }
+        participants = next;
+        listener.onParticipantsChanged(kept);
+    }
+
+    private static boolean isHandshake(int type) {
+        return type == PacketHeader.TYPE_HELLO || type == PacketHeader.TYPE_HELLO_ACK;
+    }
+
+    // HELLO payload: codec bitmask, preferred frame duration in ms, preferred rate in kHz,
+    // feature bits, then with encryption our public key's length and the key
+    private byte[] buildHello() {
+        byte[] hello = withKey(PacketHeader.SIZE + 4, keys != null);
+        PacketHeader.write(hello, PacketHeader.TYPE_HELLO, 0, localSsrc, 0, 0);
+        hello[PacketHeader.SIZE] = (byte) Codecs.SUPPORTED_MASK;
+        hello[PacketHeader.SIZE + 1] = (byte) preferredFrameMs;
+        hello[PacketHeader.SIZE + 2] = (byte) (preferredSampleRate / 1000);
+        hello[PacketHeader.SIZE + 3] = (byte) features(keys != null);
+        return hello;
+    }
+
+    private static int features(boolean encrypted) {
+        return encrypted ? PacketHeader.SUPPORTED_FEATURES
+                : PacketHeader.SUPPORTED_FEATURES & ~PacketHeader.FEATURE_ENCRYPTION;
+    }
+
+    // A handshake packet of size bytes, followed by our key if encrypted
+    private byte[] withKey(int size, boolean encrypted) {
+        if (!encrypted) return new byte[size];
+        byte[] key = keys.getPublicKey();
+        byte[] packet = new byte[size + 1 + key.length];
+        packet[size] = (byte) key.length;
+        System.arraycopy(key, 0, packet, size + 1, key.length);
+        return packet;
+    }
+
+    // The peer's public key after the four handshake bytes, or null if it's missing
+    private static byte[] peerKey(byte[] buf, int len) {
+        int at = PacketHeader.SIZE + 4;
+        if (len <= at) return null;
+        int keyLen = buf[at] & 0xFF;
+        if (keyLen == 0 || len < at + 1 + keyLen) return null;
+        return Arrays.copyOfRange(buf, at + 1, at + 1 + keyLen);
+    }
+
+    // Host side: pick the codec from the guest's HELLO and tell it. The first guest settles
+    // frame duration and rate for the call; later guests join at those, since the mixer
+    // runs every stream on one clock. The ack names the codec in its header and carries
+    // the frame duration and rate, then the codecs and features the host can receive and,
+    // if the guest's key was taken, the host's key. A resent HELLO keeps the keys it had.
+    // Returns false, sending nothing, if the guest offered a key we can't use
+    private boolean acceptHello(Participant guest, byte[] buf, int len) throws IOException {
+        int peerMask = len > PacketHeader.SIZE ? buf[PacketHeader.SIZE] & 0xFF : 1 << Codecs.PCM;
+        int peerFrameMs = len > PacketHeader.SIZE + 1 ? buf[PacketHeader.SIZE + 1] & 0xFF : CallParams.MAX_FRAME_MS;
+        int peerRate = len > PacketHeader.SIZE + 2
+                ? (buf[PacketHeader.SIZE + 2] & 0xFF) * 1000 : CallParams.BASE_SAMPLE_RATE;
+        int peerFeatures = len > PacketHeader.SIZE + 3 ? buf[PacketHeader.SIZE + 3] & 0xFF : 0;
+        if (guest.getCipher() == null && keys != null && (peerFeatures & PacketHeader.FEATURE_ENCRYPTION) != 0) {
+            byte[] guestKey = peerKey(buf, len);
+            if (guestKey == null) return false;
+            try {
+                guest.setCipher(keys.derive(guestKey, true));
+            } catch (GeneralSecurityException e) {
+                return false;
+            }
+        }
+        int codec = Codecs.choose(peerMask);
+        guest.getSender().getRateController().configure(codec, peerMask & Codecs.SUPPORTED_MASK,
+                (peerFeatures & PacketHeader.FEATURE_BUNDLING) != 0);
+        if (!running) {
+            frameMs = CallParams.negotiateFrameMs(peerFrameMs, preferredFrameMs);
+            sampleRate = CallParams.negotiateSampleRate(peerRate, preferredSampleRate);
+            pipelineDelay.setPacketizationMs(frameMs);
+        }
+        if (guest.getJitterBuffer() == null) guest.configure(frameMs, sampleRate, System.currentTimeMillis());
+        guest.setPeerSsrc(PacketHeader.ssrc(buf));
+        boolean encrypted = guest.getCipher() != null;
+        byte[] ack = withKey(PacketHeader.SIZE + 4, encrypted);
+        PacketHeader.write(ack, PacketHeader.TYPE_HELLO_ACK, codec, localSsrc, 0, 0);
+        ack[PacketHeader.SIZE] = (byte) frameMs;
+        ack[PacketHeader.SIZE + 1] = (byte) (sampleRate / 1000);
+        ack[PacketHeader.SIZE + 2] = (byte) Codecs.SUPPORTED_MASK;
+        ack[PacketHeader.SIZE + 3] = (byte) features(encrypted);
+        channel.send(ByteBuffer.wrap(ack), guest.getAddress());
+        return true;
+    }
+
+    /**
+     * Capture loop: reads the source, resamples to the wire rate and cuts
+     * frames. A guest encodes and sends each frame straight away; the host
+     * queues it for the mixer. Returns once the call stops or the source ends,
+     * or after {@link Listener#onAudioFailed} if frames keep failing.
+     */
+    public void runCapture(AudioSource source) {
+        int sourceRate = source.getSampleRate();
+        short[] capture = new short[CallParams.frameSamples(sourceRate, CallParams.MAX_FRAME_MS)];
+        // Wire-rate samples waiting to fill a frame; resampled reads don't land on frame edges
+        short[] pcm = new short[MAX_FRAME_SAMPLES * 2];
+        Participant peer = host ? null : participants[0];
+        MediaSender sender = host ? null : peer.getSender();
+        short[] silence = new short[MAX_FRAME_SAMPLES];
+        Resampler resampler = null;
+        int rate = 0;
+        int ms = 0;
+        int pending = 0;
+        boolean sent = false;
+        AudioMetrics m = metrics;
+        AudioMetrics.FrameTimes times = m != null ? m.frameTimes(AudioMetrics.CAPTURE) : null;
+        LongAdder errorCount = m != null ? m.counter(AudioMetrics.CAPTURE_ERRORS) : null;
+        int errors = 0;
+        while (running) {
+            try {
+                // Re-read each frame: the guest switches once the host acks
+                if (rate != sampleRate || ms != frameMs) {
+                    rate = sampleRate;
+                    ms = frameMs;
+                    resampler = rate == sourceRate ? null : new Resampler(sourceRate, rate, capture.length);
+                    pending = 0;
+                }
+                int read = source.read(capture, 0, CallParams.frameSamples(sourceRate, ms));
+                if (read < 0) break;
+                if (read == 0) continue;
+                // From here to the next read is this frame's work
+                long began = System.nanoTime();
+                // Nothing goes out before the ack: the host decodes at the rate it picks
+                if (!host && !helloAcked) continue;
+                if (resampler != null) {
+                    pending += resampler.process(capture, 0, read, pcm, pending);
+                } else {
+                    System.arraycopy(capture, 0, pcm, pending, read);
+                    pending += read;
+                }
+                int samples = CallParams.frameSamples(rate, ms);
+                boolean muted = this.muted;
+                CallRecorder rec = recorder;
+                int start = 0;
+                for (; pending - start >= samples; start += samples) {
+                    if (sender != null) sender.send(channel, peer.getAddress(), pcm, start, samples, rate, ms, muted);
+                    else if (!muted) micFrames.offer(pcm, start, samples);
+                    if (rec != null) rec.recordLocal(muted ? silence : pcm, muted ? 0 : start, samples);
+                    if (sender != null && !sent) {
+                        sent = true;
+                        timeline.mark(CallTimeline.FIRST_AUDIO_SENT);
+                    }
+                }
+                pending -= start;
+                System.arraycopy(pcm, start, pcm, 0, pending);
+                if (times != null) times.record(System.nanoTime() - began, ms * 1_000_000L);
+                errors = 0;
+            } catch (Exception e) {
+                if (!running || !audioError(e, ++errors, errorCount)) break;
+            }
+        }
+    }
+
+    /**
+     * Playout loop: paced by the sink, which blocks at its own clock. A
+     * guest plays the host's stream; the host mixes every guest with its
+     * microphone and sends each guest the mix without its own voice.
+     * Returns once the call stops, or after {@link Listener#onAudioFailed}
+     * if frames keep failing.
+     */
+    public void runPlayout(AudioSink sink) {
+        int sinkRate = sink.getSampleRate();
+        short[] mic = new short[MAX_FRAME_SAMPLES];
+        short[] mix = new short[MAX_FRAME_SAMPLES];
+        short[] out = new short[(int) ((long) MAX_FRAME_SAMPLES * sinkRate / CallParams.BASE_SAMPLE_RATE) + 2];
+        Resampler resampler = null;
+        int rate = 0;
+        boolean heard = false;
+        boolean sent = false;
+        AudioMetrics m = metrics;
+        AudioMetrics.FrameTimes times = m != null ? m.frameTimes(AudioMetrics.PLAYOUT) : null;
+        LongAdder jitterUnderruns = m != null ? m.counter(AudioMetrics.JITTER_UNDERRUNS) : null;
+        LongAdder errorCount = m != null ? m.counter(AudioMetrics.PLAYOUT_ERRORS) : null;
+        long underruns = 0;
+        int errors = 0;
+        while (running) {
+            try {
+                // From the last write returning to the next one is this frame's work
+                long began = System.nanoTime();
+                // Re-read each frame: the guest switches if the host acks a different frame size or rate
+                if (rate != sampleRate) {
+                    rate = sampleRate;
+                    resampler = rate == sinkRate ? null : new Resampler(rate, sinkRate, MAX_FRAME_SAMPLES);
+                }
+                int ms = frameMs;
+                int samples = CallParams.frameSamples(rate, ms);
+                Participant[] ps = participants;
+                short[] speaker;
+                int depth = 0;
+                if (mixer == null) {
+                    ps[0].pull(samples);
+                    speaker = ps[0].getPcm();
+                    depth = ps[0].getJitterBuffer().depth();
+                } else {
+                    mixer.begin(samples);
+                    // Hold at most one spare capture frame so the two clocks can't build up delay
+                    while (micFrames.size() > 2) micFrames.poll(mic, 0);
+                    if (micFrames.poll(mic, 0) == samples) mixer.add(0, mic, 0);
+                    for (int i = 0; i < ps.length; i++) {
+                        ps[i].pull(samples);
+                        mixer.add(i + 1, ps[i].getPcm(), 0);
+                        depth = Math.max(depth, ps[i].getJitterBuffer().depth());
+                    }
+                    for (int i = 0; i < ps.length; i++) {
+                        mixer.mixMinus(i + 1, mix, 0);
+                        try {
+                            ps[i].getSender().send(channel, ps[i].getAddress(), mix, 0, samples, rate, ms, false);
+                        } catch (IOException ignored) {}
+                    }
+                    if (!sent && ps.length > 0) {
+                        sent = true;
+                        timeline.mark(CallTimeline.FIRST_AUDIO_SENT);
+                    }
+                    mixer.mixMinus(0, mix, 0);
+                    speaker = mix;
+                }
+                CallRecorder rec = recorder;
+                if (rec != null) rec.recordRemote(speaker, 0, samples);
+                short[] play = speaker;
+                int n = samples;
+                if (resampler != null) {
+                    n = resampler.process(speaker, 0, samples, out, 0);
+                    play = out;
+                }
+                ToneMixer t = tones;
+                if (t != null && t.getSampleRate() == sinkRate && t.isActive()) {
+                    // Not into the participant's own frame, which concealment may reuse
+                    if (play != out) System.arraycopy(speaker, 0, out, 0, n);
+                    play = out;
+                    t.mixInto(play, 0, n);
+                }
+                if (times != null) {
+                    times.record(System.nanoTime() - began, ms * 1_000_000L);
+                    long u = 0;
+                    for (Participant p : ps) u += p.getJitterBuffer().getUnderruns();
+                    // A guest leaving takes its count with it
+                    if (u > underruns) jitterUnderruns.add(u - underruns);
+                    underruns = u;
+                }
+                sink.write(play, 0, n);
+                if (!heard) {
+                    // The first frame the peer sent, rather than silence or concealment, is out
+                    for (Participant p : ps) heard |= p.getJitterBuffer().getPlayed() > 0;
+                    if (heard) timeline.mark(CallTimeline.FIRST_AUDIO_PLAYED);
+                }
+
+                // What's still queued in the sink is the speaker-side delay
+                pipelineDelay.setPlayoutDeviceMs((int) ((long) sink.getPendingSamples() * 1000 / sinkRate));
+                pipelineDelay.setJitterBufferMs(depth * ms);
+                errors = 0;
+            } catch (Exception e) {
+                if (!running || !audioError(e, ++errors, errorCount)) break;
+            }
+        }
+    }
+
+    // An audio loop lost a frame to an error: counts it and sits out a frame, so a device
+    // that fails at once every time can't spin the thread. False when the loop should give up
+    private boolean audioError(Exception e, int errors, LongAdder errorCount) {
+        if (errorCount != null) errorCount.increment();
+        if (errors >= MAX_AUDIO_ERRORS) {
+            listener.onAudioFailed(e);
+            return false;
+        }
+        try {
+            Thread.sleep(frameMs);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package com.voicecall;
+
+/**
+ * What the screen and the notification show about a call at one moment,
+ * fixed when it is sampled. Figures are held at the precision they are
+ * shown with, so two states are equal exactly when they would look the
+ * same, and anything rendering them can skip the ones that change nothing.
+ */
+public final class CallState {
+
+    public final long durationSec;
+    /** The worst participant's rating, or "Waiting for guests" before anyone is heard. */
+    public final String quality;
+    public final int guests;
+    /** Whether there are figures below, from someone heard. */
+    public final boolean hasStats;
+    public final int lossTenths;
+    public final int jitterMs;
+    /** -1 until measured. */
+    public final int rttMs;
+    public final int sampleRateKhz;
+    public final int delayMs;
+    public final boolean muted;
+    public final boolean speakerOn;
+    public final boolean recording;
+    public final long recordingDroppedFrames;
+
+    private CallState(long durationSec, String quality, int guests, boolean hasStats, int lossTenths,
+                      int jitterMs, int rttMs, int sampleRateKhz, int delayMs, boolean muted,
+                      boolean speakerOn, boolean recording, long recordingDroppedFrames) {
+        this.durationSec = durationSec;
+        this.quality = quality;
+        this.guests = guests;
+        this.hasStats = hasStats;
+        this.lossTenths = lossTenths;
+        this.jitterMs = jitterMs;
+        this.rttMs = rttMs;
+        this.sampleRateKhz = sampleRateKhz;
+        this.delayMs = delayMs;
+        this.muted = muted;
+        this.speakerOn = speakerOn;
+        this.recording = recording;
+        this.recordingDroppedFrames = recordingDroppedFrames;
+    }
+
+    /**
+     * Samples {@code session}, connected at {@code connectedAtMs}. The
+     * speaker isn't the session's to know; {@code recorder} may be null.
+     */
+    public static CallState sample(CallSession session, long connectedAtMs, boolean speakerOn,
+                                   CallRecorder recorder, long nowMs) {
+        CallStats.Snapshot s = session.worstSnapshot();
+        return new CallState(Math.max(0, nowMs - connectedAtMs) / 1000,
+                s != null ? s.quality(nowMs) : "Waiting for guests",
+                session.getParticipants().length, s != null,
+                s != null ? (int) Math.round(s.intervalLossPercent * 10) : 0,
+                s != null ? (int) Math.round(s.jitterMs) : 0,
+                s != null ? s.rttMs : -1,
+                session.getSampleRate() / 1000, session.getPipelineDelay().getTotalMs(),
+                session.isMuted(), speakerOn, recorder != null,
+                recorder != null ? recorder.getDroppedFrames() : 0);
+    }
+
+    /** Equal in everything but the duration, which changes every second. */
+    public boolean sameApartFromDuration(CallState o) {
+        return o != null && quality.equals(o.quality) && guests == o.guests && hasStats == o.hasStats
+                && lossTenths == o.lossTenths && jitterMs == o.jitterMs && rttMs == o.rttMs
+                && sampleRateKhz == o.sampleRateKhz && delayMs == o.delayMs && muted == o.muted
+                && speakerOn == o.speakerOn && recording == o.recording
+                && recordingDroppedFrames == o.recordingDroppedFrames;
+    }
+
+    /** The duration as mm:ss, or h:mm:ss past the hour, without going through a formatter. */
+    public String formatDuration() {
+        long h = durationSec / 3600, m = durationSec / 60 % 60, sec = durationSec % 60;
+        StringBuilder sb = new StringBuilder(8);
+        if (h > 0) sb.append(h).append(':');
+        return sb.append((char) ('0' + m / 10)).append((char) ('0' + m % 10)).append(':')
+                .append((char) ('0' + sec / 10)).append((char) ('0' + sec % 10)).toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CallState && durationSec == ((CallState) o).durationSec
+                && sameApartFromDuration((CallState) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(durationSec) * 31 + quality.hashCode() * 17 + lossTenths * 7 + jitterMs + delayMs;
+    }
+}
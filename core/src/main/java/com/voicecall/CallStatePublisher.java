@@ -0,0 +1,77 @@
+package com.voicecall;
+
+/**
+ * Samples a call's {@link CallState} on the net loop at a fixed period and
+ * hands the listener only the states that differ from the last one it
+ * got, so whatever renders them does no work while nothing it shows has
+ * changed. {@link #refresh} samples sooner after a change the user made,
+ * but never more than once per {@link #MIN_GAP_MS}.
+ */
+public final class CallStatePublisher {
+
+    public interface Sampler {
+        /** On the net loop. */
+        CallState sample(long nowMs);
+    }
+
+    public interface Listener {
+        /** On the net loop, with a state unlike the one before. */
+        void onCallState(CallState state);
+    }
+
+    // Under a second so the duration never skips one, however the timer drifts
+    public static final int PERIOD_MS = 500;
+    public static final int MIN_GAP_MS = 100;
+
+    private final NetLoop loop;
+    private final Sampler sampler;
+    private final Listener listener;
+    private volatile CallState latest;
+    private volatile boolean stopped;
+    private NetLoop.Timer timer;
+    // Net loop only
+    private long lastSampleMs;
+    private boolean refreshPending;
+
+    public CallStatePublisher(NetLoop loop, Sampler sampler, Listener listener) {
+        this.loop = loop;
+        this.sampler = sampler;
+        this.listener = listener;
+    }
+
+    public void start() {
+        timer = loop.schedule(0, PERIOD_MS, this::publish);
+    }
+
+    public void stop() {
+        stopped = true;
+        NetLoop.Timer t = timer;
+        if (t != null) t.cancel();
+    }
+
+    /** The last state published, or null before the first. */
+    public CallState getLatest() { return latest; }
+
+    /** Samples again soon, for something that shouldn't wait for the next period. */
+    public void refresh() {
+        loop.post(() -> {
+            if (refreshPending) return;
+            refreshPending = true;
+            long wait = Math.max(0, lastSampleMs + MIN_GAP_MS - System.currentTimeMillis());
+            loop.schedule(wait, 0, () -> {
+                refreshPending = false;
+                publish();
+            });
+        });
+    }
+
+    private void publish() {
+        if (stopped) return;
+        long now = System.currentTimeMillis();
+        lastSampleMs = now;
+        CallState state = sampler.sample(now);
+        if (state.equals(latest)) return;
+        latest = state;
+        listener.onCallState(state);
+    }
+}
@@ -0,0 +1,213 @@
+package com.voicecall;
+
+/**
+ * Receive-side call quality: RFC 3550 interarrival jitter, cumulative and
+ * interval loss, reordered and duplicate packets, round-trip time from
+ * echoed pings, the receive rate and queueing delay that feed the
+ * sender's {@link RateController}, and the sender's {@link ClockDrift}.
+ * All updates come from the network loop thread; readers on any thread
+ * get the last published {@link Snapshot} through a volatile reference,
+ * without locking.
+ */
+public final class CallStats {
+
+    public static final class Snapshot {
+        public final long packetsReceived;
+        public final long packetsLost;
+        public final double lossPercent;
+        public final double intervalLossPercent;
+        public final double jitterMs;
+        public final int rttMs;
+        public final long reordered;
+        public final long duplicates;
+        public final long lastPacketMs;
+        public final int receiveKbps;
+        public final int queueDelayMs;
+        public final double driftPpm;
+
+        Snapshot(long packetsReceived, long packetsLost, double lossPercent, double intervalLossPercent,
+                 double jitterMs, int rttMs, long reordered, long duplicates, long lastPacketMs,
+                 int receiveKbps, int queueDelayMs, double driftPpm) {
+            this.packetsReceived = packetsReceived;
+            this.packetsLost = packetsLost;
+            this.lossPercent = lossPercent;
+            this.intervalLossPercent = intervalLossPercent;
+            this.jitterMs = jitterMs;
+            this.rttMs = rttMs;
+            this.reordered = reordered;
+            this.duplicates = duplicates;
+            this.lastPacketMs = lastPacketMs;
+            this.receiveKbps = receiveKbps;
+            this.queueDelayMs = queueDelayMs;
+            this.driftPpm = driftPpm;
+        }
+
+        /**
+         * Simplified E-model rating: one-way delay from RTT and jitter, minus
+         * an impairment for loss. Nothing heard for 5 s means no signal.
+         */
+        public String quality(long nowMs) {
+            if (lastPacketMs == 0 || nowMs - lastPacketMs > 5000) return "No Signal";
+            double delay = (rttMs > 0 ? rttMs / 2.0 : 0) + jitterMs * 2 + 10;
+            double r = 93.2 - (delay < 160 ? delay / 40 : (delay - 120) / 10);
+            r -= intervalLossPercent * 2.5;
+            if (nowMs - lastPacketMs > 2000) r -= 20;
+            return r >= 80 ? "Excellent" : r >= 60 ? "Good" : "Poor";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.US,
+                    "rx=%d lost=%d (%.1f%%, interval %.1f%%) jitter=%.1fms rtt=%dms reorder=%d dup=%d"
+                            + " rate=%dkbps queue=%dms drift=%+.0fppm",
+                    packetsReceived, packetsLost, lossPercent, intervalLossPercent, jitterMs, rttMs,
+                    reordered, duplicates, receiveKbps, queueDelayMs, driftPpm);
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, 0, -1, 0, 0, 0, 0, 0, 0);
+    // Queueing delay is measured against the lowest transit of this many intervals
+    private static final int BASELINE_INTERVALS = 10;
+
+    private final int sampleRate;
+    private final ClockDrift drift;
+    private volatile Snapshot snapshot = EMPTY;
+    private volatile long lastPacketMs;
+
+    private boolean started;
+    private int baseSeq;
+    private int maxSeq;
+    private long seenWindow;
+    private long received;
+    private long reordered;
+    private long duplicates;
+    private long expectedPrior;
+    private long receivedPrior;
+    private double intervalLossPercent;
+
+    private boolean haveTransit;
+    private long lastTransit;
+    private double jitter;
+    private int rttMs = -1;
+
+    private long intervalStartMs;
+    private long intervalBytes;
+    private long intervalMinTransitMs = Long.MAX_VALUE;
+    private final long[] minTransits = new long[BASELINE_INTERVALS];
+    private int minTransitCount;
+    private int receiveKbps;
+    private int queueDelayMs;
+
+    public CallStats(int sampleRate) {
+        this.sampleRate = sampleRate;
+        drift = new ClockDrift(sampleRate);
+    }
+
+    /**
+     * Any valid packet from the peer, media or not, proves the link is alive.
+     * Its size counts toward the receive rate, headers included.
+     */
+    public void onPacket(long nowMs, int bytes) {
+        lastPacketMs = nowMs;
+        if (bytes <= 0) return;
+        if (intervalStartMs == 0) intervalStartMs = nowMs;
+        intervalBytes += bytes + PacketHeader.UDP_OVERHEAD;
+    }
+
+    public void onMedia(int seq, int timestamp, long arrivalMs) {
+        if (!started) {
+            started = true;
+            baseSeq = seq;
+            maxSeq = seq;
+            seenWindow = 1;
+        } else {
+            int delta = seq - maxSeq;
+            if (delta > 0) {
+                seenWindow = delta >= 64 ? 1 : seenWindow << delta | 1;
+                maxSeq = seq;
+            } else {
+                int back = -delta;
+                if (back < 64 && (seenWindow & 1L << back) != 0) { duplicates++; return; }
+                if (back < 64) seenWindow |= 1L << back;
+                reordered++;
+            }
+        }
+        received++;
+
+        // RFC 3550 section 6.4.1, in timestamp units
+        long transit = arrivalMs * sampleRate / 1000 - (timestamp & 0xFFFFFFFFL);
+        if (haveTransit) {
+            long d = Math.abs(transit - lastTransit);
+            jitter += (d - jitter) / 16.0;
+        }
+        lastTransit = transit;
+        haveTransit = true;
+
+        // The fastest frame of an interval shows the standing queue, free of jitter
+        long transitMs = arrivalMs - (timestamp & 0xFFFFFFFFL) * 1000 / sampleRate;
+        if (transitMs < intervalMinTransitMs) intervalMinTransitMs = transitMs;
+        drift.onMedia(timestamp, arrivalMs);
+    }
+
+    /** Round trip measured from a ping we sent at {@code sentMs} and the peer echoed. */
+    public void onPong(int sentMs, long nowMs) {
+        int rtt = (int) nowMs - sentMs;
+        if (rtt >= 0 && rtt < 60000) rttMs = rttMs < 0 ? rtt : (rttMs * 7 + rtt) / 8;
+    }
+
+    public long expected() { return started ? (long) (maxSeq - baseSeq) + 1 : 0; }
+
+    /**
+     * Closes the current interval and publishes a snapshot. Returns the
+     * interval's loss as a fraction out of 256, as carried in receiver
+     * reports; the receive rate and queueing delay are updated alongside.
+     */
+    public int closeInterval(long nowMs) {
+        long elapsed = nowMs - intervalStartMs;
+        if (intervalStartMs != 0 && elapsed > 0) receiveKbps = (int) (intervalBytes * 8 / elapsed);
+        intervalStartMs = nowMs;
+        intervalBytes = 0;
+        if (intervalMinTransitMs != Long.MAX_VALUE) {
+            // Sender and receiver clocks differ by an unknown offset, so delay is only
+            // known relative to the quickest transit seen recently
+            minTransits[minTransitCount++ % BASELINE_INTERVALS] = intervalMinTransitMs;
+            long base = Long.MAX_VALUE;
+            for (int i = 0; i < Math.min(minTransitCount, BASELINE_INTERVALS); i++) base = Math.min(base, minTransits[i]);
+            queueDelayMs = (int) Math.min(65535, intervalMinTransitMs - base);
+            intervalMinTransitMs = Long.MAX_VALUE;
+        }
+        long expected = expected();
+        long expectedInterval = expected - expectedPrior;
+        long receivedInterval = received - receivedPrior;
+        expectedPrior = expected;
+        receivedPrior = received;
+        long lostInterval = expectedInterval - receivedInterval;
+        int fraction = expectedInterval > 0 && lostInterval > 0
+                ? (int) Math.min(255, lostInterval * 256 / expectedInterval) : 0;
+        intervalLossPercent = fraction * 100.0 / 256;
+        publish();
+        return fraction;
+    }
+
+    public boolean hasMediaSinceLastInterval() { return received != receivedPrior; }
+
+    public void publish() {
+        long expected = expected();
+        long lost = Math.max(0, expected - received);
+        snapshot = new Snapshot(received, lost, expected > 0 ? lost * 100.0 / expected : 0,
+                intervalLossPercent, jitter * 1000 / sampleRate, rttMs, reordered, duplicates, lastPacketMs,
+                receiveKbps, queueDelayMs, drift.getPpm());
+    }
+
+    public Snapshot snapshot() { return snapshot; }
+
+    public double getJitterMs() { return jitter * 1000 / sampleRate; }
+    public int getReceiveKbps() { return receiveKbps; }
+    public int getQueueDelayMs() { return queueDelayMs; }
+    /** Smoothed round trip from pongs, -1 before the first. Net loop only. */
+    public int getRttMs() { return rttMs; }
+    /** Safe from any thread, for the playout side's time-stretching. */
+    public double getDriftPpm() { return drift.getPpm(); }
+
+    public long getLastPacketMs() { return lastPacketMs; }
+}
@@ -0,0 +1,56 @@
+package com.voicecall;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each step of bringing a call up happened, from the moment it was
+ * started: the audio devices and the socket made ready, the peer known, the
+ * handshake done, and the first frame sent and played. Time to first audio
+ * is from the peer being known to its first frame playing, which is all the
+ * dead air a caller hears once the other end has answered. Each stage is
+ * marked once, by whichever thread reaches it first; later marks are
+ * ignored. Safe from any thread.
+ */
+public final class CallTimeline {
+
+    public static final int DEVICES_READY = 0;
+    public static final int SOCKET_READY = 1;
+    public static final int PEER_FOUND = 2;
+    public static final int CONNECTED = 3;
+    public static final int FIRST_AUDIO_SENT = 4;
+    public static final int FIRST_AUDIO_PLAYED = 5;
+    private static final String[] NAMES = {"devices", "socket", "peer", "connected", "first sent", "first played"};
+
+    private final long startNanos = System.nanoTime();
+    // Nanoseconds after the start, plus one so that 0 means not yet
+    private final AtomicLongArray marks = new AtomicLongArray(NAMES.length);
+
+    public void mark(int stage) {
+        marks.compareAndSet(stage, 0, System.nanoTime() - startNanos + 1);
+    }
+
+    /** Milliseconds from the start to {@code stage}, or -1 if it hasn't happened. */
+    public long getMs(int stage) {
+        long t = marks.get(stage);
+        return t == 0 ? -1 : (t - 1) / 1_000_000;
+    }
+
+    /** From the peer being known to its first frame playing, or -1 until then. */
+    public long getTimeToFirstAudioMs() {
+        long peer = getMs(PEER_FOUND);
+        long played = getMs(FIRST_AUDIO_PLAYED);
+        return peer < 0 || played < 0 ? -1 : played - peer;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NAMES.length; i++) {
+            long ms = getMs(i);
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(NAMES[i]).append(' ').append(ms < 0 ? "-" : ms + "ms");
+        }
+        long ttfa = getTimeToFirstAudioMs();
+        return sb.append(" | first audio ").append(ttfa < 0 ? "-" : ttfa + "ms").append(" after the peer").toString();
+    }
+}
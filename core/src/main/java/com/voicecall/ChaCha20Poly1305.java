@@ -0,0 +1,235 @@
+package com.voicecall;
+
+/**
+ * ChaCha20-Poly1305 AEAD as specified in RFC 8439, written out so a packet
+ * costs no allocation and no cipher re-initialisation: the platform's AEAD
+ * ciphers need a fresh parameter object and init for every nonce, and
+ * Android only ships this construction from API 28. One instance holds one
+ * key and its scratch state, so it must stay on one thread.
+ */
+final class ChaCha20Poly1305 {
+
+    static final int KEY_SIZE = 32;
+    static final int TAG_SIZE = 16;
+
+    private static final int MASK26 = 0x3ffffff;
+
+    private final int k0, k1, k2, k3, k4, k5, k6, k7;
+    private final byte[] keystream = new byte[64];
+    private final byte[] lengths = new byte[16];
+    private final byte[] tag = new byte[TAG_SIZE];
+
+    // Poly1305 state for the message in progress, in 26-bit limbs
+    private long r0, r1, r2, r3, r4;
+    private long s1, s2, s3, s4;
+    private long h0, h1, h2, h3, h4;
+    private long pad0, pad1, pad2, pad3;
+
+    ChaCha20Poly1305(byte[] key, int off) {
+        k0 = le32(key, off);
+        k1 = le32(key, off + 4);
+        k2 = le32(key, off + 8);
+        k3 = le32(key, off + 12);
+        k4 = le32(key, off + 16);
+        k5 = le32(key, off + 20);
+        k6 = le32(key, off + 24);
+        k7 = le32(key, off + 28);
+    }
+
+    /**
+     * Encrypts {@code len} bytes of {@code in} into {@code out} and writes
+     * the tag right after the ciphertext. The nonce is the three words
+     * {@code n0..n2}; {@code in} and {@code out} may be the same range.
+     */
+    void seal(int n0, int n1, int n2, byte[] aad, int aadOff, int aadLen,
+              byte[] in, int inOff, int len, byte[] out, int outOff) {
+        startMac(n0, n1, n2);
+        xor(n0, n1, n2, in, inOff, len, out, outOff);
+        finishMac(aad, aadOff, aadLen, out, outOff, len);
+        System.arraycopy(tag, 0, out, outOff + len, TAG_SIZE);
+    }
+
+    /**
+     * Checks the tag following {@code len} bytes of ciphertext and, only if
+     * it matches, decrypts them into {@code out}. Returns whether it matched.
+     */
+    boolean open(int n0, int n1, int n2, byte[] aad, int aadOff, int aadLen,
+                 byte[] in, int inOff, int len, byte[] out, int outOff) {
+        startMac(n0, n1, n2);
+        finishMac(aad, aadOff, aadLen, in, inOff, len);
+        int diff = 0;
+        for (int i = 0; i < TAG_SIZE; i++) diff |= tag[i] ^ in[inOff + len + i];
+        if (diff != 0) return false;
+        xor(n0, n1, n2, in, inOff, len, out, outOff);
+        return true;
+    }
+
+    // ChaCha20 from block 1 on; block 0 keys the MAC
+    private void xor(int n0, int n1, int n2, byte[] in, int inOff, int len, byte[] out, int outOff) {
+        for (int done = 0, counter = 1; done < len; done += 64, counter++) {
+            block(counter, n0, n1, n2);
+            int n = Math.min(64, len - done);
+            for (int i = 0; i < n; i++) out[outOff + done + i] = (byte) (in[inOff + done + i] ^ keystream[i]);
+        }
+    }
+
+    private void startMac(int n0, int n1, int n2) {
+        block(0, n0, n1, n2);
+        long t0 = le32(keystream, 0) & 0xFFFFFFFFL;
+        long t1 = le32(keystream, 4) & 0xFFFFFFFFL;
+        long t2 = le32(keystream, 8) & 0xFFFFFFFFL;
+        long t3 = le32(keystream, 12) & 0xFFFFFFFFL;
+        // Clamped r split into limbs
+        r0 = t0 & 0x3ffffff;
+        r1 = (t0 >>> 26 | t1 << 6) & 0x3ffff03;
+        r2 = (t1 >>> 20 | t2 << 12) & 0x3ffc0ff;
+        r3 = (t2 >>> 14 | t3 << 18) & 0x3f03fff;
+        r4 = t3 >>> 8 & 0x00fffff;
+        s1 = r1 * 5;
+        s2 = r2 * 5;
+        s3 = r3 * 5;
+        s4 = r4 * 5;
+        pad0 = le32(keystream, 16) & 0xFFFFFFFFL;
+        pad1 = le32(keystream, 20) & 0xFFFFFFFFL;
+        pad2 = le32(keystream, 24) & 0xFFFFFFFFL;
+        pad3 = le32(keystream, 28) & 0xFFFFFFFFL;
+        h0 = h1 = h2 = h3 = h4 = 0;
+    }
+
+    // MAC input: aad and ciphertext, each zero-padded to 16 bytes, then both lengths
+    private void finishMac(byte[] aad, int aadOff, int aadLen, byte[] ct, int ctOff, int ctLen) {
+        macPadded(aad, aadOff, aadLen);
+        macPadded(ct, ctOff, ctLen);
+        putLe64(lengths, 0, aadLen);
+        putLe64(lengths, 8, ctLen);
+        macBlock(lengths, 0);
+
+        long c = h1 >>> 26; h1 &= MASK26;
+        h2 += c; c = h2 >>> 26; h2 &= MASK26;
+        h3 += c; c = h3 >>> 26; h3 &= MASK26;
+        h4 += c; c = h4 >>> 26; h4 &= MASK26;
+        h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+        h1 += c;
+
+        // h - p, kept only if it didn't go negative
+        long g0 = h0 + 5; c = g0 >>> 26; g0 &= MASK26;
+        long g1 = h1 + c; c = g1 >>> 26; g1 &= MASK26;
+        long g2 = h2 + c; c = g2 >>> 26; g2 &= MASK26;
+        long g3 = h3 + c; c = g3 >>> 26; g3 &= MASK26;
+        long g4 = h4 + c - (1L << 26);
+        long keepH = g4 >> 63;
+        h0 = h0 & keepH | g0 & ~keepH;
+        h1 = h1 & keepH | g1 & ~keepH;
+        h2 = h2 & keepH | g2 & ~keepH;
+        h3 = h3 & keepH | g3 & ~keepH;
+        h4 = h4 & keepH | g4 & ~keepH;
+
+        long w0 = (h0 | h1 << 26) & 0xFFFFFFFFL;
+        long w1 = (h1 >>> 6 | h2 << 20) & 0xFFFFFFFFL;
+        long w2 = (h2 >>> 12 | h3 << 14) & 0xFFFFFFFFL;
+        long w3 = (h3 >>> 18 | h4 << 8) & 0xFFFFFFFFL;
+        long f = w0 + pad0;
+        putLe32(tag, 0, (int) f);
+        f = w1 + pad1 + (f >>> 32);
+        putLe32(tag, 4, (int) f);
+        f = w2 + pad2 + (f >>> 32);
+        putLe32(tag, 8, (int) f);
+        f = w3 + pad3 + (f >>> 32);
+        putLe32(tag, 12, (int) f);
+    }
+
+    private void macPadded(byte[] m, int off, int len) {
+        int full = len & ~15;
+        for (int i = 0; i < full; i += 16) macBlock(m, off + i);
+        if (full < len) {
+            // The keystream block is free again here and makes a zeroed 16-byte buffer
+            for (int i = 0; i < 16; i++) keystream[i] = i < len - full ? m[off + full + i] : 0;
+            macBlock(keystream, 0);
+        }
+    }
+
+    private void macBlock(byte[] m, int off) {
+        long t0 = le32(m, off) & 0xFFFFFFFFL;
+        long t1 = le32(m, off + 4) & 0xFFFFFFFFL;
+        long t2 = le32(m, off + 8) & 0xFFFFFFFFL;
+        long t3 = le32(m, off + 12) & 0xFFFFFFFFL;
+        h0 += t0 & MASK26;
+        h1 += (t0 >>> 26 | t1 << 6) & MASK26;
+        h2 += (t1 >>> 20 | t2 << 12) & MASK26;
+        h3 += (t2 >>> 14 | t3 << 18) & MASK26;
+        h4 += t3 >>> 8 | 1L << 24;
+
+        long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+        long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+        long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+        long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+        long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+        long c = d0 >>> 26; h0 = d0 & MASK26;
+        d1 += c; c = d1 >>> 26; h1 = d1 & MASK26;
+        d2 += c; c = d2 >>> 26; h2 = d2 & MASK26;
+        d3 += c; c = d3 >>> 26; h3 = d3 & MASK26;
+        d4 += c; c = d4 >>> 26; h4 = d4 & MASK26;
+        h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+        h1 += c;
+    }
+
+    // One 64-byte ChaCha20 keystream block into keystream
+    private void block(int counter, int n0, int n1, int n2) {
+        int x0 = 0x61707865, x1 = 0x3320646e, x2 = 0x79622d32, x3 = 0x6b206574;
+        int x4 = k0, x5 = k1, x6 = k2, x7 = k3, x8 = k4, x9 = k5, x10 = k6, x11 = k7;
+        int x12 = counter, x13 = n0, x14 = n1, x15 = n2;
+        for (int i = 0; i < 10; i++) {
+            // Column round
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8); x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8); x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8); x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8); x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+            // Diagonal round
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8); x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8); x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8); x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8); x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+        }
+        putLe32(keystream, 0, x0 + 0x61707865);
+        putLe32(keystream, 4, x1 + 0x3320646e);
+        putLe32(keystream, 8, x2 + 0x79622d32);
+        putLe32(keystream, 12, x3 + 0x6b206574);
+        putLe32(keystream, 16, x4 + k0);
+        putLe32(keystream, 20, x5 + k1);
+        putLe32(keystream, 24, x6 + k2);
+        putLe32(keystream, 28, x7 + k3);
+        putLe32(keystream, 32, x8 + k4);
+        putLe32(keystream, 36, x9 + k5);
+        putLe32(keystream, 40, x10 + k6);
+        putLe32(keystream, 44, x11 + k7);
+        putLe32(keystream, 48, x12 + counter);
+        putLe32(keystream, 52, x13 + n0);
+        putLe32(keystream, 56, x14 + n1);
+        putLe32(keystream, 60, x15 + n2);
+    }
+
+    static int le32(byte[] b, int off) {
+        return b[off] & 0xFF | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | b[off + 3] << 24;
+    }
+
+    private static void putLe32(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    private static void putLe64(byte[] b, int off, long v) {
+        putLe32(b, off, (int) v);
+        putLe32(b, off + 4, (int) (v >>> 32));
+    }
+}
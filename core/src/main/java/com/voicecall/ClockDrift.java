@@ -0,0 +1,83 @@
+package com.voicecall;
+
+/**
+ * How fast the sender's audio clock runs against ours, in parts per
+ * million. Media timestamps count the sender's samples; our arrival times
+ * count our milliseconds. The quickest transit of each few seconds is the
+ * lower envelope of the two, free of jitter and queueing, and its slope
+ * over the last couple of minutes is the drift. A jump in the envelope is a
+ * route change or a restarted stream rather than drift, and starts over.
+ * Fed on the net loop; {@link #getPpm} may be read from any thread.
+ */
+public final class ClockDrift {
+
+    private static final int WINDOW_MS = 5000;
+    private static final int WINDOWS = 24;
+    // Fewer windows than this span too little time to tell drift from noise
+    private static final int MIN_WINDOWS = 4;
+    private static final long STEP_US = 80_000;
+
+    private final int sampleRate;
+    private final long[] windowEndMs = new long[WINDOWS];
+    private final long[] windowMinUs = new long[WINDOWS];
+    private int windows;
+    private boolean started;
+    private int lastTimestamp;
+    private long timestamp;
+    private long windowStartMs;
+    private long minTransitUs = Long.MAX_VALUE;
+    private volatile double ppm;
+
+    public ClockDrift(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void onMedia(int rtpTimestamp, long arrivalMs) {
+        if (!started) {
+            started = true;
+            lastTimestamp = rtpTimestamp;
+            windowStartMs = arrivalMs;
+        }
+        // Unwrapped; reordered packets just step back
+        timestamp += rtpTimestamp - lastTimestamp;
+        lastTimestamp = rtpTimestamp;
+        long transitUs = arrivalMs * 1000 - timestamp * 1_000_000 / sampleRate;
+        if (transitUs < minTransitUs) minTransitUs = transitUs;
+        if (arrivalMs - windowStartMs >= WINDOW_MS) closeWindow(arrivalMs);
+    }
+
+    /** Positive when the sender's clock is fast and its audio piles up here. */
+    public double getPpm() { return ppm; }
+
+    private void closeWindow(long nowMs) {
+        if (windows > 0 && Math.abs(minTransitUs - windowMinUs[(windows - 1) % WINDOWS]) > STEP_US) {
+            windows = 0;
+            ppm = 0;
+        }
+        windowEndMs[windows % WINDOWS] = nowMs;
+        windowMinUs[windows % WINDOWS] = minTransitUs;
+        windows++;
+        windowStartMs = nowMs;
+        minTransitUs = Long.MAX_VALUE;
+        int n = Math.min(windows, WINDOWS);
+        if (n < MIN_WINDOWS) return;
+
+        // Least-squares slope of the envelope, relative to the oldest window to keep sums small
+        int oldest = windows - n;
+        long x0 = windowEndMs[oldest % WINDOWS];
+        long y0 = windowMinUs[oldest % WINDOWS];
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = oldest; i < windows; i++) {
+            double x = windowEndMs[i % WINDOWS] - x0;
+            double y = windowMinUs[i % WINDOWS] - y0;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double d = n * sxx - sx * sx;
+        if (d <= 0) return;
+        // Transit growing by 1 us per ms is a sender 1000 ppm slow
+        ppm = -(n * sxy - sx * sy) / d * 1000;
+    }
+}
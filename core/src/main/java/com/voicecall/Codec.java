@@ -0,0 +1,23 @@
+package com.voicecall;
+
+/**
+ * Speech codec sitting between capture and the socket, and between the
+ * jitter buffer and playout. Implementations keep all tables static and
+ * work on caller-supplied arrays, so a frame never allocates.
+ */
+public interface Codec {
+
+    /** Id carried in the packet header's codec field. */
+    int id();
+
+    String name();
+
+    /** Upper bound on the encoded size of {@code samples} samples. */
+    int maxEncodedSize(int samples);
+
+    /** Encodes {@code samples} samples; returns the number of bytes written. */
+    int encode(short[] pcm, int off, int samples, byte[] out, int outOff);
+
+    /** Decodes {@code len} bytes; returns the number of samples written. */
+    int decode(byte[] in, int off, int len, short[] pcm, int pcmOff);
+}
@@ -0,0 +1,40 @@
+package com.voicecall;
+
+/** Codec ids, the supported set advertised in HELLO, and negotiation. */
+public final class Codecs {
+
+    public static final int PCM = 0;
+    public static final int PCMU = 1;
+    public static final int ADPCM = 2;
+    public static final int COUNT = 3;
+
+    public static final int SUPPORTED_MASK = 1 << PCM | 1 << PCMU | 1 << ADPCM;
+
+    // Best first: µ-law keeps toll quality at half the bitrate, ADPCM halves it again
+    private static final int[] PREFERENCE = {PCMU, ADPCM, PCM};
+
+    private Codecs() {}
+
+    public static Codec create(int id) {
+        switch (id) {
+            case PCM: return new PcmCodec();
+            case PCMU: return new MuLawCodec();
+            case ADPCM: return new AdpcmCodec();
+            default: return null;
+        }
+    }
+
+    /** One fresh instance per id, indexed by id. */
+    public static Codec[] createAll() {
+        Codec[] codecs = new Codec[COUNT];
+        for (int i = 0; i < COUNT; i++) codecs[i] = create(i);
+        return codecs;
+    }
+
+    /** Picks the preferred codec both sides support; PCM is always available. */
+    public static int choose(int peerMask) {
+        int common = peerMask & SUPPORTED_MASK;
+        for (int id : PREFERENCE) if ((common & 1 << id) != 0) return id;
+        return PCM;
+    }
+}
@@ -0,0 +1,34 @@
+package com.voicecall;
+
+/**
+ * Fills the receiver's silence with low-level noise at the level the sender
+ * reported in its last silence descriptor, so DTX doesn't sound like the
+ * line went dead.
+ */
+public final class ComfortNoiseGenerator {
+
+    private volatile int targetLevel;
+    private double level;
+    private int seed = 0x2545F491;
+    private int last;
+
+    /** Sets the noise RMS amplitude from a silence descriptor; 0 gives silence. */
+    public void setLevel(int rms) { targetLevel = Math.max(0, Math.min(32767, rms)); }
+
+    public int getLevel() { return targetLevel; }
+
+    public void generate(short[] pcm, int off, int samples) {
+        double target = targetLevel;
+        for (int i = 0; i < samples; i++) {
+            level += (target - level) * 0.002;
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            // Uniform noise through a one-pole low-pass to take off the hiss; the gain
+            // makes up for the uniform distribution (sqrt 3) and the filter's loss (~0.38)
+            int white = (int) ((seed >> 16) * level * 4.58 / 32768);
+            last = (last * 3 + white) >> 2;
+            pcm[off + i] = (short) Math.max(-32768, Math.min(32767, last));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.voicecall;
+
+/**
+ * Single-producer, single-consumer queue of PCM frames for handing audio
+ * between the capture and playout clocks. Frames are copied into slots
+ * allocated up front; neither side ever blocks or allocates, and a full
+ * queue drops the new frame rather than waiting.
+ */
+public final class FrameQueue {
+
+    private final short[][] frames;
+    private final int[] lengths;
+    private final int mask;
+    // head is only written by the consumer, tail only by the producer
+    private volatile long head;
+    private volatile long tail;
+    // Only the producer writes it; volatile so a monitor can read it
+    private volatile long dropped;
+
+    public FrameQueue(int capacity, int maxSamples) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+        frames = new short[capacity][maxSamples];
+        lengths = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /** Producer side; returns false and counts a drop when the queue is full or the frame too large. */
+    public boolean offer(short[] pcm, int off, int samples) {
+        long t = tail;
+        if (t - head > mask || samples > frames[0].length) { dropped++; return false; }
+        int idx = (int) t & mask;
+        System.arraycopy(pcm, off, frames[idx], 0, samples);
+        lengths[idx] = samples;
+        tail = t + 1;
+        return true;
+    }
+
+    /** Consumer side; copies the oldest frame into {@code out} and returns its length, or 0 if empty. */
+    public int poll(short[] out, int off) {
+        long h = head;
+        if (h == tail) return 0;
+        int idx = (int) h & mask;
+        int len = lengths[idx];
+        System.arraycopy(frames[idx], 0, out, off, len);
+        head = h + 1;
+        return len;
+    }
+
+    public int size() { return (int) (tail - head); }
+
+    /** Frames the producer had to drop. */
+    public long getDropped() { return dropped; }
+}
@@ -0,0 +1,115 @@
+package com.voicecall;
+
+/**
+ * Forward error correction by piggybacking low-bitrate (IMA-ADPCM) copies
+ * of the previous one or two frames on each media packet. When the header's
+ * {@link PacketHeader#FLAG_REDUNDANT} bit is set the payload starts with
+ *
+ * <pre>
+ *  count
+ *  count x { distance, codec, length (2 bytes), data }
+ *  primary frame
+ * </pre>
+ *
+ * The level follows the loss the peer reports: off on a clean link, one
+ * copy under light loss, two under heavy or bursty loss.
+ */
+public final class FrameRedundancy {
+
+    public static final int MAX_LEVEL = 2;
+    static final int BLOCK_HEADER = 4;
+
+    // Loss fractions out of 256, as carried in receiver reports
+    private static final int LEVEL1_UP = 5;
+    private static final int LEVEL2_UP = 20;
+
+    private final Codec codec = new AdpcmCodec();
+    private final byte[][] history;
+    private final int[] historyLen = new int[MAX_LEVEL];
+    private final int[] historySeq = new int[MAX_LEVEL];
+    private int historyCount;
+    private volatile int level;
+    private double smoothedLoss;
+
+    public FrameRedundancy(int maxSamples) {
+        history = new byte[MAX_LEVEL][codec.maxEncodedSize(maxSamples)];
+    }
+
+    public int getLevel() { return level; }
+
+    /** Forces a level, e.g. from a rate controller; reports keep adapting it afterwards. */
+    public void setLevel(int level) { this.level = Math.max(0, Math.min(MAX_LEVEL, level)); }
+
+    /** Adapts the level to a loss fraction (out of 256) reported by the peer. */
+    public synchronized void onLossReport(int lossFraction) {
+        smoothedLoss += (lossFraction - smoothedLoss) * 0.3;
+        int current = level;
+        // Step up at the threshold, step down only at half of it
+        if (smoothedLoss > LEVEL2_UP) current = 2;
+        else if (smoothedLoss > LEVEL1_UP) current = Math.max(current, 1);
+        if (current == 2 && smoothedLoss < LEVEL2_UP / 2.0) current = 1;
+        if (current == 1 && smoothedLoss < LEVEL1_UP / 2.0) current = 0;
+        level = current;
+    }
+
+    /**
+     * Writes redundant copies of the frames before {@code seq} at {@code off};
+     * returns the bytes written, 0 when there is nothing to add.
+     */
+    public int writeBlocks(int seq, byte[] buf, int off) {
+        int n = Math.min(level, historyCount);
+        int count = 0;
+        int o = off + 1;
+        for (int i = 0; i < n; i++) {
+            int distance = seq - historySeq[i];
+            if (distance <= 0 || distance > MAX_LEVEL) continue;
+            int len = historyLen[i];
+            buf[o] = (byte) distance;
+            buf[o + 1] = (byte) codec.id();
+            buf[o + 2] = (byte) (len >> 8);
+            buf[o + 3] = (byte) len;
+            System.arraycopy(history[i], 0, buf, o + BLOCK_HEADER, len);
+            o += BLOCK_HEADER + len;
+            count++;
+        }
+        if (count == 0) return 0;
+        buf[off] = (byte) count;
+        return o - off;
+    }
+
+    /** Encodes the frame just sent so the next packets can carry it. */
+    public void remember(int seq, short[] pcm, int off, int samples) {
+        if (level == 0) { historyCount = 0; return; }
+        byte[] oldest = history[MAX_LEVEL - 1];
+        for (int i = MAX_LEVEL - 1; i > 0; i--) {
+            history[i] = history[i - 1];
+            historyLen[i] = historyLen[i - 1];
+            historySeq[i] = historySeq[i - 1];
+        }
+        history[0] = oldest;
+        historyLen[0] = codec.encode(pcm, off, samples, oldest, 0);
+        historySeq[0] = seq;
+        historyCount = Math.min(MAX_LEVEL, historyCount + 1);
+    }
+
+    /**
+     * Offers the redundant copies in a received payload to the jitter buffer
+     * and returns the offset of the primary frame, or -1 if malformed.
+     */
+    public static int recover(byte[] buf, int off, int end, int seq, JitterBuffer jitterBuffer) {
+        if (off >= end) return -1;
+        int count = buf[off] & 0xFF;
+        int o = off + 1;
+        for (int i = 0; i < count; i++) {
+            if (o + BLOCK_HEADER > end) return -1;
+            int distance = buf[o] & 0xFF;
+            int codecId = buf[o + 1] & 0xFF;
+            int len = (buf[o + 2] & 0xFF) << 8 | (buf[o + 3] & 0xFF);
+            o += BLOCK_HEADER;
+            if (o + len > end) return -1;
+            jitterBuffer.putRecovered(seq - distance, codecId, buf, o, len);
+            o += len;
+        }
+        return o;
+    }
+}
@@ -0,0 +1,220 @@
+package com.voicecall;
+
+/**
+ * Playout queue ordered by sequence number. The target depth follows the
+ * smoothed interarrival jitter, late and duplicate frames are dropped, and
+ * the queue is trimmed when it grows past the target so bursts don't turn
+ * into permanent latency.
+ */
+public final class JitterBuffer {
+
+    public static final int EMPTY = 0;
+    public static final int LOST = -1;
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final int[] seqs;
+    private final int[] tags;
+    private final boolean[] filled;
+    private final int mask;
+    private final int frameMs;
+    private final int minDepth;
+    private final int maxDepth;
+
+    private boolean started;
+    private boolean buffering = true;
+    private boolean silent;
+    private int nextSeq;
+    private int highestSeq;
+    private int count;
+    private int targetDepth;
+    private int lastTag;
+
+    private boolean haveTransit;
+    private long lastTransit;
+    private double jitterMs;
+
+    private long received, played, late, duplicates, overflows, underruns, lost, trimmed, recovered;
+
+    public JitterBuffer(int capacity, int maxFrameBytes, int frameMs, int minDepth, int maxDepth) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+        if (maxDepth >= capacity) throw new IllegalArgumentException("maxDepth must be below capacity");
+        slots = new byte[capacity][maxFrameBytes];
+        lengths = new int[capacity];
+        seqs = new int[capacity];
+        tags = new int[capacity];
+        filled = new boolean[capacity];
+        mask = capacity - 1;
+        this.frameMs = frameMs;
+        this.minDepth = Math.max(1, minDepth);
+        this.maxDepth = maxDepth;
+        targetDepth = this.minDepth;
+    }
+
+    /**
+     * Queues a frame; returns false if it was late, a duplicate or too large.
+     * The tag (the codec id) travels with the frame and is read back through
+     * {@link #lastTag()}.
+     */
+    public synchronized boolean put(int seq, int tag, byte[] data, int off, int len, long arrivalMs) {
+        if (len > slots[0].length) return false;
+        if (!started) {
+            started = true;
+            nextSeq = seq;
+            highestSeq = seq;
+        }
+        int ahead = seq - nextSeq;
+        if (ahead < 0) { late++; return false; }
+        if (ahead > mask) {
+            // Too far ahead to hold: drop everything that would be overwritten.
+            // Queued frames thrown away are overflows; holes skipped were lost anyway.
+            int newNext = seq - mask;
+            while (nextSeq - newNext < 0) {
+                int idx = nextSeq & mask;
+                if (filled[idx] && seqs[idx] == nextSeq) {
+                    filled[idx] = false;
+                    count--;
+                    overflows++;
+                } else {
+                    lost++;
+                }
+                nextSeq++;
+            }
+        }
+        int idx = seq & mask;
+        if (filled[idx] && seqs[idx] == seq) { duplicates++; return false; }
+        System.arraycopy(data, off, slots[idx], 0, len);
+        lengths[idx] = len;
+        seqs[idx] = seq;
+        tags[idx] = tag;
+        filled[idx] = true;
+        count++;
+        received++;
+        silent = false;
+        if (seq - highestSeq > 0) highestSeq = seq;
+        updateJitter(seq, arrivalMs);
+        return true;
+    }
+
+    /**
+     * Fills a hole from a redundant (FEC) copy. Frames already queued or
+     * played are ignored silently, and the jitter estimate is left alone.
+     */
+    public synchronized boolean putRecovered(int seq, int tag, byte[] data, int off, int len) {
+        if (!started || len > slots[0].length) return false;
+        int ahead = seq - nextSeq;
+        if (ahead < 0 || ahead > mask) return false;
+        int idx = seq & mask;
+        if (filled[idx] && seqs[idx] == seq) return false;
+        System.arraycopy(data, off, slots[idx], 0, len);
+        lengths[idx] = len;
+        seqs[idx] = seq;
+        tags[idx] = tag;
+        filled[idx] = true;
+        count++;
+        recovered++;
+        if (seq - highestSeq > 0) highestSeq = seq;
+        return true;
+    }
+
+    /**
+     * Copies the next frame into {@code out}. Returns its length, {@link #LOST}
+     * if the frame is missing but later ones are queued, or {@link #EMPTY} while
+     * (re)buffering.
+     */
+    public synchronized int take(byte[] out) {
+        if (!started) return EMPTY;
+        if (count == 0) {
+            if (!buffering) { buffering = true; if (!silent) underruns++; }
+            return EMPTY;
+        }
+        if (buffering) {
+            if (depth() < targetDepth) return EMPTY;
+            buffering = false;
+        }
+        if (depth() > targetDepth + 2) {
+            // Burst left us too deep - skip one frame per call to drain gently
+            discardNext();
+            trimmed++;
+            if (count == 0) { buffering = true; return EMPTY; }
+        }
+        int idx = nextSeq & mask;
+        if (filled[idx] && seqs[idx] == nextSeq) {
+            int len = lengths[idx];
+            System.arraycopy(slots[idx], 0, out, 0, len);
+            lastTag = tags[idx];
+            filled[idx] = false;
+            count--;
+            nextSeq++;
+            played++;
+            return len;
+        }
+        nextSeq++;
+        lost++;
+        return LOST;
+    }
+
+    /**
+     * The sender stopped transmitting for silence (DTX). Whatever is queued
+     * still plays out, but draining after it isn't an underrun, and the next
+     * talkspurt starts a fresh transit baseline so the gap doesn't read as jitter.
+     */
+    public synchronized void markSilence() {
+        silent = true;
+        haveTransit = false;
+    }
+
+    public synchronized boolean isSilent() { return silent; }
+
+    /** Waiting to reach the target depth before playing, at the start of a talkspurt or after an underrun. */
+    public synchronized boolean isBuffering() { return buffering; }
+
+    public synchronized void reset() {
+        for (int i = 0; i <= mask; i++) filled[i] = false;
+        started = false;
+        buffering = true;
+        silent = false;
+        count = 0;
+        haveTransit = false;
+        jitterMs = 0;
+        targetDepth = minDepth;
+        received = played = late = duplicates = overflows = underruns = lost = trimmed = recovered = 0;
+    }
+
+    private void discardNext() {
+        int idx = nextSeq & mask;
+        if (filled[idx] && seqs[idx] == nextSeq) { filled[idx] = false; count--; }
+        nextSeq++;
+    }
+
+    private void updateJitter(int seq, long arrivalMs) {
+        // RFC 3550 interarrival jitter with the frame clock as media timestamp
+        long transit = arrivalMs - (long) seq * frameMs;
+        if (haveTransit) {
+            long d = Math.abs(transit - lastTransit);
+            jitterMs += (d - jitterMs) / 16.0;
+        }
+        lastTransit = transit;
+        haveTransit = true;
+        int wanted = 1 + (int) Math.ceil(3 * jitterMs / frameMs);
+        targetDepth = Math.max(minDepth, Math.min(maxDepth, wanted));
+    }
+
+    /** Frames between the playout point and the newest queued frame, gaps included. */
+    public synchronized int depth() { return count == 0 ? 0 : highestSeq - nextSeq + 1; }
+
+    /** Tag of the frame most recently returned by {@link #take}. */
+    public synchronized int lastTag() { return lastTag; }
+
+    public synchronized int getTargetDepth() { return targetDepth; }
+    public synchronized double getJitterMs() { return jitterMs; }
+    public synchronized long getReceived() { return received; }
+    public synchronized long getPlayed() { return played; }
+    public synchronized long getLate() { return late; }
+    public synchronized long getDuplicates() { return duplicates; }
+    public synchronized long getOverflows() { return overflows; }
+    public synchronized long getUnderruns() { return underruns; }
+    public synchronized long getLost() { return lost; }
+    public synchronized long getTrimmed() { return trimmed; }
+    public synchronized long getRecovered() { return recovered; }
+}
@@ -0,0 +1,94 @@
+package com.voicecall;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * One side of the call's key agreement: an ephemeral P-256 key pair whose
+ * public half rides in HELLO or HELLO_ACK. The ECDH secret goes through
+ * HKDF-SHA256 salted with the room code, with both public keys in the
+ * info, giving each direction its own key and nonce salt. That keeps the
+ * media from anyone listening on the network; it cannot stop someone who
+ * sits in the path and knows the room code, which discovery broadcasts.
+ * A host makes one and derives every guest's keys from it.
+ */
+public final class KeyExchange {
+
+    private static final String CURVE = "secp256r1";
+    private static final byte[] INFO = "VoiceCall media v1".getBytes(StandardCharsets.US_ASCII);
+    private static final int SALT_SIZE = 8;
+
+    private final String roomCode;
+    private final KeyPair pair;
+    private final byte[] publicKey;
+
+    public KeyExchange(String roomCode) throws GeneralSecurityException {
+        this.roomCode = roomCode;
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(CURVE));
+        pair = generator.generateKeyPair();
+        publicKey = pair.getPublic().getEncoded();
+    }
+
+    /** Our public key, X.509-encoded, as it goes on the wire. */
+    public byte[] getPublicKey() { return publicKey; }
+
+    /** Keys for our side of the leg to the peer that sent {@code peerKey}. */
+    public MediaCipher derive(byte[] peerKey, boolean host) throws GeneralSecurityException {
+        PublicKey peer = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(peerKey));
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(pair.getPrivate());
+        agreement.doPhase(peer, true);
+        byte[] secret = agreement.generateSecret();
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(("VoiceCall room " + roomCode).getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] prk = mac.doFinal(secret);
+        byte[] guestKey = host ? peerKey : publicKey;
+        byte[] hostKey = host ? publicKey : peerKey;
+        byte[] info = new byte[INFO.length + guestKey.length + hostKey.length];
+        System.arraycopy(INFO, 0, info, 0, INFO.length);
+        System.arraycopy(guestKey, 0, info, INFO.length, guestKey.length);
+        System.arraycopy(hostKey, 0, info, INFO.length + guestKey.length, hostKey.length);
+        int half = ChaCha20Poly1305.KEY_SIZE + SALT_SIZE;
+        byte[] okm = expand(mac, prk, info, 2 * half);
+
+        // Guest to host first, then host to guest
+        byte[] upKey = new byte[ChaCha20Poly1305.KEY_SIZE];
+        byte[] upSalt = new byte[SALT_SIZE];
+        byte[] downKey = new byte[ChaCha20Poly1305.KEY_SIZE];
+        byte[] downSalt = new byte[SALT_SIZE];
+        System.arraycopy(okm, 0, upKey, 0, upKey.length);
+        System.arraycopy(okm, upKey.length, upSalt, 0, SALT_SIZE);
+        System.arraycopy(okm, half, downKey, 0, downKey.length);
+        System.arraycopy(okm, half + downKey.length, downSalt, 0, SALT_SIZE);
+        return host ? new MediaCipher(downKey, downSalt, upKey, upSalt)
+                : new MediaCipher(upKey, upSalt, downKey, downSalt);
+    }
+
+    // HKDF-Expand (RFC 5869)
+    private static byte[] expand(Mac mac, byte[] prk, byte[] info, int length) throws GeneralSecurityException {
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        byte[] okm = new byte[length];
+        byte[] t = new byte[0];
+        for (int done = 0, i = 1; done < length; i++) {
+            mac.update(t);
+            mac.update(info);
+            mac.update((byte) i);
+            t = mac.doFinal();
+            int n = Math.min(t.length, length - done);
+            System.arraycopy(t, 0, okm, done, n);
+            done += n;
+        }
+        return okm;
+    }
+}
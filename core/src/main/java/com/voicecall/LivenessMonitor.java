@@ -0,0 +1,75 @@
+package com.voicecall;
+
+/**
+ * Notices when a peer's packets stop for longer than its stream explains.
+ * A talking peer sends every frame or bundle and a silent one a silence
+ * descriptor every half second, so a gap past either means the path broke:
+ * one side changed networks, or a NAT forgot its mapping. The monitor then
+ * asks for probes, straight away and backing off while nothing answers, so
+ * the peer hears from our current address and re-learns it. If a probe
+ * goes unanswered for a couple of round trips our own socket may be the
+ * dead end, and it asks for a fresh one, then again less and less often.
+ * Net loop only, apart from the counters.
+ */
+public final class LivenessMonitor {
+
+    // Gap a talking peer's packets don't leave, jitter included
+    private static final int QUIET_MS = 250;
+    // During the peer's silence only descriptors come, one per interval
+    private static final int SILENT_QUIET_MS = MediaSender.SID_INTERVAL_MS + 100;
+    private static final int FIRST_PROBE_MS = 100;
+    private static final int MAX_PROBE_MS = 1000;
+    // Shortest unanswered probing before our socket is suspected, whatever the round trip
+    private static final int MIN_REBIND_MS = 150;
+
+    private long heardMs = -1;
+    private long probingSinceMs;
+    private long nextProbeMs;
+    private int probeIntervalMs;
+    private int rebindAfterMs;
+    private volatile long outages;
+    private volatile long probes;
+
+    /**
+     * Called every few tens of ms with when the peer was last heard from;
+     * returns true when a probe should go out now.
+     */
+    public boolean poll(long nowMs, long lastPacketMs, boolean peerSilent) {
+        if (lastPacketMs != heardMs) {
+            // Heard again: the path works, whichever address it runs over now
+            heardMs = lastPacketMs;
+            probeIntervalMs = 0;
+            return false;
+        }
+        if (probeIntervalMs == 0) {
+            if (nowMs - lastPacketMs < (peerSilent ? SILENT_QUIET_MS : QUIET_MS)) return false;
+            probingSinceMs = nowMs;
+            probeIntervalMs = FIRST_PROBE_MS;
+            rebindAfterMs = 0;
+            outages++;
+        } else {
+            if (nowMs < nextProbeMs) return false;
+            probeIntervalMs = Math.min(MAX_PROBE_MS, probeIntervalMs * 2);
+        }
+        nextProbeMs = nowMs + probeIntervalMs;
+        probes++;
+        return true;
+    }
+
+    /**
+     * True when probing has gone unanswered long enough to move sockets:
+     * two round trips ({@code rttMs}, -1 if unknown) at first, and twice as
+     * long each time after.
+     */
+    public boolean rebindDue(long nowMs, int rttMs) {
+        if (probeIntervalMs == 0) return false;
+        if (rebindAfterMs == 0) rebindAfterMs = Math.max(MIN_REBIND_MS, 2 * rttMs);
+        if (nowMs - probingSinceMs < rebindAfterMs) return false;
+        rebindAfterMs *= 2;
+        return true;
+    }
+
+    /** Gaps that started probing, and probes sent, since the call began. */
+    public long getOutages() { return outages; }
+    public long getProbes() { return probes; }
+}
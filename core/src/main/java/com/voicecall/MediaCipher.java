@@ -0,0 +1,118 @@
+package com.voicecall;
+
+/**
+ * Seals and opens the packets of one call leg once {@link KeyExchange} has
+ * settled its keys. A sealed packet keeps its header in the clear, with
+ * {@link PacketHeader#FLAG_ENCRYPTED} set, and is laid out as
+ *
+ * <pre>
+ *  header (16 bytes)
+ *  packet counter (4 bytes)
+ *  ciphertext of the payload
+ *  tag (16 bytes)
+ * </pre>
+ *
+ * The header and counter are authenticated with the payload. Each
+ * direction has its own key and nonce salt; the nonce is that salt and the
+ * counter, whose top bit tells the media stream from control packets so
+ * the two threads that send never share a counter. Media is sealed on the
+ * sending thread, control packets are sealed and everything is opened on
+ * the net loop; nothing here allocates once built.
+ */
+public final class MediaCipher {
+
+    public static final int OVERHEAD = 4 + ChaCha20Poly1305.TAG_SIZE;
+    private static final int CONTROL_STREAM = 0x80000000;
+    // Out-of-order packets accepted behind the newest one before they count as replays
+    private static final int REPLAY_WINDOW = 64;
+
+    private final Sealer media;
+    private final Sealer control;
+    private final ChaCha20Poly1305 opener;
+    private final int recvSalt0;
+    private final int recvSalt1;
+    // Per stream: the newest counter opened and a bitmap of the ones just behind it
+    private final long[] newest = {-1, -1};
+    private final long[] seen = new long[2];
+
+    MediaCipher(byte[] sendKey, byte[] sendSalt, byte[] recvKey, byte[] recvSalt) {
+        int salt0 = ChaCha20Poly1305.le32(sendSalt, 0);
+        int salt1 = ChaCha20Poly1305.le32(sendSalt, 4);
+        media = new Sealer(sendKey, salt0, salt1, 0);
+        control = new Sealer(sendKey, salt0, salt1, CONTROL_STREAM);
+        opener = new ChaCha20Poly1305(recvKey, 0);
+        recvSalt0 = ChaCha20Poly1305.le32(recvSalt, 0);
+        recvSalt1 = ChaCha20Poly1305.le32(recvSalt, 4);
+    }
+
+    /** Seals an audio or SID packet of {@code len} bytes into {@code out}; returns the sealed length. */
+    public int sealMedia(byte[] packet, int len, byte[] out) {
+        return media.seal(packet, len, out);
+    }
+
+    /** Seals a control packet; only the net loop may call this. */
+    public int sealControl(byte[] packet, int len, byte[] out) {
+        return control.seal(packet, len, out);
+    }
+
+    /**
+     * Checks and decrypts a sealed packet into {@code out} as the packet it
+     * was before sealing. Returns its length, or -1 if it was forged,
+     * damaged, truncated or already seen.
+     */
+    public int open(byte[] in, int len, byte[] out) {
+        int payload = len - PacketHeader.SIZE - OVERHEAD;
+        if (payload < 0) return -1;
+        int counter = PacketHeader.getInt(in, PacketHeader.SIZE);
+        int stream = counter >>> 31;
+        long n = counter & 0x7FFFFFFFL;
+        long ahead = n - newest[stream];
+        if (ahead <= 0 && (-ahead >= REPLAY_WINDOW || (seen[stream] >>> -ahead & 1) != 0)) return -1;
+        if (!opener.open(recvSalt0, recvSalt1, counter, in, 0, PacketHeader.SIZE + 4,
+                in, PacketHeader.SIZE + 4, payload, out, PacketHeader.SIZE)) {
+            return -1;
+        }
+        if (ahead > 0) {
+            seen[stream] = ahead >= REPLAY_WINDOW ? 1 : seen[stream] << ahead | 1;
+            newest[stream] = n;
+        } else {
+            seen[stream] |= 1L << -ahead;
+        }
+        System.arraycopy(in, 0, out, 0, PacketHeader.SIZE);
+        out[3] &= ~PacketHeader.FLAG_ENCRYPTED;
+        return PacketHeader.SIZE + payload;
+    }
+
+    public static boolean isSealed(byte[] packet) {
+        return (PacketHeader.flags(packet) & PacketHeader.FLAG_ENCRYPTED) != 0;
+    }
+
+    // One sending thread's half of a direction
+    private static final class Sealer {
+        private final ChaCha20Poly1305 aead;
+        private final int salt0;
+        private final int salt1;
+        private final int stream;
+        private int counter;
+
+        Sealer(byte[] key, int salt0, int salt1, int stream) {
+            aead = new ChaCha20Poly1305(key, 0);
+            this.salt0 = salt0;
+            this.salt1 = salt1;
+            this.stream = stream;
+        }
+
+        int seal(byte[] packet, int len, byte[] out) {
+            // 2^31 packets is over a year of calling, but a counter must never repeat
+            if (counter < 0) throw new IllegalStateException("packet counter exhausted");
+            int nonce = stream | counter++;
+            System.arraycopy(packet, 0, out, 0, PacketHeader.SIZE);
+            out[3] |= PacketHeader.FLAG_ENCRYPTED;
+            PacketHeader.putInt(out, PacketHeader.SIZE, nonce);
+            int payload = len - PacketHeader.SIZE;
+            aead.seal(salt0, salt1, nonce, out, 0, PacketHeader.SIZE + 4,
+                    packet, PacketHeader.SIZE, payload, out, PacketHeader.SIZE + 4);
+            return PacketHeader.SIZE + OVERHEAD + payload;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.voicecall;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * One outgoing media stream: voice activity detection with DTX, the
+ * negotiated codec, redundant copies for FEC, and the stream's sequence
+ * number and timestamp. A guest runs one for its microphone; a conference
+ * host runs one per guest, each carrying that guest's mix. Only the thread
+ * that sends touches it, apart from the codec, FEC level and frames per
+ * packet, which the net loop's {@link RateController} may change at any time.
+ * <p>
+ * With more than one frame per packet the header's
+ * {@link PacketHeader#FLAG_BUNDLED} bit is set, the header carries the
+ * first frame's sequence number and timestamp, and after any redundant
+ * blocks the payload is
+ *
+ * <pre>
+ *  count
+ *  count x { length (2 bytes), data }
+ * </pre>
+ */
+public final class MediaSender {
+
+    // While silent, refresh the receiver's comfort noise roughly every half second
+    static final int SID_INTERVAL_MS = 500;
+
+    private final int ssrc;
+    private final Codec[] encoders = Codecs.createAll();
+    private final FrameRedundancy redundancy;
+    private final byte[] buffer;
+    private final ByteBuffer tx;
+    private final byte[] sealed;
+    private final ByteBuffer sealedTx;
+    private final RateController rateController;
+    private volatile MediaCipher cipher;
+    private volatile int codec = Codecs.PCM;
+    private volatile int framesPerPacket = 1;
+    private volatile int sampleRate;
+    private volatile int frameMs;
+
+    private VoiceActivityDetector vad;
+    private int vadRate;
+    private int vadFrameMs;
+    private int seq;
+    private int timestamp;
+    private int silentFrames;
+
+    // The packet being filled: frames so far out of how many, in which codec, and
+    // where the next one goes
+    private int bundled;
+    private int bundleSize;
+    private int bundleCodec;
+    private int bundleSeq;
+    private int bundleTimestamp;
+    private int bundleCountAt;
+    private int redundantBytes;
+    private int end;
+
+    public MediaSender(int ssrc, int maxSamples, int maxPacket) {
+        this.ssrc = ssrc;
+        redundancy = new FrameRedundancy(maxSamples);
+        buffer = new byte[maxPacket];
+        tx = ByteBuffer.wrap(buffer);
+        sealed = new byte[maxPacket + MediaCipher.OVERHEAD];
+        sealedTx = ByteBuffer.wrap(sealed);
+        rateController = new RateController(this);
+    }
+
+    public int getSsrc() { return ssrc; }
+
+    public int getCodec() { return codec; }
+
+    public void setCodec(int id) { codec = id; }
+
+    public FrameRedundancy getRedundancy() { return redundancy; }
+
+    public RateController getRateController() { return rateController; }
+
+    public int getFramesPerPacket() { return framesPerPacket; }
+
+    /** Frames packed into each packet from the next one on; 1 sends them singly. */
+    public void setFramesPerPacket(int frames) { framesPerPacket = Math.max(1, frames); }
+
+    /** Seals every packet from the next one on; null sends them in the clear. */
+    public void setCipher(MediaCipher cipher) { this.cipher = cipher; }
+
+    /** Rate and frame duration of the frames last sent, 0 before the first. */
+    public int getSampleRate() { return sampleRate; }
+    public int getFrameMs() { return frameMs; }
+
+    /**
+     * Sends one frame, or during silence and mute only an occasional
+     * silence descriptor. When frames are being bundled a frame may only be
+     * queued in the packet, which goes out once full or when silence
+     * starts. {@code to} is null on a connected channel.
+     */
+    public void send(DatagramChannel channel, SocketAddress to, short[] pcm, int off, int samples,
+                     int sampleRate, int frameMs, boolean muted) throws IOException {
+        if (vad == null || vadRate != sampleRate || vadFrameMs != frameMs) {
+            vad = new VoiceActivityDetector(sampleRate, frameMs);
+            vadRate = sampleRate;
+            vadFrameMs = frameMs;
+            this.sampleRate = sampleRate;
+            this.frameMs = frameMs;
+        }
+        boolean speech = vad.process(pcm, off, samples) && !muted;
+        if (!speech) {
+            flush(channel, to);
+            if (silentFrames++ % Math.max(1, SID_INTERVAL_MS / frameMs) == 0) {
+                int level = muted ? 0 : vad.getNoiseLevel();
+                PacketHeader.write(buffer, PacketHeader.TYPE_SID, 0, ssrc, seq, timestamp);
+                buffer[PacketHeader.SIZE] = (byte) (level >> 8);
+                buffer[PacketHeader.SIZE + 1] = (byte) level;
+                tx.limit(PacketHeader.SIZE + 2).position(0);
+                write(channel, to);
+            }
+            timestamp += samples;
+            return;
+        }
+        silentFrames = 0;
+        if (bundled == 0) {
+            // A packet's frames share the codec and bundle size it started with
+            bundleCodec = codec;
+            bundleSize = framesPerPacket;
+            bundleSeq = seq;
+            bundleTimestamp = timestamp;
+            redundantBytes = redundancy.writeBlocks(seq, buffer, PacketHeader.SIZE);
+            bundleCountAt = PacketHeader.SIZE + redundantBytes;
+            end = bundleSize > 1 ? bundleCountAt + 1 : bundleCountAt;
+        }
+        Codec encoder = encoders[bundleCodec];
+        if (bundleSize > 1) {
+            int len = encoder.encode(pcm, off, samples, buffer, end + 2);
+            PacketHeader.putShort(buffer, end, len);
+            end += 2 + len;
+        } else {
+            end += encoder.encode(pcm, off, samples, buffer, end);
+        }
+        redundancy.remember(seq++, pcm, off, samples);
+        timestamp += samples;
+        if (++bundled >= bundleSize) flush(channel, to);
+    }
+
+    // Sends the packet being filled, if any
+    private void flush(DatagramChannel channel, SocketAddress to) throws IOException {
+        if (bundled == 0) return;
+        int flags = redundantBytes > 0 ? PacketHeader.FLAG_REDUNDANT : 0;
+        if (bundleSize > 1) {
+            flags |= PacketHeader.FLAG_BUNDLED;
+            buffer[bundleCountAt] = (byte) bundled;
+        }
+        PacketHeader.write(buffer, PacketHeader.TYPE_AUDIO, bundleCodec, flags, ssrc, bundleSeq, bundleTimestamp);
+        bundled = 0;
+        tx.limit(end).position(0);
+        write(channel, to);
+    }
+
+    private void write(DatagramChannel channel, SocketAddress to) throws IOException {
+        ByteBuffer out = tx;
+        MediaCipher c = cipher;
+        if (c != null) {
+            out = sealedTx;
+            out.limit(c.sealMedia(buffer, tx.limit(), sealed)).position(0);
+        }
+        if (to == null) channel.write(out);
+        else channel.send(out, to);
+    }
+}
@@ -0,0 +1,46 @@
+package com.voicecall;
+
+/** G.711 µ-law, 8 bits per sample. */
+public final class MuLawCodec implements Codec {
+
+    private static final int BIAS = 0x84;
+    private static final int CLIP = 32635;
+    private static final byte[] EXPONENT = new byte[256];
+    private static final short[] DECODE = new short[256];
+
+    static {
+        for (int i = 1; i < 256; i++) EXPONENT[i] = (byte) (31 - Integer.numberOfLeadingZeros(i));
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xFF;
+            int exponent = (u >> 4) & 0x07;
+            int sample = (((u & 0x0F) << 3) + BIAS) << exponent;
+            sample -= BIAS;
+            DECODE[i] = (short) ((u & 0x80) != 0 ? -sample : sample);
+        }
+    }
+
+    @Override public int id() { return Codecs.PCMU; }
+    @Override public String name() { return "PCMU"; }
+    @Override public int maxEncodedSize(int samples) { return samples; }
+
+    @Override
+    public int encode(short[] pcm, int off, int samples, byte[] out, int outOff) {
+        for (int i = 0; i < samples; i++) {
+            int s = pcm[off + i];
+            int sign = (s >> 8) & 0x80;
+            if (sign != 0) s = -s;
+            if (s > CLIP) s = CLIP;
+            s += BIAS;
+            int exponent = EXPONENT[(s >> 7) & 0xFF];
+            int mantissa = (s >> (exponent + 3)) & 0x0F;
+            out[outOff + i] = (byte) ~(sign | exponent << 4 | mantissa);
+        }
+        return samples;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, short[] pcm, int pcmOff) {
+        for (int i = 0; i < len; i++) pcm[pcmOff + i] = DECODE[in[off + i] & 0xFF];
+        return len;
+    }
+}
@@ -0,0 +1,210 @@
+package com.voicecall;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One thread driving every call socket: non-blocking datagram channels on a
+ * single {@link Selector}, plus one-shot and periodic timers for keep-alives,
+ * probes and timeouts. Channels, timers and receivers are only touched on the
+ * loop thread; other threads hand work over with {@link #post}. Shutting the
+ * loop down closes every channel it owns, so nothing outlives a call; once it
+ * has stopped, {@link #open} refuses and work posted late is dropped.
+ */
+public final class NetLoop {
+
+    public interface Receiver {
+        /** {@code from} is null for connected channels, which are read without an address lookup. */
+        void onPacket(DatagramChannel channel, byte[] data, int len, SocketAddress from) throws IOException;
+    }
+
+    public static final class Timer {
+        private final Runnable task;
+        private final long periodMs;
+        private long dueMs;
+        private volatile boolean cancelled;
+
+        private Timer(Runnable task, long dueMs, long periodMs) {
+            this.task = task;
+            this.dueMs = dueMs;
+            this.periodMs = periodMs;
+        }
+
+        public void cancel() { cancelled = true; }
+    }
+
+    private final ByteBuffer rx;
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final ArrayList<Timer> timers = new ArrayList<>();
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+    // Set once the loop thread has finished; anything posted after that is discarded here
+    private volatile boolean closed;
+
+    public NetLoop(int maxPacket) {
+        rx = ByteBuffer.allocate(maxPacket);
+    }
+
+    public void start(String name) throws IOException {
+        selector = Selector.open();
+        running = true;
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    /** Stops the loop; it closes its channels and exits on its own thread. */
+    public void shutdown() {
+        running = false;
+        if (selector != null) selector.wakeup();
+    }
+
+    public boolean inLoop() { return Thread.currentThread() == thread; }
+
+    public void post(Runnable task) {
+        pending.add(task);
+        // The loop may have exited between the add and now; don't leave the task stranded
+        if (closed) discardPending();
+        else selector.wakeup();
+    }
+
+    /**
+     * Opens a non-blocking channel bound to {@code port} (0 for any) and starts reading it.
+     * Throws if the loop has been shut down; a channel opened as it stops is closed by the loop.
+     */
+    public DatagramChannel open(int port, boolean broadcast, Receiver receiver) throws IOException {
+        if (!running) throw new IOException("net loop stopped");
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            if (port != 0) channel.socket().setReuseAddress(true);
+            channel.socket().setBroadcast(broadcast);
+            channel.socket().bind(new InetSocketAddress(port));
+            if (inLoop()) channel.register(selector, SelectionKey.OP_READ, receiver);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+        if (!inLoop()) post(new Registration(channel, receiver));
+        return channel;
+    }
+
+    public void close(DatagramChannel channel) {
+        if (channel == null) return;
+        if (inLoop()) closeQuietly(channel);
+        else post(() -> closeQuietly(channel));
+    }
+
+    public Timer schedule(long delayMs, long periodMs, Runnable task) {
+        Timer timer = new Timer(task, System.currentTimeMillis() + delayMs, periodMs);
+        if (inLoop()) timers.add(timer);
+        else post(() -> timers.add(timer));
+        return timer;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                Runnable task;
+                while ((task = pending.poll()) != null) runQuietly(task);
+                long waitMs = runTimers(System.currentTimeMillis());
+                if (!running) break;
+                if (waitMs < 0) selector.select();
+                else if (waitMs == 0) selector.selectNow();
+                else selector.select(waitMs);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isReadable()) drain(key);
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            running = false;
+            closed = true;
+            for (SelectionKey key : selector.keys()) closeQuietly(key.channel());
+            try { selector.close(); } catch (IOException ignored) {}
+            timers.clear();
+            discardPending();
+        }
+    }
+
+    // Drops work that will never run, closing channels still waiting to be registered
+    private void discardPending() {
+        Runnable task;
+        while ((task = pending.poll()) != null) {
+            if (task instanceof Registration) closeQuietly(((Registration) task).channel);
+        }
+    }
+
+    private final class Registration implements Runnable {
+        final DatagramChannel channel;
+        final Receiver receiver;
+
+        Registration(DatagramChannel channel, Receiver receiver) {
+            this.channel = channel;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void run() {
+            try { channel.register(selector, SelectionKey.OP_READ, receiver); }
+            catch (IOException e) { closeQuietly(channel); }
+        }
+    }
+
+    private void drain(SelectionKey key) {
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        Receiver receiver = (Receiver) key.attachment();
+        while (running && channel.isOpen()) {
+            rx.clear();
+            SocketAddress from = null;
+            try {
+                if (channel.isConnected()) {
+                    if (channel.read(rx) <= 0) return;
+                } else {
+                    from = channel.receive(rx);
+                    if (from == null) return;
+                }
+                receiver.onPacket(channel, rx.array(), rx.position(), from);
+            } catch (Exception e) {
+                // A bad datagram or ICMP-refused read shouldn't stop the loop
+                if (!channel.isOpen()) return;
+            }
+        }
+    }
+
+    /** Runs due timers; returns ms until the next one, or -1 if there are none. */
+    private long runTimers(long now) {
+        long next = -1;
+        for (int i = 0; i < timers.size(); i++) {
+            Timer t = timers.get(i);
+            if (!t.cancelled && t.dueMs <= now) {
+                runQuietly(t.task);
+                if (t.periodMs > 0) t.dueMs = now + t.periodMs;
+                else t.cancelled = true;
+            }
+            if (t.cancelled) { timers.remove(i--); continue; }
+            long wait = Math.max(1, t.dueMs - now);
+            if (next < 0 || wait < next) next = wait;
+        }
+        return next;
+    }
+
+    private static void runQuietly(Runnable task) {
+        try { task.run(); } catch (RuntimeException ignored) {}
+    }
+
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        try { channel.close(); } catch (IOException ignored) {}
+    }
+}
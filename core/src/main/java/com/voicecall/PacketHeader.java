@@ -0,0 +1,94 @@
+package com.voicecall;
+
+/**
+ * Fixed 16-byte header carried by every datagram on the audio socket:
+ *
+ * <pre>
+ *  0       1       2       3
+ *  version type    codec   flags
+ *  ssrc (session id)
+ *  sequence number
+ *  media timestamp (samples)
+ * </pre>
+ *
+ * All fields are big-endian and read straight from the receive buffer, so
+ * telling control, keep-alive and media packets apart allocates nothing.
+ */
+public final class PacketHeader {
+
+    public static final int SIZE = 16;
+    public static final int VERSION = 1;
+
+    public static final int TYPE_HELLO = 1;
+    public static final int TYPE_AUDIO = 2;
+    public static final int TYPE_KEEPALIVE = 3;
+    public static final int TYPE_HELLO_ACK = 4;
+    public static final int TYPE_SID = 5;
+    public static final int TYPE_REPORT = 6;
+    public static final int TYPE_PING = 7;
+    public static final int TYPE_PONG = 8;
+
+    public static final int FLAG_REDUNDANT = 0x01;
+    // Several consecutive frames in one packet, see MediaSender
+    public static final int FLAG_BUNDLED = 0x02;
+    // Payload sealed by MediaCipher; the header itself stays readable
+    public static final int FLAG_ENCRYPTED = 0x04;
+
+    // Feature bits offered in HELLO and confirmed in HELLO_ACK
+    public static final int FEATURE_BUNDLING = 0x01;
+    // Followed in the payload by a key length byte and the sender's public key
+    public static final int FEATURE_ENCRYPTION = 0x02;
+    public static final int SUPPORTED_FEATURES = FEATURE_BUNDLING | FEATURE_ENCRYPTION;
+
+    // IPv4 and UDP headers, for sizing what a packet really costs on the link
+    public static final int UDP_OVERHEAD = 28;
+
+    private PacketHeader() {}
+
+    public static int write(byte[] buf, int type, int codec, int ssrc, int seq, int timestamp) {
+        return write(buf, type, codec, 0, ssrc, seq, timestamp);
+    }
+
+    public static int write(byte[] buf, int type, int codec, int flags, int ssrc, int seq, int timestamp) {
+        buf[0] = (byte) VERSION;
+        buf[1] = (byte) type;
+        buf[2] = (byte) codec;
+        buf[3] = (byte) flags;
+        putInt(buf, 4, ssrc);
+        putInt(buf, 8, seq);
+        putInt(buf, 12, timestamp);
+        return SIZE;
+    }
+
+    public static boolean isValid(byte[] buf, int len) {
+        return len >= SIZE && buf[0] == VERSION;
+    }
+
+    public static int type(byte[] buf) { return buf[1] & 0xFF; }
+    public static int codec(byte[] buf) { return buf[2] & 0xFF; }
+    public static int flags(byte[] buf) { return buf[3] & 0xFF; }
+    public static int ssrc(byte[] buf) { return getInt(buf, 4); }
+    public static int seq(byte[] buf) { return getInt(buf, 8); }
+    public static int timestamp(byte[] buf) { return getInt(buf, 12); }
+
+    static void putShort(byte[] buf, int off, int v) {
+        buf[off] = (byte) (v >>> 8);
+        buf[off + 1] = (byte) v;
+    }
+
+    static int getShort(byte[] buf, int off) {
+        return (buf[off] & 0xFF) << 8 | (buf[off + 1] & 0xFF);
+    }
+
+    static void putInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) (v >>> 24);
+        buf[off + 1] = (byte) (v >>> 16);
+        buf[off + 2] = (byte) (v >>> 8);
+        buf[off + 3] = (byte) v;
+    }
+
+    static int getInt(byte[] buf, int off) {
+        return (buf[off] & 0xFF) << 24 | (buf[off + 1] & 0xFF) << 16
+                | (buf[off + 2] & 0xFF) << 8 | (buf[off + 3] & 0xFF);
+    }
+}
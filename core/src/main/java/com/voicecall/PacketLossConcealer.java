@@ -0,0 +1,108 @@
+package com.voicecall;
+
+/**
+ * Pitch-based waveform repetition for lost frames. On the first loss the
+ * pitch period is estimated from recent history by normalised
+ * autocorrelation and the last period is repeated; the output holds for
+ * 10 ms, fades to silence over the next 50 ms, and the first good frame
+ * after a loss is cross-faded in. All buffers are sized up front.
+ */
+public final class PacketLossConcealer {
+
+    private final int sampleRate;
+    private final int minPitch;
+    private final int maxPitch;
+    private final int overlap;
+    private final int fadeStart;
+    private final int fadeLength;
+    private final int historyLen;
+    private final short[] history;
+
+    private int pitch;
+    private int phase;
+    private int concealedSamples;
+    private long concealedFrames;
+    private long concealNanos;
+
+    public PacketLossConcealer(int sampleRate) {
+        this.sampleRate = sampleRate;
+        minPitch = sampleRate / 400;
+        maxPitch = sampleRate / 67;
+        overlap = maxPitch / 4;
+        fadeStart = sampleRate / 100;
+        fadeLength = sampleRate / 20;
+        historyLen = 3 * maxPitch;
+        history = new short[historyLen];
+        pitch = maxPitch;
+    }
+
+    /** Feeds a good frame; if it ends a loss, its start is cross-faded with the concealment. */
+    public void update(short[] pcm, int off, int samples) {
+        if (concealedSamples > 0) {
+            int m = Math.min(overlap, samples);
+            for (int i = 0; i < m; i++) {
+                double w = (i + 1) / (double) (m + 1);
+                pcm[off + i] = (short) (nextConcealed() * (1 - w) + pcm[off + i] * w);
+            }
+            concealedSamples = 0;
+        }
+        if (samples >= historyLen) {
+            System.arraycopy(pcm, off + samples - historyLen, history, 0, historyLen);
+        } else {
+            System.arraycopy(history, samples, history, 0, historyLen - samples);
+            System.arraycopy(pcm, off, history, historyLen - samples, samples);
+        }
+    }
+
+    /** Synthesises a replacement for one lost frame. */
+    public void conceal(short[] pcm, int off, int samples) {
+        long start = System.nanoTime();
+        if (concealedSamples == 0) {
+            pitch = estimatePitch();
+            phase = 0;
+        }
+        for (int i = 0; i < samples; i++) pcm[off + i] = nextConcealed();
+        concealedFrames++;
+        concealNanos += System.nanoTime() - start;
+    }
+
+    public void reset() {
+        for (int i = 0; i < historyLen; i++) history[i] = 0;
+        concealedSamples = 0;
+        concealedFrames = 0;
+        concealNanos = 0;
+    }
+
+    public int getSampleRate() { return sampleRate; }
+    public long getConcealedFrames() { return concealedFrames; }
+    public long getConcealNanos() { return concealNanos; }
+
+    private short nextConcealed() {
+        int s = history[historyLen - pitch + phase];
+        if (++phase == pitch) phase = 0;
+        int t = concealedSamples++;
+        if (t < fadeStart) return (short) s;
+        if (t >= fadeStart + fadeLength) return 0;
+        return (short) (s * (1.0 - (t - fadeStart) / (double) fadeLength));
+    }
+
+    private int estimatePitch() {
+        int window = maxPitch;
+        int base = historyLen - window;
+        double best = 0;
+        int bestLag = maxPitch;
+        for (int lag = minPitch; lag <= maxPitch; lag++) {
+            double corr = 0;
+            double energy = 0;
+            for (int i = 0; i < window; i++) {
+                int lagged = history[base + i - lag];
+                corr += history[base + i] * lagged;
+                energy += lagged * lagged;
+            }
+            if (energy <= 0) continue;
+            double score = corr / Math.sqrt(energy);
+            if (score > best) { best = score; bestLag = lag; }
+        }
+        return bestLag;
+    }
+}
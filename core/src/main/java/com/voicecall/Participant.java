@@ -0,0 +1,266 @@
+package com.voicecall;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+
+/**
+ * Everything kept per remote party: its jitter buffer, decoders,
+ * concealment and comfort noise, its receive statistics, and the stream we
+ * send it. A guest has one, for the host; a conference host has one per
+ * guest. Packets are filed on the net loop and frames pulled on the
+ * playout (or mixer) thread.
+ * <p>
+ * A party is known by the session id (ssrc) in its packets' headers as
+ * well as by its address, so when it changes networks the call follows it
+ * to the new address; see {@link CallSession}.
+ * <p>
+ * The peer's audio clock never quite matches our speaker's, so during a
+ * long talkspurt the jitter buffer would slowly fill or drain. Playout
+ * keeps it at its target by removing or repeating a pitch period now and
+ * then through a {@link TimeStretcher}. The sender's measured
+ * {@link ClockDrift} says when one is due, and the smoothed buffer level,
+ * held where it settled once playing began, catches whatever the estimate
+ * misses. Depth changes for jitter stay the jitter buffer's own business.
+ */
+public final class Participant {
+
+    // Buffer level error, in frames, that triggers a correction whatever the drift says.
+    // Wide, so it only catches what the drift estimate misses, like our own speaker's drift
+    private static final double LEVEL_TOLERANCE = 1.5;
+    // Leaves corrections far enough apart to be inaudible
+    private static final int STRETCH_INTERVAL_MS = 250;
+    // Pulls the buffer level is smoothed over, and settles over before it's held
+    private static final int LEVEL_SMOOTHING = 100;
+
+    private final MediaSender sender;
+    private final LivenessMonitor liveness = new LivenessMonitor();
+    private final int jitterMinMs;
+    private final int jitterMaxMs;
+    private final Codec[] decoders = Codecs.createAll();
+    private final ComfortNoiseGenerator comfortNoise = new ComfortNoiseGenerator();
+    private final byte[] frame;
+    // ADPCM packs two samples a byte, so a full frame buffer can decode to twice its size
+    private final short[] pcm;
+    // Decoded audio not yet played: a frame, a spare one to shorten, or what stretching left over
+    private final short[] decoded;
+
+    private volatile JitterBuffer jitterBuffer;
+    private volatile CallStats stats;
+    private volatile int frameMs;
+    private volatile int sampleRate;
+    private volatile MediaCipher cipher;
+    private volatile SocketAddress address;
+    private volatile boolean peerSsrcKnown;
+    private volatile int peerSsrc;
+    private volatile long moves;
+    private PacketLossConcealer concealer;
+    private TimeStretcher stretcher;
+    private int buffered;
+    private double driftSamples;
+    private double level = -1;
+    private double settledLevel = -1;
+    private int levelPulls;
+    private long trimmed;
+    private int pullsSinceStretch;
+    private volatile long shortenedSamples;
+    private volatile long lengthenedSamples;
+
+    public Participant(SocketAddress address, MediaSender sender, int maxFrameSamples,
+                       int jitterMinMs, int jitterMaxMs) {
+        this.address = address;
+        this.sender = sender;
+        this.jitterMinMs = jitterMinMs;
+        this.jitterMaxMs = jitterMaxMs;
+        frame = new byte[maxFrameSamples * 2];
+        pcm = new short[maxFrameSamples * 4];
+        decoded = new short[maxFrameSamples * 4];
+    }
+
+    /** Sets up receiving for the agreed frame duration and rate; anything queued is dropped. */
+    public void configure(int frameMs, int sampleRate, long nowMs) {
+        jitterBuffer = new JitterBuffer(64, CallParams.frameSamples(sampleRate, frameMs) * 2, frameMs,
+                (jitterMinMs + frameMs - 1) / frameMs, Math.min(63, jitterMaxMs / frameMs));
+        CallStats s = new CallStats(sampleRate);
+        s.onPacket(nowMs, 0);
+        stats = s;
+        comfortNoise.setLevel(0);
+        this.frameMs = frameMs;
+        this.sampleRate = sampleRate;
+    }
+
+    public SocketAddress getAddress() { return address; }
+    public LivenessMonitor getLiveness() { return liveness; }
+    /** Times the party turned up at a new address mid-call. */
+    public long getMoves() { return moves; }
+    public MediaSender getSender() { return sender; }
+    public JitterBuffer getJitterBuffer() { return jitterBuffer; }
+    public CallStats getStats() { return stats; }
+    public int getFrameMs() { return frameMs; }
+    public int getSampleRate() { return sampleRate; }
+    /** Audio removed and added by time-stretching so far, in samples at the call's rate. */
+    public long getShortenedSamples() { return shortenedSamples; }
+    public long getLengthenedSamples() { return lengthenedSamples; }
+    public MediaCipher getCipher() { return cipher; }
+
+    /** Seals what we send this party and requires what it sends to be sealed. */
+    public void setCipher(MediaCipher cipher) {
+        this.cipher = cipher;
+        sender.setCipher(cipher);
+    }
+
+    // Net loop side
+
+    /** The session id the party's handshake carried; until then only its address identifies it. */
+    public void setPeerSsrc(int ssrc) {
+        peerSsrc = ssrc;
+        peerSsrcKnown = true;
+    }
+
+    public boolean isPeerSsrc(int ssrc) { return peerSsrcKnown && peerSsrc == ssrc; }
+
+    /** Sends go to {@code address} from the next packet on. */
+    public void moveTo(SocketAddress address) {
+        this.address = address;
+        moves++;
+    }
+
+    public void onAudio(byte[] buf, int len, long nowMs) {
+        JitterBuffer jb = jitterBuffer;
+        int seq = PacketHeader.seq(buf);
+        int start = PacketHeader.SIZE;
+        if ((PacketHeader.flags(buf) & PacketHeader.FLAG_REDUNDANT) != 0) {
+            start = FrameRedundancy.recover(buf, start, len, seq, jb);
+            if (start < 0) return;
+        }
+        int codec = PacketHeader.codec(buf);
+        int timestamp = PacketHeader.timestamp(buf);
+        if ((PacketHeader.flags(buf) & PacketHeader.FLAG_BUNDLED) == 0) {
+            stats.onMedia(seq, timestamp, nowMs);
+            jb.put(seq, codec, buf, start, len - start, nowMs);
+            return;
+        }
+        // Bundled: consecutive frames, each one frame's worth of samples after the last.
+        // They all land at once; frame i counts as arriving i frames after the first,
+        // so a bundle reads as one packet's transit rather than a burst of jitter.
+        if (start >= len) return;
+        int count = buf[start] & 0xFF;
+        int frameSamples = CallParams.frameSamples(sampleRate, frameMs);
+        int o = start + 1;
+        for (int i = 0; i < count && o + 2 <= len; i++) {
+            int frameLen = PacketHeader.getShort(buf, o);
+            o += 2;
+            if (o + frameLen > len) return;
+            long arrivalMs = nowMs + (long) i * frameMs;
+            stats.onMedia(seq + i, timestamp + i * frameSamples, arrivalMs);
+            jb.put(seq + i, codec, buf, o, frameLen, arrivalMs);
+            o += frameLen;
+        }
+    }
+
+    public void onSilence(byte[] buf, int len) {
+        if (len >= PacketHeader.SIZE + 2) {
+            comfortNoise.setLevel((buf[PacketHeader.SIZE] & 0xFF) << 8 | (buf[PacketHeader.SIZE + 1] & 0xFF));
+        }
+        jitterBuffer.markSilence();
+    }
+
+    // Playout side
+
+    /**
+     * Produces the next {@code samples} at the wire rate into {@link #getPcm()}:
+     * the decoded frame, comfort noise during the peer's silence, a concealed
+     * frame for a loss, or zeros before anything has arrived, stretched or
+     * shortened slightly when the buffer has drifted off its target.
+     */
+    public void pull(int samples) {
+        JitterBuffer jb = jitterBuffer;
+        int rate = sampleRate;
+        if (concealer == null || concealer.getSampleRate() != rate) concealer = new PacketLossConcealer(rate);
+        if (stretcher == null || stretcher.getSampleRate() != rate) {
+            stretcher = new TimeStretcher(rate);
+            buffered = 0;
+        }
+        int correction = correction(jb, samples);
+        // Shortening cuts from a spare frame, so the one due now still plays whole
+        int wanted = correction < 0 ? 2 * samples : samples;
+        while (buffered < wanted) {
+            decode(jb, samples);
+            System.arraycopy(pcm, 0, decoded, buffered, samples);
+            buffered += samples;
+        }
+        int delta = 0;
+        if (correction < 0) {
+            delta = -stretcher.shorten(decoded, 0, buffered, buffered - samples);
+        } else if (correction > 0) {
+            delta = stretcher.lengthen(decoded, 0, buffered, decoded.length - buffered);
+        }
+        if (delta != 0) {
+            buffered += delta;
+            stretched(delta, Math.abs(correction) > 1);
+        }
+        System.arraycopy(decoded, 0, pcm, 0, samples);
+        buffered -= samples;
+        System.arraycopy(decoded, samples, decoded, 0, buffered);
+    }
+
+    // One frame from the jitter buffer into pcm
+    private void decode(JitterBuffer jb, int samples) {
+        int len = jb.take(frame);
+        int tag = jb.lastTag();
+        if (len > 0 && tag < decoders.length) {
+            int n = decoders[tag].decode(frame, 0, len, pcm, 0);
+            if (n < samples) Arrays.fill(pcm, n, samples, (short) 0);
+            concealer.update(pcm, 0, samples);
+        } else if (len == JitterBuffer.EMPTY && jb.isSilent()) {
+            comfortNoise.generate(pcm, 0, samples);
+        } else if (jb.getReceived() > 0) {
+            // Lost frame or underrun mid-talkspurt - fill it instead of clicking
+            concealer.conceal(pcm, 0, samples);
+        } else {
+            Arrays.fill(pcm, 0, samples, (short) 0);
+        }
+    }
+
+    // Negative to shorten, positive to lengthen, 0 to leave this frame alone; 2 rather
+    // than 1 when it's for drift. Only while the buffer plays: every talkspurt, and
+    // every underrun, buffers up to the target again anyway
+    private int correction(JitterBuffer jb, int samples) {
+        // A trim is the jitter buffer choosing a new depth, which the level settles to again
+        if (jb.isSilent() || jb.isBuffering() || jb.depth() == 0 || jb.getTrimmed() != trimmed) {
+            trimmed = jb.getTrimmed();
+            driftSamples = 0;
+            level = -1;
+            settledLevel = -1;
+            levelPulls = 0;
+            return 0;
+        }
+        // What the peer's clock has sent beyond what we've played, and where the buffer stands
+        double ppm = stats.getDriftPpm();
+        int limit = 2 * stretcher.getMinLag() + samples;
+        driftSamples = Math.max(-limit, Math.min(limit, driftSamples + ppm * 1e-6 * samples));
+        double now = jb.depth() * samples + buffered;
+        level = level < 0 ? now : level + (now - level) / LEVEL_SMOOTHING;
+        if (++levelPulls == LEVEL_SMOOTHING) settledLevel = level;
+        if (++pullsSinceStretch * frameMs < STRETCH_INTERVAL_MS) return 0;
+        double error = settledLevel < 0 ? 0 : level - settledLevel;
+        boolean spare = jb.depth() > jb.getTargetDepth();
+        if (error > LEVEL_TOLERANCE * samples) return spare ? -1 : 0;
+        if (error < -LEVEL_TOLERANCE * samples) return 1;
+        // A period is usually more than was owed, and the rest is paid off by waiting longer
+        // for the next one, never by correcting the other way
+        if (ppm > 0 && driftSamples >= stretcher.getMinLag()) return spare ? -2 : 0;
+        if (ppm < 0 && driftSamples <= -stretcher.getMinLag()) return 2;
+        return 0;
+    }
+
+    // The buffer just grew (or shrank) by this much
+    private void stretched(int delta, boolean forDrift) {
+        if (delta < 0) shortenedSamples -= delta;
+        else lengthenedSamples += delta;
+        if (forDrift) driftSamples += delta;
+        if (level >= 0) level += delta;
+        pullsSinceStretch = 0;
+    }
+
+    public short[] getPcm() { return pcm; }
+}
@@ -0,0 +1,27 @@
+package com.voicecall;
+
+/** Raw 16-bit little-endian PCM, the format the app originally sent. */
+public final class PcmCodec implements Codec {
+
+    @Override public int id() { return Codecs.PCM; }
+    @Override public String name() { return "PCM"; }
+    @Override public int maxEncodedSize(int samples) { return samples * 2; }
+
+    @Override
+    public int encode(short[] pcm, int off, int samples, byte[] out, int outOff) {
+        for (int i = 0; i < samples; i++) {
+            short s = pcm[off + i];
+            out[outOff++] = (byte) s;
+            out[outOff++] = (byte) (s >> 8);
+        }
+        return samples * 2;
+    }
+
+    @Override
+    public int decode(byte[] in, int off, int len, short[] pcm, int pcmOff) {
+        int samples = len / 2;
+        for (int i = 0; i < samples; i++, off += 2)
+            pcm[pcmOff + i] = (short) ((in[off] & 0xFF) | in[off + 1] << 8);
+        return samples;
+    }
+}
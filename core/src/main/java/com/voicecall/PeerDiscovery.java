@@ -0,0 +1,195 @@
+package com.voicecall;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Finds the host for a room code. The last address that answered for the
+ * code is probed first, then every round fires the broadcast address and a
+ * unicast sweep of each local IPv4 subnet (taken from the real interface
+ * netmasks) in one go. Replies are handled as they arrive on the
+ * {@link NetLoop}, so the first answer ends the search immediately.
+ */
+public final class PeerDiscovery {
+
+    public interface Listener {
+        void onSearching(int round, int rounds);
+        void onHostFound(InetAddress host, long elapsedMs);
+        void onFailed(long elapsedMs);
+    }
+
+    /** Persisted room code to last-known host address. */
+    public interface HostCache {
+        String get(String roomCode);
+        void put(String roomCode, String hostAddress);
+    }
+
+    // Used only when interface enumeration finds nothing usable
+    private static final String[] FALLBACK_BROADCASTS = {
+        "192.168.43.255",
+        "192.168.1.255",
+        "192.168.0.255",
+        "192.168.2.255",
+        "10.0.0.255",
+        "172.20.10.255",
+        "172.16.0.255"
+    };
+    // Unicast sweeps stay within a /24 around our own address
+    private static final int MAX_SWEEP_PREFIX = 24;
+
+    private final NetLoop loop;
+    private final String roomCode;
+    private final int port;
+    private final HostCache cache;
+    private final Listener listener;
+    private final int rounds;
+    private final long roundMs;
+
+    private DatagramChannel channel;
+    private NetLoop.Timer timer;
+    private final List<InetSocketAddress> broadcasts = new ArrayList<>();
+    private final List<InetSocketAddress> unicasts = new ArrayList<>();
+    private InetSocketAddress cached;
+    private List<InetSocketAddress> targets;
+    private ByteBuffer find;
+    private long startMs;
+    private int round;
+    private boolean done;
+    private volatile long lastElapsedMs = -1;
+
+    public PeerDiscovery(NetLoop loop, String roomCode, int port, HostCache cache,
+                         Listener listener, int rounds, long roundMs) {
+        this.loop = loop;
+        this.roomCode = roomCode;
+        this.port = port;
+        this.cache = cache;
+        this.listener = listener;
+        this.rounds = rounds;
+        this.roundMs = roundMs;
+    }
+
+    /**
+     * Probes exactly {@code targets} every round in place of the local
+     * subnets' broadcast and sweep, e.g. for stand-in hosts on loopback.
+     * Call before {@link #start}.
+     */
+    public void setTargets(List<InetSocketAddress> targets) {
+        this.targets = new ArrayList<>(targets);
+    }
+
+    /** Opens the probe channel and starts the first round right away. */
+    public void start() throws IOException {
+        startMs = System.currentTimeMillis();
+        find = ByteBuffer.wrap(("FIND:" + roomCode).getBytes());
+        channel = loop.open(0, true, this::onReply);
+        loop.post(() -> {
+            collectTargets();
+            timer = loop.schedule(0, roundMs, this::probe);
+        });
+    }
+
+    public void stop() {
+        done = true;
+        if (timer != null) timer.cancel();
+        loop.close(channel);
+    }
+
+    /** Time from start to the host's reply for the last search, or -1. */
+    public long getLastElapsedMs() { return lastElapsedMs; }
+
+    private void collectTargets() {
+        String last = cache != null ? cache.get(roomCode) : null;
+        if (last != null) {
+            try { cached = new InetSocketAddress(InetAddress.getByName(last), port); }
+            catch (Exception ignored) {}
+        }
+        if (targets != null) {
+            unicasts.addAll(targets);
+            return;
+        }
+        try {
+            Enumeration<NetworkInterface> ifaces = NetworkInterface.getNetworkInterfaces();
+            while (ifaces != null && ifaces.hasMoreElements()) {
+                NetworkInterface iface = ifaces.nextElement();
+                if (!iface.isUp() || iface.isLoopback()) continue;
+                for (InterfaceAddress ia : iface.getInterfaceAddresses()) {
+                    if (!(ia.getAddress() instanceof Inet4Address)) continue;
+                    if (ia.getBroadcast() != null) broadcasts.add(new InetSocketAddress(ia.getBroadcast(), port));
+                    addSweep((Inet4Address) ia.getAddress(), ia.getNetworkPrefixLength());
+                }
+            }
+        } catch (Exception ignored) {}
+        if (broadcasts.isEmpty()) {
+            for (String b : FALLBACK_BROADCASTS) {
+                try { broadcasts.add(new InetSocketAddress(InetAddress.getByName(b), port)); }
+                catch (Exception ignored) {}
+            }
+        }
+    }
+
+    private void addSweep(Inet4Address self, int prefix) throws IOException {
+        byte[] a = self.getAddress();
+        int ip = (a[0] & 0xFF) << 24 | (a[1] & 0xFF) << 16 | (a[2] & 0xFF) << 8 | (a[3] & 0xFF);
+        int bits = Math.max(prefix, MAX_SWEEP_PREFIX);
+        if (bits >= 31) return;
+        int mask = -1 << (32 - bits);
+        int network = ip & mask;
+        int hosts = ~mask;
+        for (int h = 1; h < hosts; h++) {
+            int target = network | h;
+            if (target == ip) continue;
+            byte[] t = {(byte) (target >>> 24), (byte) (target >>> 16), (byte) (target >>> 8), (byte) target};
+            unicasts.add(new InetSocketAddress(InetAddress.getByAddress(t), port));
+        }
+    }
+
+    private void probe() {
+        if (done) return;
+        if (round++ == rounds) {
+            done = true;
+            timer.cancel();
+            loop.close(channel);
+            listener.onFailed(System.currentTimeMillis() - startMs);
+            return;
+        }
+        listener.onSearching(round, rounds);
+        if (cached != null) send(cached);
+        for (InetSocketAddress b : broadcasts) send(b);
+        for (InetSocketAddress u : unicasts) send(u);
+    }
+
+    private void send(InetSocketAddress target) {
+        try {
+            find.rewind();
+            channel.send(find, target);
+        } catch (IOException ignored) {}
+    }
+
+    private void onReply(DatagramChannel ch, byte[] data, int len, SocketAddress from) {
+        if (done) return;
+        String response = new String(data, 0, len).trim();
+        if (!response.startsWith("HOST:")) return;
+        // The reply's source address is what actually reached us; the text is a hint
+        InetAddress host = from instanceof InetSocketAddress ? ((InetSocketAddress) from).getAddress() : null;
+        if (host == null) {
+            try { host = InetAddress.getByName(response.substring(5)); }
+            catch (Exception e) { return; }
+        }
+        done = true;
+        timer.cancel();
+        loop.close(channel);
+        lastElapsedMs = System.currentTimeMillis() - startMs;
+        if (cache != null) cache.put(roomCode, host.getHostAddress());
+        listener.onHostFound(host, lastElapsedMs);
+    }
+}
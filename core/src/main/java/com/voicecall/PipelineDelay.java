@@ -0,0 +1,35 @@
+package com.voicecall;
+
+/**
+ * Buffering delay contributed by each stage of the audio path, in ms. The
+ * capture and playout threads update their stages as they run and the UI
+ * reads whatever was published last.
+ */
+public final class PipelineDelay {
+
+    private volatile int captureDeviceMs;
+    private volatile int packetizationMs;
+    private volatile int jitterBufferMs;
+    private volatile int playoutDeviceMs;
+
+    public void setCaptureDeviceMs(int ms) { captureDeviceMs = ms; }
+    public void setPacketizationMs(int ms) { packetizationMs = ms; }
+    public void setJitterBufferMs(int ms) { jitterBufferMs = ms; }
+    public void setPlayoutDeviceMs(int ms) { playoutDeviceMs = ms; }
+
+    public int getCaptureDeviceMs() { return captureDeviceMs; }
+    public int getPacketizationMs() { return packetizationMs; }
+    public int getJitterBufferMs() { return jitterBufferMs; }
+    public int getPlayoutDeviceMs() { return playoutDeviceMs; }
+
+    /** Everything this device adds; the network path comes on top. */
+    public int getTotalMs() {
+        return captureDeviceMs + packetizationMs + jitterBufferMs + playoutDeviceMs;
+    }
+
+    @Override
+    public String toString() {
+        return "mic " + captureDeviceMs + " + frame " + packetizationMs + " + jitter "
+                + jitterBufferMs + " + speaker " + playoutDeviceMs + " = " + getTotalMs() + " ms";
+    }
+}
@@ -0,0 +1,151 @@
+package com.voicecall;
+
+import java.util.Arrays;
+
+/**
+ * Sender-side congestion control for one {@link MediaSender}, driven by
+ * the peer's receiver reports. It keeps a target bitrate: a queueing delay
+ * building up at the receiver cuts it to just under what actually got
+ * through, heavy loss cuts it in proportion, and a clean, uncongested link
+ * lets it grow again - quickly at first, then a kilobit at a time once it
+ * nears the rate at which the link last choked. The sender is then set to
+ * the best mode that fits under the target, stepping down the codec
+ * ladder (the negotiated codec, then cheaper ones the peer can decode),
+ * then packing more frames per packet to save on headers. FEC follows the
+ * reported loss but is the first thing given up when it doesn't fit,
+ * since under congestion the extra copies only deepen the queue. Runs on
+ * the net loop.
+ */
+public final class RateController {
+
+    // Receiver queueing delay that means the link is saturated, and the level below
+    // which there is room to probe upward
+    private static final int QUEUE_HIGH_MS = 60;
+    private static final int QUEUE_LOW_MS = 20;
+    // Loss fractions out of 256: above HIGH the rate backs off, below LOW it may grow
+    private static final int LOSS_HIGH = 26;
+    private static final int LOSS_LOW = 5;
+    private static final double DECREASE = 0.85;
+    private static final double INCREASE = 1.08;
+    // Bundling stops at this much audio per packet; every frame in it waits for the last
+    private static final int MAX_BUNDLE_MS = 60;
+
+    private final MediaSender sender;
+    private final FrameRedundancy redundancy;
+    private final Codec[] codecs = Codecs.createAll();
+    // Cheapest last, each one a step down in bitrate from the one before
+    private int[] ladder = {Codecs.PCM};
+    private boolean bundling;
+    private double targetKbps;
+    // What got through the last time the link choked, 0 once it has carried more since
+    private double capacityKbps;
+    private int codec = Codecs.PCM;
+    private int framesPerPacket = 1;
+
+    public RateController(MediaSender sender) {
+        this.sender = sender;
+        redundancy = sender.getRedundancy();
+    }
+
+    /**
+     * Sets what the peer can take: the negotiated codec, every codec it can
+     * decode, and whether it unpacks bundled frames. Starts at full quality.
+     */
+    public void configure(int negotiatedCodec, int peerCodecMask, boolean peerBundling) {
+        int[] order = {Codecs.PCM, Codecs.PCMU, Codecs.ADPCM};
+        int start = 0;
+        while (start < order.length && order[start] != negotiatedCodec) start++;
+        int n = 0;
+        int[] steps = new int[order.length];
+        for (int i = start; i < order.length; i++) {
+            if (i == start || (peerCodecMask & 1 << order[i]) != 0) steps[n++] = order[i];
+        }
+        if (n == 0) steps[n++] = negotiatedCodec;
+        ladder = Arrays.copyOf(steps, n);
+        bundling = peerBundling;
+        targetKbps = 0;
+        capacityKbps = 0;
+        codec = negotiatedCodec;
+        framesPerPacket = 1;
+        sender.setCodec(negotiatedCodec);
+        sender.setFramesPerPacket(1);
+    }
+
+    public int getTargetKbps() { return (int) targetKbps; }
+    public int getCodec() { return codec; }
+    public int getFramesPerPacket() { return framesPerPacket; }
+
+    /** One receiver report: loss out of 256, jitter, what arrived and the queue it waited in. */
+    public void onReport(int lossFraction, int jitterMs, int receiveKbps, int queueDelayMs) {
+        int rate = sender.getSampleRate();
+        int frameMs = sender.getFrameMs();
+        if (rate == 0 || frameMs == 0) {
+            redundancy.onLossReport(lossFraction);
+            return;
+        }
+        double sending = kbps(codec, framesPerPacket, redundancy.getLevel(), rate, frameMs);
+        redundancy.onLossReport(lossFraction);
+        double ceiling = kbps(ladder[0], 1, FrameRedundancy.MAX_LEVEL, rate, frameMs) * 1.15;
+        if (targetKbps == 0) targetKbps = ceiling;
+        // Much less arriving than we send means the link is queueing or dropping the rest
+        boolean squeezed = receiveKbps > 0 && receiveKbps < sending * 0.8;
+        if (capacityKbps > 0 && receiveKbps > capacityKbps * 1.1) capacityKbps = 0;
+        if (queueDelayMs > QUEUE_HIGH_MS) {
+            if (receiveKbps > 0) {
+                capacityKbps = receiveKbps;
+                targetKbps = Math.min(targetKbps, receiveKbps);
+            }
+            targetKbps *= DECREASE;
+        } else if (lossFraction > LOSS_HIGH) {
+            if (squeezed) {
+                capacityKbps = receiveKbps;
+                targetKbps = Math.min(targetKbps, receiveKbps);
+            }
+            targetKbps *= 1 - lossFraction / 512.0;
+        } else if (queueDelayMs < QUEUE_LOW_MS && lossFraction < LOSS_LOW) {
+            if (capacityKbps > 0 && targetKbps * INCREASE > capacityKbps) targetKbps += 1;
+            else targetKbps *= INCREASE;
+            targetKbps = Math.min(ceiling, targetKbps);
+        }
+        choose(rate, frameMs, squeezed || queueDelayMs > QUEUE_LOW_MS);
+    }
+
+    // Best mode under the target, trying more frames per packet only once no single-frame
+    // mode fits. While the queue grows FEC goes before codec quality; otherwise the loss
+    // is the link's own and FEC is kept at the cost of quality
+    private void choose(int rate, int frameMs, boolean congested) {
+        int wantedFec = redundancy.getLevel();
+        int maxBundle = bundling ? Math.max(1, MAX_BUNDLE_MS / frameMs) : 1;
+        for (int bundle = 1; bundle <= maxBundle; bundle++) {
+            for (int a = 0; a < (congested ? ladder.length : wantedFec + 1); a++) {
+                for (int b = 0; b < (congested ? wantedFec + 1 : ladder.length); b++) {
+                    int step = congested ? a : b;
+                    int fec = wantedFec - (congested ? b : a);
+                    if (kbps(ladder[step], bundle, fec, rate, frameMs) <= targetKbps) {
+                        apply(ladder[step], bundle, fec, wantedFec);
+                        return;
+                    }
+                }
+            }
+        }
+        apply(ladder[ladder.length - 1], maxBundle, 0, wantedFec);
+    }
+
+    private void apply(int codec, int bundle, int fec, int wantedFec) {
+        this.codec = codec;
+        framesPerPacket = bundle;
+        sender.setCodec(codec);
+        sender.setFramesPerPacket(bundle);
+        if (fec < wantedFec) redundancy.setLevel(fec);
+    }
+
+    /** Link bitrate of a mode while talking, headers and redundant copies included. */
+    double kbps(int codecId, int bundle, int fec, int rate, int frameMs) {
+        int samples = CallParams.frameSamples(rate, frameMs);
+        int bytes = PacketHeader.UDP_OVERHEAD + PacketHeader.SIZE
+                + bundle * codecs[codecId].maxEncodedSize(samples);
+        if (bundle > 1) bytes += 1 + 2 * bundle;
+        if (fec > 0) bytes += 1 + fec * (FrameRedundancy.BLOCK_HEADER + codecs[Codecs.ADPCM].maxEncodedSize(samples));
+        return bytes * 8.0 / (bundle * frameMs);
+    }
+}
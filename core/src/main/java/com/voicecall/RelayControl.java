@@ -0,0 +1,40 @@
+package com.voicecall;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The control datagrams a call sends a relay server (the {@code :relay}
+ * module) from its own socket, so the relay learns the address it can be
+ * reached at. A host registers the room under its code; a guest joins it
+ * and is given a port of the relay's own, which the host sees as that
+ * guest's address. The join names the guest's SSRC, so a guest whose
+ * address changes keeps its port. Everything else the two send through
+ * the relay is the call's packets, forwarded untouched. Control datagrams are text, like
+ * discovery's, and start with a byte no call packet starts with; both are
+ * resent now and then to keep the relay's entry, and any NAT on the way,
+ * alive. The relay sends nothing back but the peer's packets.
+ */
+public final class RelayControl {
+
+    public static final int DEFAULT_PORT = 50007;
+    public static final String HOST = "RELAY-HOST:";
+    public static final String JOIN = "RELAY-JOIN:";
+    /** How often a registration is repeated; the relay forgets one after a few missed. */
+    public static final int REFRESH_MS = 5000;
+    public static final int EXPIRY_MS = 4 * REFRESH_MS;
+
+    private RelayControl() {}
+
+    public static byte[] host(String roomCode) {
+        return (HOST + roomCode).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] join(String roomCode, int ssrc) {
+        return (JOIN + roomCode + ':' + Integer.toHexString(ssrc)).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Whether a datagram starting with {@code first} is control rather than a call packet. */
+    public static boolean isControl(byte first) {
+        return first == 'R';
+    }
+}
@@ -0,0 +1,125 @@
+package com.voicecall;
+
+/**
+ * Streaming polyphase sample-rate converter for any rational ratio. The
+ * prototype is a Kaiser-windowed sinc low-pass cut just below the lower of
+ * the two Nyquist rates, split into one short filter per output phase, so
+ * each output sample costs a single dot product over the input history.
+ * State carries across calls and all buffers are sized up front.
+ */
+public final class Resampler {
+
+    // Zero crossings of the sinc on each side, at the lower of the two rates
+    private static final int HALF_ZEROS = 8;
+    private static final double KAISER_BETA = 8.0;
+    // Passband edge as a fraction of the lower Nyquist rate
+    private static final double CUTOFF = 0.92;
+
+    private final int inRate;
+    private final int outRate;
+    private final int up;
+    private final int down;
+    private final int taps;
+    private final float[][] phases;
+    private final float[] buf;
+    private final int maxInput;
+
+    // Input sample (index into buf) the next output lines up with, and its sub-sample phase
+    private int index;
+    private int phase;
+
+    public Resampler(int inRate, int outRate, int maxInput) {
+        int g = gcd(inRate, outRate);
+        this.inRate = inRate;
+        this.outRate = outRate;
+        this.up = outRate / g;
+        this.down = inRate / g;
+        this.maxInput = maxInput;
+        taps = 2 * HALF_ZEROS * Math.max(1, (down + up - 1) / up);
+        phases = design(up, down, taps);
+        buf = new float[taps - 1 + maxInput];
+        index = taps - 1;
+    }
+
+    public int getInRate() { return inRate; }
+    public int getOutRate() { return outRate; }
+
+    /** Most samples one call can produce from {@code inSamples} of input. */
+    public int maxOutput(int inSamples) {
+        return (int) (((long) inSamples * up + down - 1) / down) + 1;
+    }
+
+    /** Group delay of the filter in output samples. */
+    public int delaySamples() {
+        return (int) ((long) (taps / 2) * outRate / inRate);
+    }
+
+    /**
+     * Converts {@code samples} input samples and returns how many were
+     * written to {@code out}; the count varies by one between calls when
+     * the ratio isn't a whole number.
+     */
+    public int process(short[] in, int off, int samples, short[] out, int outOff) {
+        if (samples > maxInput) throw new IllegalArgumentException("input larger than " + maxInput);
+        int hist = taps - 1;
+        for (int i = 0; i < samples; i++) buf[hist + i] = in[off + i];
+        int end = hist + samples;
+        int o = outOff;
+        int i = index;
+        int p = phase;
+        while (i < end) {
+            float[] h = phases[p];
+            float acc = 0;
+            for (int j = 0, k = i; j < taps; j++, k--) acc += h[j] * buf[k];
+            int s = Math.round(acc);
+            out[o++] = (short) (s > 32767 ? 32767 : s < -32768 ? -32768 : s);
+            p += down;
+            i += p / up;
+            p %= up;
+        }
+        index = i - samples;
+        phase = p;
+        System.arraycopy(buf, samples, buf, 0, hist);
+        return o - outOff;
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(buf, 0);
+        index = taps - 1;
+        phase = 0;
+    }
+
+    // phases[p][j] = h[p + j * up] of the prototype sampled at inRate * up
+    private static float[][] design(int up, int down, int taps) {
+        int length = up * taps;
+        double cutoff = CUTOFF * 0.5 / Math.max(up, down);
+        double center = (length - 1) / 2.0;
+        double norm = bessel0(KAISER_BETA);
+        float[][] phases = new float[up][taps];
+        for (int m = 0; m < length; m++) {
+            double t = m - center;
+            double x = 2 * cutoff * t;
+            double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+            double r = t / center;
+            double window = bessel0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / norm;
+            // Gain of up makes up for the zeros stuffed between input samples
+            phases[m % up][m / up] = (float) (up * 2 * cutoff * sinc * window);
+        }
+        return phases;
+    }
+
+    private static double bessel0(double x) {
+        double sum = 1, term = 1, q = x * x / 4;
+        for (int k = 1; k < 50; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+            if (term < sum * 1e-12) break;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) { int t = a % b; a = b; b = t; }
+        return a;
+    }
+}
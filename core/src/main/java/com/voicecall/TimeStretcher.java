@@ -0,0 +1,106 @@
+package com.voicecall;
+
+/**
+ * WSOLA time-scale modification for small playout corrections. Rather
+ * than resampling, which would shift pitch, it finds the lag at which the
+ * audio best matches itself, a pitch period in voiced speech, and removes
+ * or repeats one such period with a crossfade across the seam. Where no
+ * lag matches well enough and the audio isn't quiet, it leaves the audio
+ * alone and the caller tries again on a later frame.
+ */
+public final class TimeStretcher {
+
+    // Periods searched: 400 Hz down to about 67 Hz
+    private static final int MIN_PERIOD_US = 2500;
+    private static final int MAX_PERIOD_US = 15000;
+    // Normalised correlation below which the seam would be heard
+    private static final double MIN_CORRELATION = 0.6;
+    // RMS below which any seam is inaudible
+    private static final double QUIET_RMS = 64;
+
+    private final int sampleRate;
+    private final int minLag;
+    private final int maxLag;
+    // The coarse search looks at every step-th sample, about 8 kHz worth
+    private final int step;
+
+    public TimeStretcher(int sampleRate) {
+        this.sampleRate = sampleRate;
+        minLag = (int) ((long) sampleRate * MIN_PERIOD_US / 1_000_000);
+        maxLag = (int) ((long) sampleRate * MAX_PERIOD_US / 1_000_000);
+        step = Math.max(1, sampleRate / 8000);
+    }
+
+    public int getSampleRate() { return sampleRate; }
+
+    /** The shortest change {@link #shorten} or {@link #lengthen} can make. */
+    public int getMinLag() { return minLag; }
+
+    /**
+     * Removes one period from {@code pcm[off, off + len)} in place, no more
+     * than {@code maxRemove} samples. Returns how many were removed, 0 if no
+     * seam was good enough.
+     */
+    public int shorten(short[] pcm, int off, int len, int maxRemove) {
+        int lag = bestLag(pcm, off, Math.min(maxRemove, len / 2));
+        if (lag == 0) return 0;
+        // Fade the first period into the second, then close the gap
+        for (int i = 0; i < lag; i++) {
+            pcm[off + i] = (short) ((pcm[off + i] * (lag - i) + pcm[off + lag + i] * i) / lag);
+        }
+        System.arraycopy(pcm, off + 2 * lag, pcm, off + lag, len - 2 * lag);
+        return lag;
+    }
+
+    /**
+     * Repeats one period in {@code pcm[off, off + len)}, which must have room
+     * for {@code maxAdd} more samples after it. Returns how many were added,
+     * 0 if no seam was good enough.
+     */
+    public int lengthen(short[] pcm, int off, int len, int maxAdd) {
+        int lag = bestLag(pcm, off, Math.min(maxAdd, len / 2));
+        if (lag == 0) return 0;
+        // Play the first two periods, then fade from the second back into a copy of the
+        // first, which carries on into the second again
+        System.arraycopy(pcm, off + lag, pcm, off + 2 * lag, len - lag);
+        for (int i = 0; i < lag; i++) {
+            pcm[off + lag + i] = (short) ((pcm[off + 2 * lag + i] * (lag - i) + pcm[off + i] * i) / lag);
+        }
+        return lag;
+    }
+
+    // Lag in [minLag, limit] where pcm[off, off + lag) best matches the period after it,
+    // or 0 if none is good enough
+    private int bestLag(short[] pcm, int off, int limit) {
+        int hi = Math.min(maxLag, limit);
+        if (hi < minLag) return 0;
+        int best = 0;
+        double bestCorr = -1;
+        for (int lag = minLag; lag <= hi; lag += step) {
+            double c = correlation(pcm, off, lag, step);
+            if (c > bestCorr) { bestCorr = c; best = lag; }
+        }
+        // Refine around the coarse pick at full resolution
+        for (int lag = Math.max(minLag, best - step + 1); lag <= Math.min(hi, best + step - 1); lag++) {
+            double c = correlation(pcm, off, lag, 1);
+            if (c > bestCorr) { bestCorr = c; best = lag; }
+        }
+        if (bestCorr >= MIN_CORRELATION) return best;
+        long energy = 0;
+        for (int i = 0; i < 2 * best; i++) energy += pcm[off + i] * pcm[off + i];
+        return energy < QUIET_RMS * QUIET_RMS * 2 * best ? best : 0;
+    }
+
+    private static double correlation(short[] pcm, int off, int lag, int step) {
+        long xy = 0, xx = 0, yy = 0;
+        for (int i = 0; i < lag; i += step) {
+            int x = pcm[off + i];
+            int y = pcm[off + lag + i];
+            xy += x * y;
+            xx += x * x;
+            yy += y * y;
+        }
+        if (xx == 0 || yy == 0) return xx == yy ? 1 : 0;
+        return xy / Math.sqrt((double) xx * yy);
+    }
+}
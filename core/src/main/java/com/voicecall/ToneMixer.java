@@ -0,0 +1,126 @@
+package com.voicecall;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Call-progress tones, decoded once into PCM at the speaker's rate and
+ * added into whatever the playout thread is about to write, so they need
+ * no player, no decoding when they sound and no audio session of their
+ * own. Any thread may start or stop a tone; the playout thread picks the
+ * request up at its next frame and mixes without allocating or locking. A
+ * tone that hasn't been loaded plays as nothing.
+ */
+public final class ToneMixer {
+
+    public static final int DIAL = 0;
+    public static final int CONNECT = 1;
+    public static final int DISCONNECT = 2;
+    private static final int TONES = 3;
+
+    // Request word: a sequence number above the flags, so asking again restarts a tone
+    private static final int TONE_MASK = 0x0F;
+    private static final int LOOP = 0x10;
+    private static final int SEQ_SHIFT = 8;
+    private static final int LOAD_CHUNK = 4096;
+
+    private final int sampleRate;
+    // Replaced whole on each load, so the playout thread reads it without a lock
+    private volatile short[][] tones = new short[TONES][];
+    private final AtomicInteger request = new AtomicInteger();
+
+    // Playout thread only
+    private int seen;
+    private short[] playing;
+    private boolean looping;
+    private int position;
+
+    public ToneMixer(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public int getSampleRate() { return sampleRate; }
+
+    /** Decodes all of {@code source} as {@code tone}, resampled to our rate, and closes it. */
+    public void load(int tone, AudioSource source) throws IOException {
+        try {
+            int rate = source.getSampleRate();
+            Resampler resampler = rate == sampleRate ? null : new Resampler(rate, sampleRate, LOAD_CHUNK);
+            short[] chunk = new short[LOAD_CHUNK];
+            short[] converted = new short[resampler != null ? resampler.maxOutput(LOAD_CHUNK) : LOAD_CHUNK];
+            short[] pcm = new short[LOAD_CHUNK];
+            int length = 0;
+            int n;
+            while ((n = source.read(chunk, 0, LOAD_CHUNK)) > 0) {
+                short[] from = chunk;
+                if (resampler != null) {
+                    n = resampler.process(chunk, 0, n, converted, 0);
+                    from = converted;
+                }
+                if (length + n > pcm.length) pcm = Arrays.copyOf(pcm, Math.max(pcm.length * 2, length + n));
+                System.arraycopy(from, 0, pcm, length, n);
+                length += n;
+            }
+            if (length == 0) throw new IOException("empty tone");
+            short[] loaded = Arrays.copyOf(pcm, length);
+            synchronized (this) {
+                short[][] next = tones.clone();
+                next[tone] = loaded;
+                tones = next;
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /** Plays {@code tone} once, cutting off whatever was playing. */
+    public void play(int tone) { post(tone, false); }
+
+    /** Plays {@code tone} over and over until {@link #stop} or another tone. */
+    public void loop(int tone) { post(tone, true); }
+
+    public void stop() { post(-1, false); }
+
+    private void post(int tone, boolean loop) {
+        int flags = (tone + 1) | (loop ? LOOP : 0);
+        int r;
+        do {
+            r = request.get();
+        } while (!request.compareAndSet(r, ((r >>> SEQ_SHIFT) + 1) << SEQ_SHIFT | flags));
+    }
+
+    /**
+     * Playout thread: whether a tone has samples left for the coming frame.
+     * Worth asking first, so a frame with nothing to add isn't touched.
+     */
+    public boolean isActive() {
+        int r = request.get();
+        if (r != seen) {
+            seen = r;
+            int tone = (r & TONE_MASK) - 1;
+            playing = tone < 0 ? null : tones[tone];
+            looping = (r & LOOP) != 0;
+            position = 0;
+        }
+        return playing != null;
+    }
+
+    /** Playout thread: adds the next {@code samples} of the tone into {@code pcm}, saturating. */
+    public void mixInto(short[] pcm, int off, int samples) {
+        if (!isActive()) return;
+        short[] tone = playing;
+        for (int i = 0; i < samples; i++) {
+            if (position == tone.length) {
+                if (!looping) {
+                    playing = null;
+                    return;
+                }
+                position = 0;
+            }
+            int s = pcm[off + i] + tone[position++];
+            pcm[off + i] = (short) (s > 32767 ? 32767 : s < -32768 ? -32768 : s);
+        }
+        if (position == tone.length && !looping) playing = null;
+    }
+}
@@ -0,0 +1,81 @@
+package com.voicecall;
+
+/**
+ * Energy and zero-crossing voice activity detector. The noise floor tracks
+ * quiet frames quickly and loud ones slowly, a frame counts as speech when
+ * it stands clearly above the floor (or moderately above it with the high
+ * zero-crossing rate of fricatives), and a hangover keeps word endings from
+ * being clipped.
+ */
+public final class VoiceActivityDetector {
+
+    private static final double SPEECH_MARGIN_DB = 9.0;
+    private static final double FRICATIVE_MARGIN_DB = 4.0;
+    // Crossings per second of the broadband noise in fricatives, independent of the sample rate
+    private static final int FRICATIVE_CROSSINGS_PER_SEC = 2000;
+    private static final double ABSOLUTE_FLOOR_DB = 20.0;
+    private static final int HANGOVER_MS = 300;
+
+    private final int hangoverFrames;
+    private final double fricativeZcr;
+    private double noiseFloorDb = 40.0;
+    private double lastEnergyDb;
+    private double lastZcr;
+    private int hangover;
+    private boolean speech;
+
+    public VoiceActivityDetector(int sampleRate, int frameMs) {
+        hangoverFrames = Math.max(1, HANGOVER_MS / frameMs);
+        fricativeZcr = (double) FRICATIVE_CROSSINGS_PER_SEC / sampleRate;
+    }
+
+    /** Classifies one frame; returns true while speech (or its hangover) is active. */
+    public boolean process(short[] pcm, int off, int samples) {
+        if (samples <= 0) return speech;
+        long sum = 0;
+        int crossings = 0;
+        int prev = pcm[off];
+        for (int i = 0; i < samples; i++) {
+            int s = pcm[off + i];
+            sum += (long) s * s;
+            if ((s ^ prev) < 0) crossings++;
+            prev = s;
+        }
+        double rms = Math.sqrt((double) sum / samples);
+        lastEnergyDb = 20 * Math.log10(rms + 1);
+        lastZcr = (double) crossings / samples;
+
+        boolean voiced = lastEnergyDb > noiseFloorDb + SPEECH_MARGIN_DB;
+        boolean active = lastEnergyDb > ABSOLUTE_FLOOR_DB
+                && (voiced || (lastEnergyDb > noiseFloorDb + FRICATIVE_MARGIN_DB && lastZcr > fricativeZcr));
+
+        // Fall quickly to quieter frames, creep up so sustained speech doesn't become the floor.
+        // A steady hiss passes for a fricative, so only voiced frames hold the floor back
+        if (lastEnergyDb < noiseFloorDb) noiseFloorDb += (lastEnergyDb - noiseFloorDb) * 0.5;
+        else if (!voiced) noiseFloorDb += (lastEnergyDb - noiseFloorDb) * 0.05;
+        else noiseFloorDb += 0.01;
+
+        if (active) {
+            hangover = hangoverFrames;
+        } else if (hangover > 0) {
+            hangover--;
+            active = true;
+        }
+        speech = active;
+        return speech;
+    }
+
+    /** Estimated background noise as a linear RMS amplitude, for silence descriptors. */
+    public int getNoiseLevel() {
+        return (int) Math.min(32767, Math.pow(10, noiseFloorDb / 20) - 1);
+    }
+
+    public double getLastEnergyDb() { return lastEnergyDb; }
+    public double getLastZcr() { return lastZcr; }
+
+    public void reset() {
+        noiseFloorDb = 40.0;
+        hangover = 0;
+        speech = false;
+    }
+}
@@ -0,0 +1,100 @@
+package com.voicecall;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes 16-bit mono PCM to a WAV file. The header's sizes are filled in
+ * on {@link #close}. In real-time mode writes are paced to the sample rate
+ * like a speaker would consume them.
+ */
+public final class WavAudioSink implements AudioSink {
+
+    static final int HEADER_SIZE = 44;
+
+    private final File file;
+    private final OutputStream out;
+    private final int sampleRate;
+    private final boolean realTime;
+    private byte[] raw = new byte[0];
+    private long startNanos;
+    private long written;
+    private boolean closed;
+
+    public WavAudioSink(File file, int sampleRate, boolean realTime) throws IOException {
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.realTime = realTime;
+        out = new BufferedOutputStream(new FileOutputStream(file));
+        out.write(header(sampleRate, 1, 0));
+    }
+
+    @Override public int getSampleRate() { return sampleRate; }
+
+    @Override
+    public int write(short[] pcm, int off, int samples) {
+        if (closed) return 0;
+        if (startNanos == 0) startNanos = System.nanoTime();
+        int bytes = samples * 2;
+        if (raw.length < bytes) raw = new byte[bytes];
+        for (int i = 0, b = 0; i < samples; i++, b += 2) {
+            raw[b] = (byte) pcm[off + i];
+            raw[b + 1] = (byte) (pcm[off + i] >> 8);
+        }
+        try {
+            out.write(raw, 0, bytes);
+        } catch (IOException e) {
+            return 0;
+        }
+        written += samples;
+        if (realTime) WavAudioSource.pace(startNanos, written, sampleRate);
+        return samples;
+    }
+
+    @Override public int getPendingSamples() { return 0; }
+
+    public long getWrittenSamples() { return written; }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+            try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+                f.write(header(sampleRate, 1, written * 2));
+            }
+        } catch (IOException ignored) {}
+    }
+
+    /** Canonical 44-byte header for 16-bit PCM; sizes past 4 GB are clamped. */
+    static byte[] header(int sampleRate, int channels, long dataBytes) {
+        byte[] h = new byte[HEADER_SIZE];
+        putTag(h, 0, "RIFF");
+        putLe(h, 4, (int) Math.min(0xFFFFFFFFL, dataBytes + HEADER_SIZE - 8), 4);
+        putTag(h, 8, "WAVE");
+        putTag(h, 12, "fmt ");
+        putLe(h, 16, 16, 4);
+        putLe(h, 20, 1, 2);
+        putLe(h, 22, channels, 2);
+        putLe(h, 24, sampleRate, 4);
+        putLe(h, 28, sampleRate * 2 * channels, 4);
+        putLe(h, 32, 2 * channels, 2);
+        putLe(h, 34, 16, 2);
+        putTag(h, 36, "data");
+        putLe(h, 40, (int) Math.min(0xFFFFFFFFL, dataBytes), 4);
+        return h;
+    }
+
+    private static void putTag(byte[] h, int off, String tag) {
+        for (int i = 0; i < 4; i++) h[off + i] = (byte) tag.charAt(i);
+    }
+
+    private static void putLe(byte[] h, int off, int v, int bytes) {
+        for (int i = 0; i < bytes; i++) h[off + i] = (byte) (v >>> (8 * i));
+    }
+}
@@ -0,0 +1,141 @@
+package com.voicecall;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads 16-bit PCM from a WAV file, mixing multi-channel audio down to
+ * mono. In real-time mode reads are paced to the file's sample rate, so a
+ * call driven by it behaves like one driven by a microphone; otherwise
+ * the file is read as fast as it is asked for.
+ */
+public final class WavAudioSource implements AudioSource {
+
+    private final InputStream in;
+    private final boolean realTime;
+    private final int sampleRate;
+    private final int channels;
+    private long remainingBytes;
+    private byte[] raw = new byte[0];
+    private long startNanos;
+    private long delivered;
+
+    public WavAudioSource(File file, boolean realTime) throws IOException {
+        this(new FileInputStream(file), realTime);
+    }
+
+    /** Reads from {@code stream}, such as a bundled resource; closing the source closes it. */
+    public WavAudioSource(InputStream stream, boolean realTime) throws IOException {
+        this.realTime = realTime;
+        in = new BufferedInputStream(stream);
+        try {
+            if (readTag() != tag("RIFF")) throw new IOException("not a RIFF file");
+            readLe(4);
+            if (readTag() != tag("WAVE")) throw new IOException("not a WAVE file");
+            int rate = 0, ch = 0;
+            while (true) {
+                int id = readTag();
+                long size = readLe(4) & 0xFFFFFFFFL;
+                if (id == tag("fmt ")) {
+                    int format = (int) readLe(2);
+                    ch = (int) readLe(2);
+                    rate = (int) readLe(4);
+                    readLe(6);
+                    int bits = (int) readLe(2);
+                    if (format != 1 || bits != 16) throw new IOException("only 16-bit PCM is supported");
+                    skip(size - 16 + (size & 1));
+                } else if (id == tag("data")) {
+                    if (rate == 0) throw new IOException("data before fmt chunk");
+                    remainingBytes = size;
+                    break;
+                } else {
+                    skip(size + (size & 1));
+                }
+            }
+            sampleRate = rate;
+            channels = ch;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    @Override public int getSampleRate() { return sampleRate; }
+
+    @Override
+    public int read(short[] pcm, int off, int samples) {
+        if (startNanos == 0) startNanos = System.nanoTime();
+        int frameBytes = 2 * channels;
+        int want = (int) Math.min(samples, remainingBytes / frameBytes);
+        if (want <= 0) return -1;
+        int bytes = want * frameBytes;
+        if (raw.length < bytes) raw = new byte[bytes];
+        int got = 0;
+        try {
+            while (got < bytes) {
+                int n = in.read(raw, got, bytes - got);
+                if (n < 0) break;
+                got += n;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        int n = got / frameBytes;
+        if (n == 0) return -1;
+        remainingBytes -= (long) n * frameBytes;
+        for (int i = 0, b = 0; i < n; i++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++, b += 2) sum += (short) (raw[b] & 0xFF | raw[b + 1] << 8);
+            pcm[off + i] = (short) (sum / channels);
+        }
+        delivered += n;
+        if (realTime) pace(startNanos, delivered, sampleRate);
+        return n;
+    }
+
+    @Override
+    public void close() {
+        try { in.close(); } catch (IOException ignored) {}
+    }
+
+    /** Sleeps until {@code samples} at {@code sampleRate} have had time to play since {@code startNanos}. */
+    static void pace(long startNanos, long samples, int sampleRate) {
+        long due = startNanos + samples * 1_000_000_000L / sampleRate;
+        long wait = due - System.nanoTime();
+        if (wait <= 0) return;
+        try { Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000)); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    private int readTag() throws IOException {
+        return (int) readLe(4);
+    }
+
+    private static int tag(String s) {
+        return s.charAt(0) | s.charAt(1) << 8 | s.charAt(2) << 16 | s.charAt(3) << 24;
+    }
+
+    private long readLe(int bytes) throws IOException {
+        long v = 0;
+        for (int i = 0; i < bytes; i++) {
+            int b = in.read();
+            if (b < 0) throw new IOException("truncated WAV header");
+            v |= (long) b << (8 * i);
+        }
+        return v;
+    }
+
+    private void skip(long n) throws IOException {
+        while (n > 0) {
+            long s = in.skip(n);
+            if (s <= 0) {
+                if (in.read() < 0) throw new IOException("truncated WAV file");
+                s = 1;
+            }
+            n -= s;
+        }
+    }
+}
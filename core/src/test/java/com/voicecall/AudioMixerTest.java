@@ -0,0 +1,106 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioMixerTest {
+
+    private static final int FRAME = 160;
+
+    private static short[] constant(int value) {
+        short[] pcm = new short[FRAME];
+        java.util.Arrays.fill(pcm, (short) value);
+        return pcm;
+    }
+
+    @Test
+    public void mixMinusLeavesOutTheListenersOwnInput() {
+        AudioMixer mixer = new AudioMixer(4, FRAME);
+        mixer.begin(FRAME);
+        mixer.add(0, constant(100), 0);
+        mixer.add(1, constant(20), 0);
+        mixer.add(2, constant(3), 0);
+        short[] out = new short[FRAME];
+        int[] expected = {23, 103, 120};
+        for (int input = 0; input < 3; input++) {
+            mixer.mixMinus(input, out, 0);
+            for (short s : out) assertEquals("listener " + input, expected[input], s);
+        }
+        // Someone who added nothing this frame hears everyone, as does a recorder
+        mixer.mixMinus(3, out, 0);
+        assertEquals(123, out[0]);
+        mixer.mix(out, 0);
+        assertEquals(123, out[FRAME - 1]);
+    }
+
+    @Test
+    public void eachFrameStartsFromSilence() {
+        AudioMixer mixer = new AudioMixer(2, FRAME);
+        mixer.begin(FRAME);
+        mixer.add(0, constant(500), 0);
+        mixer.add(1, constant(700), 0);
+        mixer.begin(FRAME);
+        mixer.add(1, constant(9), 0);
+        short[] out = new short[FRAME];
+        mixer.mixMinus(1, out, 0);
+        assertEquals(0, out[0]);
+        mixer.mixMinus(0, out, 0);
+        assertEquals(9, out[0]);
+    }
+
+    @Test
+    public void readsInputsAtTheirOffsets() {
+        AudioMixer mixer = new AudioMixer(2, FRAME);
+        short[] shared = new short[FRAME * 2];
+        for (int i = 0; i < FRAME; i++) { shared[i] = 1; shared[FRAME + i] = 1000; }
+        mixer.begin(FRAME);
+        mixer.add(0, shared, 0);
+        mixer.add(1, shared, FRAME);
+        short[] out = new short[FRAME + 4];
+        mixer.mixMinus(1, out, 4);
+        assertEquals(0, out[3]);
+        assertEquals(1, out[4]);
+        assertEquals(1, out[FRAME + 3]);
+    }
+
+    @Test
+    public void softLimitsInsteadOfWrapping() {
+        AudioMixer mixer = new AudioMixer(8, FRAME);
+        mixer.begin(FRAME);
+        for (int input = 0; input < 8; input++) mixer.add(input, constant(30000), 0);
+        short[] out = new short[FRAME];
+        mixer.mixMinus(0, out, 0);
+        assertTrue(out[0] > 32000);
+        mixer.begin(FRAME);
+        for (int input = 0; input < 8; input++) mixer.add(input, constant(-30000), 0);
+        mixer.mix(out, 0);
+        assertTrue(out[0] < -32000);
+
+        // Transparent below the knee, monotonic and bounded above it
+        assertEquals(24000, AudioMixer.limit(24000));
+        assertEquals(-24000, AudioMixer.limit(-24000));
+        short previous = AudioMixer.limit(0);
+        for (int x = 0; x <= 8 * 32768; x += 64) {
+            short y = AudioMixer.limit(x);
+            assertTrue(y >= previous && y <= 32767);
+            assertEquals(-y, AudioMixer.limit(-x));
+            previous = y;
+        }
+    }
+
+    @Test
+    public void frameQueueHandsFramesOverInOrderAndDropsWhenFull() {
+        FrameQueue queue = new FrameQueue(4, FRAME);
+        for (int f = 0; f < 5; f++) assertEquals(f < 4, queue.offer(constant(f), 0, FRAME));
+        assertEquals(1, queue.getDropped());
+        short[] out = new short[FRAME];
+        for (int f = 0; f < 4; f++) {
+            assertEquals(FRAME, queue.poll(out, 0));
+            assertEquals(f, out[FRAME - 1]);
+        }
+        assertEquals(0, queue.poll(out, 0));
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,110 @@
+package com.voicecall;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A guest speaks a tone from a WAV file to a host over loopback,
+ * encrypted, with both files paced in real time, and the host's playout
+ * is written out and checked for the tone.
+ */
+public class CallSessionTest {
+
+    private static final int RATE = 16000;
+    private static final double TONE_HZ = 440;
+
+    private NetLoop loop;
+    private File in;
+    private File out;
+    private volatile Exception audioFailure;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = new NetLoop(CallSession.MAX_PACKET);
+        loop.start("test-net");
+        in = File.createTempFile("voicecall-in", ".wav");
+        out = File.createTempFile("voicecall-out", ".wav");
+        WavAudioSink tone = new WavAudioSink(in, RATE, false);
+        short[] pcm = new short[RATE * 2];
+        for (int i = 0; i < pcm.length; i++) pcm[i] = (short) (10000 * Math.sin(2 * Math.PI * TONE_HZ * i / RATE));
+        tone.write(pcm, 0, pcm.length);
+        tone.close();
+    }
+
+    @After
+    public void tearDown() {
+        loop.shutdown();
+        in.delete();
+        out.delete();
+    }
+
+    @Test(timeout = 20000)
+    public void hostPlaysWhatTheGuestSays() throws Exception {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) { port = probe.getLocalPort(); }
+
+        WavAudioSource source = new WavAudioSource(in, true);
+        WavAudioSink sink = new WavAudioSink(out, RATE, true);
+        CountDownLatch connected = new CountDownLatch(1);
+        CallSession host = new CallSession(loop, true, CallParams.DEFAULT_FRAME_MS, RATE, "4711", new CallSession.Listener() {
+            @Override public void onConnected() { connected.countDown(); }
+            @Override public void onParticipantsChanged(int count) {}
+            @Override public void onAudioFailed(Exception e) { audioFailure = e; }
+        });
+        CallSession guest = new CallSession(loop, false, CallParams.DEFAULT_FRAME_MS, RATE, "4711", new CallSession.Listener() {
+            @Override public void onConnected() {}
+            @Override public void onParticipantsChanged(int count) {}
+            @Override public void onAudioFailed(Exception e) { audioFailure = e; }
+        });
+        host.listen(port);
+        guest.connect(new InetSocketAddress("127.0.0.1", port));
+        // The host's loops run once the first guest is in
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        Thread playout = new Thread(() -> host.runPlayout(sink), "test-playout");
+        playout.start();
+        Thread capture = new Thread(() -> guest.runCapture(source), "test-capture");
+        capture.start();
+        capture.join();
+        Thread.sleep(500);
+        guest.stop();
+        host.stop();
+        playout.join();
+        source.close();
+        sink.close();
+
+        assertNull(audioFailure);
+        assertEquals(1, host.getParticipants().length);
+        assertEquals(RATE, host.getSampleRate());
+        CallStats.Snapshot stats = host.getParticipants()[0].getStats().snapshot();
+        assertTrue("received " + stats.packetsReceived, stats.packetsReceived > 2000 / host.getFrameMs() * 9 / 10);
+        assertEquals(0, stats.packetsLost);
+
+        // The tone must come through at about its level somewhere in the second half
+        WavAudioSource played = new WavAudioSource(out, false);
+        short[] pcm = new short[RATE * 4];
+        int n = 0, r;
+        while ((r = played.read(pcm, n, Math.min(1024, pcm.length - n))) > 0) n += r;
+        played.close();
+        assertTrue("played " + n, n > RATE * 2);
+        double re = 0, im = 0;
+        int from = n / 2 - RATE / 2, to = n / 2;
+        for (int i = from; i < to; i++) {
+            double w = 2 * Math.PI * TONE_HZ * i / RATE;
+            re += pcm[i] * Math.cos(w);
+            im += pcm[i] * Math.sin(w);
+        }
+        double amplitude = 2 * Math.hypot(re, im) / (to - from);
+        assertTrue("tone amplitude " + amplitude, amplitude > 5000);
+    }
+}
@@ -0,0 +1,71 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checked byte for byte against the JDK's own ChaCha20-Poly1305. */
+public class ChaCha20Poly1305Test {
+
+    @Test
+    public void matchesTheJdkOnRandomInputs() throws Exception {
+        Random random = new Random(1);
+        for (int run = 0; run < 200; run++) {
+            byte[] key = new byte[ChaCha20Poly1305.KEY_SIZE];
+            byte[] nonce = new byte[12];
+            byte[] aad = new byte[random.nextInt(40)];
+            byte[] plain = new byte[random.nextInt(2000)];
+            random.nextBytes(key);
+            random.nextBytes(nonce);
+            random.nextBytes(aad);
+            random.nextBytes(plain);
+
+            Cipher jdk = Cipher.getInstance("ChaCha20-Poly1305");
+            jdk.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "ChaCha20"), new IvParameterSpec(nonce));
+            jdk.updateAAD(aad);
+            byte[] expected = jdk.doFinal(plain);
+
+            ChaCha20Poly1305 aead = new ChaCha20Poly1305(key, 0);
+            int n0 = ChaCha20Poly1305.le32(nonce, 0), n1 = ChaCha20Poly1305.le32(nonce, 4), n2 = ChaCha20Poly1305.le32(nonce, 8);
+            byte[] sealed = new byte[plain.length + ChaCha20Poly1305.TAG_SIZE];
+            aead.seal(n0, n1, n2, aad, 0, aad.length, plain, 0, plain.length, sealed, 0);
+            assertArrayEquals("run " + run, expected, sealed);
+
+            byte[] opened = new byte[plain.length];
+            assertTrue(aead.open(n0, n1, n2, aad, 0, aad.length, sealed, 0, plain.length, opened, 0));
+            assertArrayEquals(plain, opened);
+        }
+    }
+
+    @Test
+    public void refusesTamperedPacketsWithoutDecrypting() {
+        byte[] key = new byte[ChaCha20Poly1305.KEY_SIZE];
+        Arrays.fill(key, (byte) 7);
+        ChaCha20Poly1305 aead = new ChaCha20Poly1305(key, 0);
+        byte[] aad = {1, 2, 3, 4};
+        byte[] plain = new byte[160];
+        byte[] sealed = new byte[plain.length + ChaCha20Poly1305.TAG_SIZE];
+        aead.seal(1, 2, 3, aad, 0, aad.length, plain, 0, plain.length, sealed, 0);
+
+        byte[] out = new byte[plain.length];
+        Arrays.fill(out, (byte) 0x55);
+        sealed[10] ^= 1;
+        assertFalse(aead.open(1, 2, 3, aad, 0, aad.length, sealed, 0, plain.length, out, 0));
+        sealed[10] ^= 1;
+        aad[0] ^= 1;
+        assertFalse(aead.open(1, 2, 3, aad, 0, aad.length, sealed, 0, plain.length, out, 0));
+        aad[0] ^= 1;
+        assertFalse(aead.open(1, 2, 4, aad, 0, aad.length, sealed, 0, plain.length, out, 0));
+        for (byte b : out) assertTrue(b == 0x55);
+        assertTrue(aead.open(1, 2, 3, aad, 0, aad.length, sealed, 0, plain.length, out, 0));
+    }
+}
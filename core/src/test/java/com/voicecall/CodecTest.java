@@ -0,0 +1,108 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodecTest {
+
+    private static final int RATE = 8000;
+    private static final int FRAME = 512;
+
+    // A 440 Hz tone sliding up an octave, at the given peak level
+    private static short[] tone(int samples, double peak) {
+        short[] pcm = new short[samples];
+        double phase = 0;
+        for (int i = 0; i < samples; i++) {
+            phase += 2 * Math.PI * 440 * (1 + (double) i / samples) / RATE;
+            pcm[i] = (short) Math.round(peak * Math.sin(phase));
+        }
+        return pcm;
+    }
+
+    private static short[] roundTrip(Codec codec, short[] pcm) {
+        Codec decoder = Codecs.create(codec.id());
+        byte[] packet = new byte[codec.maxEncodedSize(FRAME)];
+        short[] out = new short[pcm.length];
+        for (int off = 0; off + FRAME <= pcm.length; off += FRAME) {
+            int len = codec.encode(pcm, off, FRAME, packet, 0);
+            assertTrue(len <= codec.maxEncodedSize(FRAME));
+            assertEquals(FRAME, decoder.decode(packet, 0, len, out, off));
+        }
+        return out;
+    }
+
+    private static double snrDb(short[] ref, short[] out, int from) {
+        double signal = 0, noise = 0;
+        for (int i = from; i < ref.length; i++) {
+            signal += (double) ref[i] * ref[i];
+            noise += (double) (ref[i] - out[i]) * (ref[i] - out[i]);
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+
+    @Test
+    public void pcmIsLossless() {
+        short[] pcm = tone(FRAME * 4, 32767);
+        assertArrayEquals(pcm, roundTrip(new PcmCodec(), pcm));
+    }
+
+    @Test
+    public void muLawErrorStaysWithinItsSegmentStep() {
+        MuLawCodec codec = new MuLawCodec();
+        short[] pcm = new short[65536];
+        for (int i = 0; i < pcm.length; i++) pcm[i] = (short) (i - 32768);
+        byte[] encoded = new byte[pcm.length];
+        short[] out = new short[pcm.length];
+        assertEquals(pcm.length, codec.encode(pcm, 0, pcm.length, encoded, 0));
+        codec.decode(encoded, 0, encoded.length, out, 0);
+        for (int i = 0; i < pcm.length; i++) {
+            // Logarithmic: the step doubles with each segment, about 1/16 of the level
+            int error = Math.abs(pcm[i] - out[i]);
+            assertTrue("sample " + pcm[i] + " decoded as " + out[i], error <= Math.abs(pcm[i]) / 16 + 8);
+        }
+    }
+
+    @Test
+    public void muLawKeepsTollQualityAtLowAndHighLevels() {
+        for (double peak : new double[] {1000, 8000, 30000}) {
+            short[] pcm = tone(FRAME * 8, peak);
+            double snr = snrDb(pcm, roundTrip(new MuLawCodec(), pcm), 0);
+            assertTrue("peak " + peak + ": " + snr + " dB", snr > 30);
+        }
+    }
+
+    @Test
+    public void adpcmTracksSpeechBandTone() {
+        short[] pcm = tone(FRAME * 8, 16000);
+        Codec codec = new AdpcmCodec();
+        assertEquals(4 + FRAME / 2, codec.maxEncodedSize(FRAME));
+        double snr = snrDb(pcm, roundTrip(codec, pcm), FRAME);
+        assertTrue(snr + " dB", snr > 20);
+    }
+
+    @Test
+    public void adpcmFramesDecodeIndependently() {
+        short[] pcm = tone(FRAME * 3, 16000);
+        AdpcmCodec encoder = new AdpcmCodec();
+        byte[][] packets = new byte[3][encoder.maxEncodedSize(FRAME)];
+        for (int f = 0; f < 3; f++) encoder.encode(pcm, f * FRAME, FRAME, packets[f], 0);
+        short[] inOrder = new short[FRAME];
+        short[] alone = new short[FRAME];
+        AdpcmCodec decoder = new AdpcmCodec();
+        decoder.decode(packets[0], 0, packets[0].length, inOrder, 0);
+        decoder.decode(packets[2], 0, packets[2].length, inOrder, 0);
+        new AdpcmCodec().decode(packets[2], 0, packets[2].length, alone, 0);
+        assertArrayEquals(inOrder, alone);
+    }
+
+    @Test
+    public void negotiationPrefersMuLawThenAdpcmAndFallsBackToPcm() {
+        assertEquals(Codecs.PCMU, Codecs.choose(Codecs.SUPPORTED_MASK));
+        assertEquals(Codecs.ADPCM, Codecs.choose(1 << Codecs.PCM | 1 << Codecs.ADPCM));
+        assertEquals(Codecs.PCM, Codecs.choose(0));
+        assertEquals(Codecs.PCM, Codecs.choose(1 << 7));
+    }
+}
@@ -0,0 +1,160 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRedundancyTest {
+
+    private static final int FRAME = 160;
+    private static final int FRAME_MS = 20;
+    private static final int FRAMES = 50;
+
+    private static short[] frame(int seq) {
+        short[] pcm = new short[FRAME];
+        for (int i = 0; i < FRAME; i++)
+            pcm[i] = (short) (6000 * Math.sin(2 * Math.PI * 300 * (seq * FRAME + i) / 8000.0));
+        return pcm;
+    }
+
+    /**
+     * Sends FRAMES packets as MainActivity builds them, drops the given
+     * sequence numbers, and plays the rest back through a jitter buffer.
+     * Returns each played frame, or null where playout reported a loss.
+     */
+    private static short[][] loopback(int level, Set<Integer> dropped, JitterBuffer jb) {
+        FrameRedundancy sender = new FrameRedundancy(FRAME);
+        sender.setLevel(level);
+        Codec[] decoders = Codecs.createAll();
+        Codec pcm = decoders[Codecs.PCM];
+        byte[] buf = new byte[PacketHeader.SIZE + FRAME * 4];
+        byte[] out = new byte[FRAME * 2];
+        short[][] played = new short[FRAMES][];
+        int next = 0;
+        for (int seq = 0; seq < FRAMES + 3; seq++) {
+            if (seq < FRAMES) {
+                short[] frame = frame(seq);
+                int off = PacketHeader.SIZE;
+                int redundant = sender.writeBlocks(seq, buf, off);
+                off += redundant;
+                int len = off + pcm.encode(frame, 0, FRAME, buf, off);
+                PacketHeader.write(buf, PacketHeader.TYPE_AUDIO, pcm.id(),
+                        redundant > 0 ? PacketHeader.FLAG_REDUNDANT : 0, 1, seq, seq * FRAME);
+                sender.remember(seq, frame, 0, FRAME);
+
+                if (!dropped.contains(seq)) {
+                    int start = PacketHeader.SIZE;
+                    if ((PacketHeader.flags(buf) & PacketHeader.FLAG_REDUNDANT) != 0)
+                        start = FrameRedundancy.recover(buf, start, len, seq, jb);
+                    assertTrue(start > 0);
+                    jb.put(seq, PacketHeader.codec(buf), buf, start, len - start, (long) seq * FRAME_MS);
+                }
+            }
+            // Play three frames behind, so a copy carried two packets later is in time
+            if (seq >= 3) {
+                int taken = jb.take(out);
+                if (taken > 0) {
+                    played[next] = new short[FRAME];
+                    decoders[jb.lastTag()].decode(out, 0, taken, played[next], 0);
+                }
+                if (taken != JitterBuffer.EMPTY) next++;
+            }
+        }
+        assertEquals(FRAMES, next);
+        return played;
+    }
+
+    private static JitterBuffer buffer() {
+        return new JitterBuffer(64, FRAME * 2, FRAME_MS, 3, 8);
+    }
+
+    private static double snrDb(short[] reference, short[] decoded) {
+        double signal = 0, noise = 0;
+        for (int i = 0; i < reference.length; i++) {
+            signal += (double) reference[i] * reference[i];
+            double e = reference[i] - decoded[i];
+            noise += e * e;
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+
+    @Test
+    public void recoversASingleLostFrameFromTheNextPacket() {
+        JitterBuffer jb = buffer();
+        short[][] played = loopback(1, new HashSet<>(Arrays.asList(20)), jb);
+        for (int seq = 0; seq < FRAMES; seq++) assertTrue("frame " + seq, played[seq] != null);
+        assertArrayEqualsFrame(frame(19), played[19]);
+        assertTrue(snrDb(frame(20), played[20]) > 15);
+        assertEquals(1, jb.getRecovered());
+        assertEquals(0, jb.getLost());
+    }
+
+    @Test
+    public void oneCopyLeavesHalfOfATwoFrameBurstLost() {
+        JitterBuffer jb = buffer();
+        short[][] played = loopback(1, new HashSet<>(Arrays.asList(20, 21)), jb);
+        assertNull(played[20]);
+        assertNotNull(played[21]);
+        assertEquals(1, jb.getRecovered());
+        assertEquals(1, jb.getLost());
+    }
+
+    @Test
+    public void twoCopiesRecoverATwoFrameBurst() {
+        JitterBuffer jb = buffer();
+        short[][] played = loopback(2, new HashSet<>(Arrays.asList(20, 21)), jb);
+        assertTrue(played[20] != null && played[21] != null);
+        assertEquals(2, jb.getRecovered());
+        assertEquals(0, jb.getLost());
+    }
+
+    @Test
+    public void redundantCopyDoesNotReplaceAReceivedFrame() {
+        JitterBuffer jb = buffer();
+        short[][] played = loopback(2, new HashSet<>(), jb);
+        for (int seq = 0; seq < FRAMES; seq++) assertArrayEqualsFrame(frame(seq), played[seq]);
+        assertEquals(0, jb.getRecovered());
+    }
+
+    @Test
+    public void levelFollowsReportedLossWithHysteresis() {
+        FrameRedundancy fec = new FrameRedundancy(FRAME);
+        for (int i = 0; i < 20; i++) fec.onLossReport(0);
+        assertEquals(0, fec.getLevel());
+        for (int i = 0; i < 20; i++) fec.onLossReport(10);
+        assertEquals(1, fec.getLevel());
+        // Between half the threshold and the threshold it holds
+        for (int i = 0; i < 20; i++) fec.onLossReport(4);
+        assertEquals(1, fec.getLevel());
+        for (int i = 0; i < 20; i++) fec.onLossReport(40);
+        assertEquals(2, fec.getLevel());
+        for (int i = 0; i < 20; i++) fec.onLossReport(12);
+        assertEquals(2, fec.getLevel());
+        for (int i = 0; i < 20; i++) fec.onLossReport(0);
+        assertEquals(0, fec.getLevel());
+    }
+
+    @Test
+    public void rejectsATruncatedBlock() {
+        FrameRedundancy fec = new FrameRedundancy(FRAME);
+        fec.setLevel(1);
+        byte[] buf = new byte[FRAME * 2];
+        fec.remember(0, frame(0), 0, FRAME);
+        int written = fec.writeBlocks(1, buf, 0);
+        assertTrue(written > 0);
+        assertEquals(written, FrameRedundancy.recover(buf, 0, written, 1, buffer()));
+        assertEquals(-1, FrameRedundancy.recover(buf, 0, written - 1, 1, buffer()));
+    }
+
+    private static void assertArrayEqualsFrame(short[] expected, short[] actual) {
+        assertNotNull(actual);
+        assertTrue(Arrays.equals(expected, actual));
+    }
+}
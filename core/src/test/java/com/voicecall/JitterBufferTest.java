@@ -0,0 +1,172 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JitterBufferTest {
+
+    private static final int FRAME_MS = 20;
+
+    private final byte[] out = new byte[16];
+
+    private static JitterBuffer buffer(int minDepth, int maxDepth) {
+        return new JitterBuffer(16, 16, FRAME_MS, minDepth, maxDepth);
+    }
+
+    // Each frame carries its own sequence number, so what plays can be checked
+    private static boolean put(JitterBuffer jb, int seq, long arrivalMs) {
+        return jb.put(seq, 0, new byte[] {(byte) (seq >> 8), (byte) seq}, 0, 2, arrivalMs);
+    }
+
+    private int played() {
+        return (out[0] & 0xff) << 8 | out[1] & 0xff;
+    }
+
+    @Test
+    public void playsFramesInSequenceOrder() {
+        JitterBuffer jb = buffer(1, 8);
+        put(jb, 0, 0);
+        put(jb, 2, 40);
+        put(jb, 1, 45);
+        for (int seq = 0; seq < 3; seq++) {
+            assertEquals(2, jb.take(out));
+            assertEquals(seq, played());
+        }
+        assertEquals(3, jb.getPlayed());
+    }
+
+    @Test
+    public void dropsLateAndDuplicateFrames() {
+        JitterBuffer jb = buffer(1, 8);
+        put(jb, 0, 0);
+        put(jb, 1, 20);
+        assertFalse(put(jb, 1, 25));
+        jb.take(out);
+        assertFalse(put(jb, 0, 30));
+        assertEquals(1, jb.getDuplicates());
+        assertEquals(1, jb.getLate());
+        assertEquals(2, jb.getReceived());
+    }
+
+    @Test
+    public void reportsMissingFrameAsLost() {
+        JitterBuffer jb = buffer(2, 8);
+        put(jb, 0, 0);
+        put(jb, 1, 20);
+        put(jb, 3, 60);
+        assertEquals(2, jb.take(out));
+        assertEquals(2, jb.take(out));
+        assertEquals(JitterBuffer.LOST, jb.take(out));
+        assertEquals(2, jb.take(out));
+        assertEquals(3, played());
+        assertEquals(1, jb.getLost());
+    }
+
+    @Test
+    public void buffersToTargetAndCountsUnderruns() {
+        JitterBuffer jb = buffer(3, 8);
+        put(jb, 0, 0);
+        put(jb, 1, 20);
+        assertEquals(JitterBuffer.EMPTY, jb.take(out));
+        put(jb, 2, 40);
+        for (int i = 0; i < 3; i++) assertEquals(2, jb.take(out));
+        assertEquals(JitterBuffer.EMPTY, jb.take(out));
+        assertEquals(JitterBuffer.EMPTY, jb.take(out));
+        assertEquals(1, jb.getUnderruns());
+    }
+
+    @Test
+    public void targetDepthFollowsJitter() {
+        JitterBuffer steady = buffer(1, 10);
+        JitterBuffer jittery = buffer(1, 10);
+        for (int seq = 0; seq < 200; seq++) {
+            put(steady, seq, seq * FRAME_MS);
+            put(jittery, seq, seq * FRAME_MS + (seq % 2) * 60);
+            steady.take(out);
+            jittery.take(out);
+        }
+        assertEquals(1, steady.getTargetDepth());
+        assertEquals(0, steady.getJitterMs(), 0.001);
+        assertTrue(jittery.getJitterMs() > 50);
+        assertEquals(10, jittery.getTargetDepth());
+    }
+
+    @Test
+    public void trimsWhenBurstLeavesItTooDeep() {
+        JitterBuffer jb = buffer(2, 8);
+        for (int seq = 0; seq < 10; seq++) put(jb, seq, seq * FRAME_MS);
+        assertEquals(2, jb.take(out));
+        assertEquals(1, played());
+        assertEquals(1, jb.getTrimmed());
+    }
+
+    @Test
+    public void evictsFramesWhenFarAheadFrameArrives() {
+        JitterBuffer jb = new JitterBuffer(8, 16, FRAME_MS, 1, 4);
+        for (int seq = 0; seq < 7; seq++) put(jb, seq, seq * FRAME_MS);
+        assertTrue(put(jb, 9, 9 * FRAME_MS));
+        assertEquals(2, jb.getOverflows());
+        assertEquals(2, jb.take(out));
+        assertTrue("evicted frame played", played() >= 2);
+    }
+
+    @Test
+    public void countsHolesSkippedByAFarAheadFrameAsLost() {
+        JitterBuffer jb = new JitterBuffer(8, 16, FRAME_MS, 1, 4);
+        put(jb, 0, 0);
+        assertTrue(put(jb, 12, 12 * FRAME_MS));
+        // Only frame 0 was queued and thrown away; 1 to 4 never arrived
+        assertEquals(1, jb.getOverflows());
+        assertEquals(4, jb.getLost());
+    }
+
+    /**
+     * 20 ms frames with a 300 ms stall every ten seconds, after which the
+     * held frames arrive together. Written on arrival, each stall's backlog
+     * stays in the device as added delay; the jitter buffer trims it away.
+     */
+    @Test
+    public void recoversDelayAfterStallsUnlikeWriteOnArrival() {
+        int frames = 3000;
+        long[] arrival = new long[frames];
+        for (int i = 0; i < frames; i++) {
+            long sent = (long) i * FRAME_MS;
+            long stall = sent / 10_000 * 10_000 + 5_000;
+            arrival[i] = sent >= stall && sent < stall + 300 ? stall + 320 : sent + 20;
+        }
+
+        // Write on arrival: a frame starts once the device has played everything before it
+        long[] direct = new long[frames];
+        long playEnd = 0;
+        for (int i = 0; i < frames; i++) {
+            long start = Math.max(playEnd, arrival[i]);
+            direct[i] = start - (long) i * FRAME_MS;
+            playEnd = start + FRAME_MS;
+        }
+
+        // The jitter buffer, drained once a frame on the device clock
+        JitterBuffer jb = new JitterBuffer(64, 16, FRAME_MS, 1, 12);
+        long[] buffered = new long[frames];
+        int next = 0, count = 0;
+        for (long now = arrival[0]; now < arrival[frames - 1] + 1000; now += FRAME_MS) {
+            while (next < frames && arrival[next] <= now) put(jb, next, arrival[next++]);
+            if (jb.take(out) > 0) buffered[count++] = now - (long) played() * FRAME_MS;
+        }
+        buffered = Arrays.copyOf(buffered, count);
+
+        assertTrue("write-on-arrival median " + median(direct), median(direct) >= 300);
+        assertTrue("jitter buffer median " + median(buffered), median(buffered) < 100);
+        assertTrue("jitter buffer played " + count, count > frames * 9 / 10);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,43 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class NetLoopTest {
+
+    private static final NetLoop.Receiver IGNORE = (channel, data, len, from) -> { };
+
+    // Channels close on the loop thread; give it a moment
+    private static void awaitClosed(DatagramChannel channel) throws InterruptedException {
+        for (int i = 0; i < 100 && channel.isOpen(); i++) Thread.sleep(10);
+        assertFalse("channel still open", channel.isOpen());
+    }
+
+    @Test
+    public void refusesToOpenOnceShutDown() throws Exception {
+        NetLoop loop = new NetLoop(1500);
+        loop.start("test-loop");
+        loop.shutdown();
+        try {
+            loop.open(0, false, IGNORE);
+            fail("opened a channel on a stopped loop");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void closesChannelsOpenedAsItStops() throws Exception {
+        NetLoop loop = new NetLoop(1500);
+        loop.start("test-loop");
+        DatagramChannel registered = loop.open(0, false, IGNORE);
+        DatagramChannel racing = loop.open(0, false, IGNORE);
+        loop.shutdown();
+        awaitClosed(registered);
+        awaitClosed(racing);
+    }
+}
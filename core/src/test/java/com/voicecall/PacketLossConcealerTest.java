@@ -0,0 +1,132 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PacketLossConcealerTest {
+
+    private static final int RATE = 8000;
+    private static final int FRAME = 160;
+
+    // Harmonics of a pitch that glides between 100 and 250 Hz, at a speaking level
+    private static short[] voice(int samples, long seed) {
+        Random random = new Random(seed);
+        short[] pcm = new short[samples];
+        double phase = 0, f0 = 150, target = 150;
+        for (int i = 0; i < samples; i++) {
+            if (i % (RATE / 5) == 0) target = 100 + random.nextDouble() * 150;
+            f0 += (target - f0) * 0.001;
+            phase += 2 * Math.PI * f0 / RATE;
+            double v = 0;
+            for (int h = 1; h <= 10; h++) v += Math.sin(h * phase) / h;
+            pcm[i] = (short) (6000 * v);
+        }
+        return pcm;
+    }
+
+    private static short[] periodic(int samples) {
+        short[] pcm = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            double phase = 2 * Math.PI * 200 * i / RATE;
+            pcm[i] = (short) (8000 * Math.sin(phase) + 4000 * Math.sin(2 * phase + 1));
+        }
+        return pcm;
+    }
+
+    private static int maxStep(short[] pcm) {
+        int max = 0;
+        for (int i = 1; i < pcm.length; i++) max = Math.max(max, Math.abs(pcm[i] - pcm[i - 1]));
+        return max;
+    }
+
+    @Test
+    public void continuesAPeriodicSignalAcrossALoss() {
+        short[] original = periodic(FRAME * 21);
+        short[] played = original.clone();
+        PacketLossConcealer concealer = new PacketLossConcealer(RATE);
+        for (int f = 0; f < 20; f++) concealer.update(played, f * FRAME, FRAME);
+        concealer.conceal(played, 20 * FRAME, FRAME);
+
+        // Held at full level for the first 10 ms, which should match what was lost
+        int held = RATE / 100;
+        double error = 0, signal = 0;
+        for (int i = 20 * FRAME; i < 20 * FRAME + held; i++) {
+            error += Math.pow(played[i] - original[i], 2);
+            signal += Math.pow(original[i], 2);
+        }
+        assertTrue("error " + Math.sqrt(error / signal), Math.sqrt(error / signal) < 0.05);
+        assertTrue(Math.abs(played[20 * FRAME] - played[20 * FRAME - 1]) <= maxStep(original));
+        assertEquals(1, concealer.getConcealedFrames());
+    }
+
+    @Test
+    public void fadesToSilenceOverALongLoss() {
+        short[] pcm = periodic(FRAME * 10);
+        PacketLossConcealer concealer = new PacketLossConcealer(RATE);
+        concealer.update(pcm, 0, FRAME * 5);
+        short[] lost = new short[FRAME * 5];
+        for (int f = 0; f < 5; f++) concealer.conceal(lost, f * FRAME, FRAME);
+        int silentFrom = RATE * 60 / 1000;
+        int peakEarly = 0, peakLate = 0;
+        for (int i = 0; i < lost.length; i++) {
+            if (i >= silentFrom) assertEquals("sample " + i, 0, lost[i]);
+            else if (i < RATE / 100) peakEarly = Math.max(peakEarly, Math.abs(lost[i]));
+            else if (i >= silentFrom - RATE / 100) peakLate = Math.max(peakLate, Math.abs(lost[i]));
+        }
+        assertTrue(peakLate < peakEarly / 4);
+        assertEquals(5, concealer.getConcealedFrames());
+    }
+
+    @Test
+    public void crossFadesIntoTheNextGoodFrame() {
+        short[] pcm = periodic(FRAME * 7);
+        PacketLossConcealer concealer = new PacketLossConcealer(RATE);
+        for (int f = 0; f < 5; f++) concealer.update(pcm, f * FRAME, FRAME);
+        concealer.conceal(pcm, 5 * FRAME, FRAME);
+        // The talker's phase moved on meanwhile: the next frame arrives inverted
+        short[] next = new short[FRAME];
+        for (int i = 0; i < FRAME; i++) next[i] = (short) -pcm[6 * FRAME + i];
+        int rawJump = Math.abs(next[0] - pcm[6 * FRAME - 1]);
+        concealer.update(next, 0, FRAME);
+        int jump = Math.abs(next[0] - pcm[6 * FRAME - 1]);
+        assertTrue("jump " + jump + " vs raw " + rawJump, jump <= maxStep(pcm));
+    }
+
+    /**
+     * 5% random loss over a minute of voice: an edge is a click when it
+     * jumps well beyond what the original does there. Concealment should
+     * leave far fewer than playing the losses as silence.
+     */
+    @Test
+    public void clicksFarLessThanSilenceUnderLoss() {
+        short[] original = voice(RATE * 60, 1);
+        short[] concealed = original.clone();
+        short[] silenced = original.clone();
+        PacketLossConcealer concealer = new PacketLossConcealer(RATE);
+        Random random = new Random(2);
+        for (int off = 0; off + FRAME <= original.length; off += FRAME) {
+            if (random.nextDouble() < 0.05) {
+                concealer.conceal(concealed, off, FRAME);
+                Arrays.fill(silenced, off, off + FRAME, (short) 0);
+            } else {
+                concealer.update(concealed, off, FRAME);
+            }
+        }
+        int withConcealment = clicks(original, concealed), withSilence = clicks(original, silenced);
+        assertTrue(withConcealment + " clicks vs " + withSilence, withConcealment * 5 < withSilence);
+    }
+
+    private static int clicks(short[] original, short[] played) {
+        int clicks = 0;
+        for (int b = FRAME; b < played.length; b += FRAME) {
+            int jump = Math.abs(played[b] - played[b - 1]);
+            if (jump > Math.abs(original[b] - original[b - 1]) + 4000) clicks++;
+        }
+        return clicks;
+    }
+}
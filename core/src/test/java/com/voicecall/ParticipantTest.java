@@ -0,0 +1,39 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParticipantTest {
+
+    private static final int RATE = 8000;
+    private static final int FRAME_MS = 20;
+    private static final int FRAME = 160;
+
+    // A bundled packet of count PCM frames starting at seq
+    private static int bundle(byte[] buf, int seq, int count) {
+        int o = PacketHeader.write(buf, PacketHeader.TYPE_AUDIO, Codecs.PCM, PacketHeader.FLAG_BUNDLED,
+                1, seq, seq * FRAME);
+        buf[o++] = (byte) count;
+        for (int i = 0; i < count; i++) {
+            PacketHeader.putShort(buf, o, FRAME * 2);
+            o += 2 + FRAME * 2;
+        }
+        return o;
+    }
+
+    @Test
+    public void evenlyPacedBundlesReadAsNoJitter() {
+        Participant p = new Participant(null, null, FRAME, 40, 400);
+        p.configure(FRAME_MS, RATE, 0);
+        byte[] buf = new byte[PacketHeader.SIZE + 1 + 3 * (2 + FRAME * 2)];
+        for (int n = 0; n < 50; n++) {
+            int len = bundle(buf, n * 3, 3);
+            p.onAudio(buf, len, 1000 + n * 3 * FRAME_MS);
+        }
+        assertEquals(150, p.getJitterBuffer().getReceived());
+        assertTrue("stats jitter " + p.getStats().getJitterMs(), p.getStats().getJitterMs() < 0.5);
+        assertTrue("buffer jitter " + p.getJitterBuffer().getJitterMs(), p.getJitterBuffer().getJitterMs() < 0.5);
+    }
+}
@@ -0,0 +1,120 @@
+package com.voicecall;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Discovery against stand-in hosts on the loopback interface, reached
+ * through the host cache. The broadcast and subnet probes still go out on
+ * whatever network the machine has; nothing there answers the room codes
+ * used here.
+ */
+public class PeerDiscoveryTest {
+
+    private NetLoop loop;
+    private DatagramSocket host;
+    private final Map<String, String> cached = new HashMap<>();
+    private final PeerDiscovery.HostCache cache = new PeerDiscovery.HostCache() {
+        @Override public synchronized String get(String roomCode) { return cached.get(roomCode); }
+        @Override public synchronized void put(String roomCode, String hostAddress) { cached.put(roomCode, hostAddress); }
+    };
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicReference<InetAddress> found = new AtomicReference<>();
+    private final AtomicInteger searches = new AtomicInteger();
+    private volatile long elapsedMs = -1;
+    private volatile boolean failed;
+
+    private final PeerDiscovery.Listener listener = new PeerDiscovery.Listener() {
+        @Override public void onSearching(int round, int rounds) { searches.incrementAndGet(); }
+        @Override public void onHostFound(InetAddress address, long ms) { found.set(address); elapsedMs = ms; finished.countDown(); }
+        @Override public void onFailed(long ms) { failed = true; elapsedMs = ms; finished.countDown(); }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        loop = new NetLoop(1500);
+        loop.start("test-loop");
+        host = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        host.setSoTimeout(100);
+    }
+
+    @After
+    public void tearDown() {
+        loop.shutdown();
+        host.close();
+    }
+
+    // Answers FIND for the given room like the hosting side does, with the given text
+    private Thread answer(String roomCode, String reply) {
+        Thread t = new Thread(() -> {
+            byte[] buf = new byte[256];
+            while (!host.isClosed()) {
+                try {
+                    DatagramPacket p = new DatagramPacket(buf, buf.length);
+                    host.receive(p);
+                    if (!new String(buf, 0, p.getLength()).equals("FIND:" + roomCode)) continue;
+                    byte[] r = reply.getBytes();
+                    host.send(new DatagramPacket(r, r.length, p.getSocketAddress()));
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    @Test
+    public void findsCachedHostInTheFirstRound() throws Exception {
+        cached.put("4711", "127.0.0.1");
+        answer("4711", "HOST:192.0.2.1");
+        PeerDiscovery discovery = new PeerDiscovery(loop, "4711", host.getLocalPort(), cache, listener, 8, 1000);
+        discovery.start();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals(InetAddress.getLoopbackAddress(), found.get());
+        // The reply's source beats its text, and it came back before a second round
+        assertEquals(1, searches.get());
+        assertTrue("elapsed " + elapsedMs, elapsedMs < 1000);
+        assertEquals(elapsedMs, discovery.getLastElapsedMs());
+        assertEquals("127.0.0.1", cached.get("4711"));
+    }
+
+    @Test
+    public void ignoresRepliesThatAreNotHostAnswers() throws Exception {
+        cached.put("4712", "127.0.0.1");
+        answer("4712", "BUSY");
+        PeerDiscovery discovery = new PeerDiscovery(loop, "4712", host.getLocalPort(), cache, listener, 2, 100);
+        discovery.start();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(failed);
+        assertNull(found.get());
+    }
+
+    @Test
+    public void failsAfterTheLastRound() throws Exception {
+        PeerDiscovery discovery = new PeerDiscovery(loop, "4713", host.getLocalPort(), cache, listener, 3, 100);
+        discovery.start();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertTrue(failed);
+        assertEquals(3, searches.get());
+        assertTrue("elapsed " + elapsedMs, elapsedMs >= 300);
+        assertEquals(-1, discovery.getLastElapsedMs());
+    }
+}
@@ -0,0 +1,91 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResamplerTest {
+
+    // Streams one second of a full-scale-ish tone through in 20 ms frames
+    private static short[] convert(int inRate, int outRate, double hz) {
+        int frame = inRate / 50;
+        Resampler resampler = new Resampler(inRate, outRate, frame);
+        short[] in = new short[frame];
+        short[] out = new short[outRate + 2 * resampler.maxOutput(frame)];
+        int produced = 0;
+        for (int f = 0; f < 50; f++) {
+            for (int i = 0; i < frame; i++)
+                in[i] = (short) (16000 * Math.sin(2 * Math.PI * hz * (f * frame + i) / inRate));
+            int n = resampler.process(in, 0, frame, out, produced);
+            assertTrue(n <= resampler.maxOutput(frame));
+            produced += n;
+        }
+        assertTrue("produced " + produced, Math.abs(produced - outRate) <= 1);
+        return java.util.Arrays.copyOf(out, produced);
+    }
+
+    // Level of the tone at hz in dB relative to the input's, past the filter's start-up
+    private static double gainDb(short[] out, int rate, double hz) {
+        double re = 0, im = 0;
+        int from = rate / 10;
+        for (int i = from; i < out.length; i++) {
+            double w = 2 * Math.PI * hz * i / rate;
+            re += out[i] * Math.cos(w);
+            im += out[i] * Math.sin(w);
+        }
+        double amplitude = 2 * Math.hypot(re, im) / (out.length - from);
+        return 20 * Math.log10(amplitude / 16000);
+    }
+
+    private static double rmsDb(short[] out, int rate) {
+        double sum = 0;
+        int from = rate / 10;
+        for (int i = from; i < out.length; i++) sum += (double) out[i] * out[i];
+        return 20 * Math.log10(Math.sqrt(sum / (out.length - from)) / (16000 / Math.sqrt(2)));
+    }
+
+    // Within 1 dB up to 3 kHz; the filter only rolls off close to 4 kHz at the 8 kHz edge
+    @Test
+    public void passesSpeechBandFlatAtEveryRatio() {
+        int[][] pairs = {{48000, 16000}, {16000, 48000}, {48000, 8000}, {8000, 48000}, {16000, 8000}, {44100, 16000}};
+        for (int[] pair : pairs) {
+            for (double hz : new double[] {300, 1000, 3000}) {
+                double gain = gainDb(convert(pair[0], pair[1], hz), pair[1], hz);
+                assertEquals(pair[0] + " to " + pair[1] + " at " + hz + " Hz", 0, gain, 1.0);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsWhatWouldAliasWhenDownsampling() {
+        // 10 kHz would fold to 6 kHz at 16 kHz, 5 kHz would fold to 3 kHz at 8 kHz
+        double folded16 = rmsDb(convert(48000, 16000, 10000), 16000);
+        double folded8 = rmsDb(convert(16000, 8000, 5000), 8000);
+        assertTrue("48k to 16k " + folded16 + " dB", folded16 < -60);
+        assertTrue("16k to 8k " + folded8 + " dB", folded8 < -60);
+    }
+
+    @Test
+    public void upsamplingLeavesNoImages() {
+        // A 1 kHz tone at 8 kHz must not reappear at 7 and 9 kHz at 48 kHz
+        short[] out = convert(8000, 48000, 1000);
+        assertTrue(gainDb(out, 48000, 7000) < -60);
+        assertTrue(gainDb(out, 48000, 9000) < -60);
+    }
+
+    @Test
+    public void delayMatchesTheReportedGroupDelay() {
+        int in = 16000, outRate = 48000;
+        Resampler resampler = new Resampler(in, outRate, 320);
+        short[] impulse = new short[320];
+        impulse[0] = 16000;
+        short[] out = new short[resampler.maxOutput(320) * 2];
+        int n = resampler.process(impulse, 0, 320, out, 0);
+        n += resampler.process(new short[320], 0, 320, out, n);
+        int peak = 0;
+        for (int i = 1; i < n; i++) if (Math.abs(out[i]) > Math.abs(out[peak])) peak = i;
+        assertTrue("peak at " + peak + ", delay " + resampler.delaySamples(),
+                Math.abs(peak - resampler.delaySamples()) <= outRate / in);
+    }
+}
@@ -0,0 +1,75 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the send, receive and playout loops' per-frame work as
+ * MainActivity does it, concealment included, for each codec, and checks that once warm it
+ * allocates nothing: the bytes the thread allocated are read from the
+ * JVM's per-thread counter. A copy between the send and receive buffers
+ * stands in for the socket, whose own cost is the platform's (the desktop
+ * JVM's DatagramSocket allocates on every send). Anything allocated per
+ * frame is at least an object header, so an average under a byte a frame
+ * is only the JIT recompiling now and then.
+ */
+public class StreamingAllocationTest {
+
+    private static final int FRAME_SAMPLES = 512;
+    private static final int WARMUP_FRAMES = 20_000;
+    private static final int FRAMES = 10_000;
+
+    @Test
+    public void steadyStreamingAllocatesNothingPerFrame() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) return;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        for (int codec = 0; codec < Codecs.COUNT; codec++) {
+            long bytes = run(threads, codec);
+            assertTrue("codec " + codec + ": " + bytes + " bytes over " + FRAMES + " frames", bytes < FRAMES);
+        }
+    }
+
+    private static long run(com.sun.management.ThreadMXBean threads, int codecId) {
+        JitterBuffer jitterBuffer = new JitterBuffer(16, FRAME_SAMPLES * 2, 64, 2, 8);
+        Codec encoder = Codecs.create(codecId);
+        Codec[] decoders = Codecs.createAll();
+        PacketLossConcealer concealer = new PacketLossConcealer(8000);
+        short[] captured = new short[FRAME_SAMPLES];
+        short[] played = new short[FRAME_SAMPLES * 2];
+        byte[] sendBuffer = new byte[PacketHeader.SIZE + FRAME_SAMPLES * 2];
+        byte[] receiveBuffer = new byte[PacketHeader.SIZE + FRAME_SAMPLES * 4];
+        byte[] frame = new byte[FRAME_SAMPLES * 4];
+        int timestamp = 0;
+        long before = 0;
+        for (int seq = 0; seq < WARMUP_FRAMES + FRAMES; seq++) {
+            if (seq == WARMUP_FRAMES) before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < FRAME_SAMPLES; i++) captured[i] = (short) ((seq * FRAME_SAMPLES + i) * 97);
+            int len = encoder.encode(captured, 0, FRAME_SAMPLES, sendBuffer, PacketHeader.SIZE);
+            PacketHeader.write(sendBuffer, PacketHeader.TYPE_AUDIO, encoder.id(), 1, seq, timestamp);
+            timestamp += FRAME_SAMPLES;
+            len += PacketHeader.SIZE;
+            // Every fiftieth packet is lost, so the jitter buffer's gap handling runs too
+            if (seq % 50 != 7) {
+                System.arraycopy(sendBuffer, 0, receiveBuffer, 0, len);
+                if (PacketHeader.isValid(receiveBuffer, len)
+                        && PacketHeader.type(receiveBuffer) == PacketHeader.TYPE_AUDIO) {
+                    jitterBuffer.put(PacketHeader.seq(receiveBuffer), PacketHeader.codec(receiveBuffer),
+                            receiveBuffer, PacketHeader.SIZE, len - PacketHeader.SIZE, seq * 64L);
+                }
+            }
+            int taken = jitterBuffer.take(frame);
+            if (taken > 0) {
+                int samples = decoders[jitterBuffer.lastTag()].decode(frame, 0, taken, played, 0);
+                concealer.update(played, 0, samples);
+            } else if (taken == JitterBuffer.LOST) {
+                concealer.conceal(played, 0, FRAME_SAMPLES);
+            }
+        }
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+}
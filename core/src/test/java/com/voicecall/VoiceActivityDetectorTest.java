@@ -0,0 +1,117 @@
+package com.voicecall;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VoiceActivityDetectorTest {
+
+    private static final int RATE = 8000;
+    private static final int FRAME_MS = 64;
+    private static final int FRAME = RATE * FRAME_MS / 1000;
+
+    /**
+     * A voiced talkspurt: harmonics of a wandering 100 to 200 Hz pitch under
+     * a syllable-rate envelope, peaking at {@code peak}.
+     */
+    private static void talkspurt(short[] pcm, boolean[] speech, int from, int length, double peak, Random random) {
+        double f0 = 100 + random.nextDouble() * 100;
+        double phase = 0;
+        for (int i = 0; i < length && from + i < pcm.length; i++) {
+            double t = (double) i / RATE;
+            phase += 2 * Math.PI * f0 * (1 + 0.05 * Math.sin(2 * Math.PI * 3 * t)) / RATE;
+            double v = 0;
+            for (int h = 1; h <= 12; h++) v += Math.sin(h * phase) / h;
+            double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 4 * t);
+            pcm[from + i] = (short) (peak * 0.5 * envelope * v);
+            speech[from + i] = true;
+        }
+    }
+
+    // Alternating talkspurts of 0.5 to 2.5 s and pauses of 0.5 to 2 s, two minutes long
+    private static short[] conversation(boolean[] speech, double noise, long seed) {
+        Random random = new Random(seed);
+        short[] pcm = new short[speech.length];
+        for (int at = RATE; at < pcm.length; ) {
+            int length = RATE / 2 + random.nextInt(RATE * 2);
+            talkspurt(pcm, speech, at, length, 4000 + random.nextInt(12000), random);
+            at += length + RATE / 2 + random.nextInt(RATE * 3 / 2);
+        }
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) Math.max(-32768, Math.min(32767, pcm[i] + random.nextGaussian() * noise));
+        }
+        return pcm;
+    }
+
+    @Test
+    public void sendsSpeechAndDropsSilenceUnderBackgroundNoise() {
+        for (double noise : new double[] {0, 100, 300}) {
+            boolean[] speech = new boolean[RATE * 120];
+            short[] pcm = conversation(speech, noise, 1);
+            VoiceActivityDetector vad = new VoiceActivityDetector(RATE, FRAME_MS);
+            int hangoverFrames = 300 / FRAME_MS;
+            int speechFrames = 0, speechSent = 0, silentFrames = 0, silenceSent = 0, sent = 0, frames = 0;
+            int sinceSpeech = Integer.MAX_VALUE;
+            for (int off = 0; off + FRAME <= pcm.length; off += FRAME) {
+                int labelled = 0;
+                for (int i = off; i < off + FRAME; i++) if (speech[i]) labelled++;
+                boolean active = vad.process(pcm, off, FRAME);
+                frames++;
+                if (active) sent++;
+                if (labelled * 2 > FRAME) {
+                    speechFrames++;
+                    if (active) speechSent++;
+                    sinceSpeech = 0;
+                } else if (sinceSpeech != Integer.MAX_VALUE && ++sinceSpeech > hangoverFrames) {
+                    // Silence past the hangover, which is meant to be sent
+                    silentFrames++;
+                    if (active) silenceSent++;
+                }
+            }
+            String at = "noise rms " + noise + ": ";
+            assertTrue(at + speechSent + " of " + speechFrames + " speech frames", speechSent >= speechFrames * 0.95);
+            assertTrue(at + silenceSent + " of " + silentFrames + " silent frames", silenceSent <= silentFrames * 0.1);
+            assertTrue(at + sent + " of " + frames + " frames sent", sent <= frames * 0.75);
+        }
+    }
+
+    @Test
+    public void staysSilentOnQuietInputAndEstimatesTheNoise() {
+        Random random = new Random(2);
+        short[] pcm = new short[FRAME];
+        VoiceActivityDetector vad = new VoiceActivityDetector(RATE, FRAME_MS);
+        for (int f = 0; f < 200; f++) {
+            for (int i = 0; i < FRAME; i++) pcm[i] = (short) (random.nextGaussian() * 200);
+            boolean active = vad.process(pcm, 0, FRAME);
+            // The floor starts low and needs a moment to learn the room
+            if (f * FRAME_MS >= 1000) assertFalse("frame " + f, active);
+        }
+        assertEquals(200, vad.getNoiseLevel(), 60);
+    }
+
+    @Test
+    public void holdsSpeechThroughTheHangover() {
+        short[] pcm = new short[FRAME * 20];
+        talkspurt(pcm, new boolean[pcm.length], 0, FRAME * 10, 12000, new Random(3));
+        VoiceActivityDetector vad = new VoiceActivityDetector(RATE, FRAME_MS);
+        for (int f = 0; f < 10; f++) assertTrue(vad.process(pcm, f * FRAME, FRAME));
+        int held = 0;
+        while (vad.process(pcm, (10 + held) * FRAME, FRAME)) held++;
+        assertEquals(300 / FRAME_MS, held);
+    }
+
+    @Test
+    public void comfortNoiseMatchesTheReportedLevel() {
+        ComfortNoiseGenerator generator = new ComfortNoiseGenerator();
+        generator.setLevel(500);
+        short[] pcm = new short[RATE * 4];
+        generator.generate(pcm, 0, pcm.length);
+        double sum = 0;
+        for (int i = RATE * 2; i < pcm.length; i++) sum += (double) pcm[i] * pcm[i];
+        assertEquals(500, Math.sqrt(sum / (RATE * 2)), 100);
+    }
+}
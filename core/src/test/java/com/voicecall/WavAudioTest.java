@@ -0,0 +1,106 @@
+package com.voicecall;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WavAudioTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("voicecall", ".wav");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        short[] pcm = new short[1000];
+        for (int i = 0; i < pcm.length; i++) pcm[i] = (short) (i * 65 - 32768);
+        WavAudioSink sink = new WavAudioSink(file, 16000, false);
+        sink.write(pcm, 0, 600);
+        sink.write(pcm, 600, 400);
+        sink.close();
+        assertEquals(44 + 2000, file.length());
+
+        WavAudioSource source = new WavAudioSource(file, false);
+        assertEquals(16000, source.getSampleRate());
+        short[] read = new short[1200];
+        assertEquals(700, source.read(read, 0, 700));
+        assertEquals(300, source.read(read, 700, 500));
+        assertEquals(-1, source.read(read, 1000, 200));
+        source.close();
+        for (int i = 0; i < pcm.length; i++) assertEquals(pcm[i], read[i]);
+    }
+
+    @Test
+    public void mixesStereoDownToMono() throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(header(8000, 2, 8));
+            // An extra chunk before the data is skipped
+            out.write(new byte[] {'L', 'I', 'S', 'T', 2, 0, 0, 0, 0, 0});
+            out.write(new byte[] {'d', 'a', 't', 'a', 8, 0, 0, 0});
+            out.write(new byte[] {100, 0, (byte) 200, 0, (byte) 0xF0, (byte) 0xFF, 0x10, 0});
+        }
+        WavAudioSource source = new WavAudioSource(file, false);
+        assertEquals(8000, source.getSampleRate());
+        short[] read = new short[4];
+        assertEquals(2, source.read(read, 0, 4));
+        source.close();
+        assertEquals(150, read[0]);
+        assertEquals(0, read[1]);
+    }
+
+    @Test
+    public void rejectsAnythingButSixteenBitPcm() throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] header = header(8000, 1, 0);
+            header[34] = 8;
+            out.write(header);
+            out.write(new byte[] {'d', 'a', 't', 'a', 0, 0, 0, 0});
+        }
+        try {
+            new WavAudioSource(file, false);
+            fail("8-bit file accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    // RIFF header and fmt chunk, without the data chunk
+    private static byte[] header(int rate, int channels, int dataBytes) {
+        byte[] h = new byte[36];
+        put(h, 0, "RIFF");
+        le(h, 4, 28 + dataBytes, 4);
+        put(h, 8, "WAVE");
+        put(h, 12, "fmt ");
+        le(h, 16, 16, 4);
+        le(h, 20, 1, 2);
+        le(h, 22, channels, 2);
+        le(h, 24, rate, 4);
+        le(h, 28, rate * channels * 2, 4);
+        le(h, 32, channels * 2, 2);
+        le(h, 34, 16, 2);
+        return h;
+    }
+
+    private static void put(byte[] b, int off, String tag) {
+        for (int i = 0; i < 4; i++) b[off + i] = (byte) tag.charAt(i);
+    }
+
+    private static void le(byte[] b, int off, int v, int bytes) {
+        for (int i = 0; i < bytes; i++) b[off + i] = (byte) (v >> (8 * i));
+    }
+}
@@ -0,0 +1,288 @@
+package com.voicecall.relay;
+
+import com.voicecall.PacketHeader;
+import com.voicecall.RelayControl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Loads a {@link RelayServer} with many rooms at once over localhost, each
+ * with a host and its guests. Every guest sends an audio-sized packet each
+ * {@code --interval}, staggered across the interval as real calls would
+ * be; the host echoes it back through the relay, and the guest times the
+ * round trip from the send time carried in the packet. A line a second
+ * shows the packets and bit rate through the relay, loss, and round-trip
+ * percentiles; a summary follows. Without {@code --relay} a relay is run
+ * in-process on a thread of its own. One thread drives every endpoint, so
+ * on a machine with a spare core the figures are the relay's.
+ *
+ * <pre>
+ * RelayLoadGenerator [--relay host:port] [--rooms n] [--guests n] [--packet bytes]
+ *                    [--interval ms] [--seconds n]
+ * </pre>
+ */
+public final class RelayLoadGenerator {
+
+    // Round trips are binned at 10 us up to 100 ms, with one bin for anything slower
+    private static final int BIN_NANOS = 10_000;
+    private static final int BINS = 10_001;
+    private static final int DRAIN_MS = 500;
+
+    private static final class Endpoint {
+        final DatagramChannel channel;
+        final boolean host;
+        final int ssrc;
+        int seq;
+
+        Endpoint(DatagramChannel channel, boolean host, int ssrc) {
+            this.channel = channel;
+            this.host = host;
+            this.ssrc = ssrc;
+        }
+    }
+
+    private final InetSocketAddress relay;
+    private final int rooms;
+    private final int guestsPerRoom;
+    private final int packetBytes;
+    private final long intervalNanos;
+    private final Endpoint[] hosts;
+    private final Endpoint[] guests;
+    private final Selector selector;
+    private final ByteBuffer buffer;
+    private final byte[] header = new byte[PacketHeader.SIZE];
+    private final long[] histogram = new long[BINS];
+    private final long[] total = new long[BINS];
+    private long sent, sendFailures, echoed, forwarded, forwardedBytes, maxNanos, totalMaxNanos;
+
+    private RelayLoadGenerator(InetSocketAddress relay, int rooms, int guestsPerRoom, int packetBytes,
+                               int intervalMs) throws IOException {
+        this.relay = relay;
+        this.rooms = rooms;
+        this.guestsPerRoom = guestsPerRoom;
+        this.packetBytes = packetBytes;
+        this.intervalNanos = intervalMs * 1_000_000L;
+        this.hosts = new Endpoint[rooms];
+        this.guests = new Endpoint[rooms * guestsPerRoom];
+        this.selector = Selector.open();
+        this.buffer = ByteBuffer.allocateDirect(Math.max(packetBytes, 64));
+        InetAddress local = relay.getAddress();
+        int ssrc = 1;
+        for (int r = 0; r < rooms; r++) {
+            hosts[r] = open(local, true, ssrc++);
+            for (int g = 0; g < guestsPerRoom; g++) guests[r * guestsPerRoom + g] = open(local, false, ssrc++);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress relay = null;
+        int rooms = 1000, guests = 1, packet = 200, intervalMs = 20, seconds = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String v = args[i + 1];
+            switch (args[i]) {
+                case "--relay": {
+                    int colon = v.lastIndexOf(':');
+                    relay = new InetSocketAddress(v.substring(0, colon), Integer.parseInt(v.substring(colon + 1)));
+                    break;
+                }
+                case "--rooms": rooms = Integer.parseInt(v); break;
+                case "--guests": guests = Integer.parseInt(v); break;
+                case "--packet": packet = Integer.parseInt(v); break;
+                case "--interval": intervalMs = Integer.parseInt(v); break;
+                case "--seconds": seconds = Integer.parseInt(v); break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        if (packet < PacketHeader.SIZE + 8) throw new IllegalArgumentException("--packet must be at least 24");
+
+        RelayServer server = null;
+        Thread serverThread = null;
+        if (relay == null) {
+            server = new RelayServer(0);
+            server.start();
+            relay = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+            RelayServer s = server;
+            serverThread = new Thread(() -> {
+                try {
+                    s.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "VoiceCall-relay");
+            serverThread.start();
+        }
+
+        RelayLoadGenerator gen = new RelayLoadGenerator(relay, rooms, guests, packet, intervalMs);
+        System.out.printf("%d rooms, %d guest(s) each, %d-byte packets every %d ms through %s%n",
+                rooms, guests, packet, intervalMs, relay);
+        gen.register();
+        gen.run(seconds);
+        gen.close();
+
+        if (server != null) {
+            System.out.printf("relay: %d rooms, %d guests, %d forwarded, %d dropped, %d refused%n", server.getRooms(),
+                    server.getGuests(), server.getForwarded(), server.getDropped(), server.getRefused());
+            server.stop();
+            serverThread.join();
+        }
+    }
+
+    private Endpoint open(InetAddress local, boolean host, int ssrc) throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        ch.configureBlocking(false);
+        ch.bind(new InetSocketAddress(local, 0));
+        Endpoint e = new Endpoint(ch, host, ssrc);
+        ch.register(selector, SelectionKey.OP_READ, e);
+        return e;
+    }
+
+    // Sent twice, since a burst of thousands can overrun the relay's socket and
+    // registering again is harmless
+    private void register() throws Exception {
+        for (int pass = 0; pass < 2; pass++) {
+            refresh();
+            Thread.sleep(100);
+        }
+    }
+
+    private void refresh() throws IOException {
+        for (int r = 0; r < rooms; r++) {
+            control(hosts[r], RelayControl.host(code(r)));
+            for (int g = 0; g < guestsPerRoom; g++) {
+                Endpoint guest = guests[r * guestsPerRoom + g];
+                control(guest, RelayControl.join(code(r), guest.ssrc));
+            }
+        }
+    }
+
+    private void control(Endpoint e, byte[] message) throws IOException {
+        e.channel.send(ByteBuffer.wrap(message), relay);
+    }
+
+    private static String code(int room) {
+        return String.format("%06d", room);
+    }
+
+    private void run(int seconds) throws IOException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long drainEnd = end + DRAIN_MS * 1_000_000L;
+        long nextReport = start + 1_000_000_000L;
+        long nextRefresh = start + RelayControl.REFRESH_MS * 1_000_000L;
+        long lastSent = 0, lastEchoed = 0, lastForwarded = 0, lastBytes = 0;
+        int second = 0;
+        // Sends due so far, spread evenly so that guest i goes i/n of the way into each interval
+        long due = 0;
+        int next = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= drainEnd) break;
+            if (now < end) {
+                long shouldHave = (now - start) * guests.length / intervalNanos;
+                for (; due < shouldHave; due++) {
+                    send(guests[next], now);
+                    if (++next == guests.length) next = 0;
+                }
+            }
+            if (now >= nextRefresh) {
+                refresh();
+                nextRefresh += RelayControl.REFRESH_MS * 1_000_000L;
+            }
+            selector.select(1);
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                receive((Endpoint) key.attachment());
+            }
+            if (now >= nextReport && nextReport <= end) {
+                second++;
+                long s = sent - lastSent, ok = echoed - lastEchoed;
+                System.out.printf("%3ds  %7d packets/s through the relay, %6.1f Mbit/s, loss %5.2f%%, rtt %s%n",
+                        second, forwarded - lastForwarded, (forwardedBytes - lastBytes) * 8 / 1e6,
+                        s == 0 ? 0.0 : Math.max(0, s - ok) * 100.0 / s, percentiles(histogram, ok, maxNanos));
+                lastSent = sent;
+                lastEchoed = echoed;
+                lastForwarded = forwarded;
+                lastBytes = forwardedBytes;
+                Arrays.fill(histogram, 0);
+                maxNanos = 0;
+                nextReport += 1_000_000_000L;
+            }
+        }
+        System.out.printf("total: %d sent, %d echoed, %d send failures, loss %.3f%%, %d packets/s, rtt %s%n",
+                sent, echoed, sendFailures, sent == 0 ? 0.0 : Math.max(0, sent - echoed) * 100.0 / sent,
+                forwarded / seconds, percentiles(total, echoed, totalMaxNanos));
+    }
+
+    private void send(Endpoint guest, long now) throws IOException {
+        buffer.clear();
+        buffer.put(header(guest));
+        buffer.putLong(now);
+        while (buffer.position() < packetBytes) buffer.put((byte) 0);
+        buffer.flip();
+        sent++;
+        if (guest.channel.send(buffer, relay) == 0) sendFailures++;
+    }
+
+    private byte[] header(Endpoint guest) {
+        PacketHeader.write(header, PacketHeader.TYPE_AUDIO, 0, guest.ssrc, guest.seq, guest.seq * 160);
+        guest.seq++;
+        return header;
+    }
+
+    private void receive(Endpoint e) throws IOException {
+        while (true) {
+            buffer.clear();
+            SocketAddress from = e.channel.receive(buffer);
+            if (from == null) return;
+            buffer.flip();
+            int len = buffer.remaining();
+            forwarded++;
+            forwardedBytes += len;
+            if (e.host) {
+                // Back to the port the relay gave this guest
+                e.channel.send(buffer, from);
+                continue;
+            }
+            if (len < PacketHeader.SIZE + 8) continue;
+            long rtt = System.nanoTime() - buffer.getLong(PacketHeader.SIZE);
+            int bin = (int) Math.min(BINS - 1, rtt / BIN_NANOS);
+            histogram[bin]++;
+            total[bin]++;
+            maxNanos = Math.max(maxNanos, rtt);
+            totalMaxNanos = Math.max(totalMaxNanos, rtt);
+            echoed++;
+        }
+    }
+
+    private static String percentiles(long[] bins, long count, long maxNanos) {
+        if (count == 0) return "-";
+        return String.format("p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                percentile(bins, count, 0.50), percentile(bins, count, 0.99), maxNanos / 1e6);
+    }
+
+    private static double percentile(long[] bins, long count, double q) {
+        long rank = (long) Math.ceil(count * q);
+        long seen = 0;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen >= rank) return (i + 1) * BIN_NANOS / 1e6;
+        }
+        return bins.length * BIN_NANOS / 1e6;
+    }
+
+    private void close() throws IOException {
+        for (SelectionKey key : selector.keys()) key.channel().close();
+        selector.close();
+    }
+}
@@ -0,0 +1,396 @@
+package com.voicecall.relay;
+
+import com.voicecall.CallSession;
+import com.voicecall.RelayControl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * UDP relay and rendezvous for calls whose phones can't reach each other,
+ * keyed by room code (see {@link RelayControl}). A host registers its room
+ * from its call socket. Each guest that joins takes a free slot in its
+ * room, and each slot is one of a few guest ports the relay opens at
+ * start: what the guest sends to the main port leaves its slot's port for
+ * the host, and what the host sends to that port goes back to the guest.
+ * The host so sees every guest at an address of its own, as on a LAN, and
+ * the call carries on unchanged. Rooms share the guest ports, since a
+ * packet's source tells which host, and so which room, it belongs to; the
+ * relay needs as many sockets for thousands of rooms as for one. Packets
+ * are forwarded as received, out of a single direct buffer with no copy
+ * on the Java side, after one hash lookup. Everything runs on one thread
+ * and one selector; entries not refreshed within
+ * {@link RelayControl#EXPIRY_MS} are dropped.
+ *
+ * <p>Nothing is authenticated, so nothing a stranger sends may cost a call
+ * its room. Only a HOST registration opens a room, and only from the
+ * room's host until that host expires; a JOIN is refused unless its room
+ * has a live host. Rooms and guests are capped across the relay, and
+ * whatever is refused is counted. A host that changes networks gets its
+ * room back from the new address once the old one expires. A guest that
+ * joins again from a new address, as after a NAT rebinding, is known by
+ * the SSRC in its JOIN and takes its old slot over, so the host keeps
+ * seeing it at the same port.
+ *
+ * <p>Forwarding costs the relay about 6.5 us of CPU a packet, nearly all
+ * of it the receive and send system calls. That makes one core's worth
+ * roughly 150,000 packets a second, or about 1,500 two-party rooms at
+ * 20 ms frames; see relay/README.md for how it was measured.
+ *
+ * <pre>
+ * RelayServer [--port n] [--max-rooms n] [--max-guests n]
+ * </pre>
+ */
+public final class RelayServer {
+
+    // Also the number of guest ports
+    private static final int MAX_ROOM_GUESTS = CallSession.MAX_PARTICIPANTS - 1;
+    public static final int DEFAULT_MAX_ROOMS = 4096;
+    public static final int DEFAULT_MAX_GUESTS = DEFAULT_MAX_ROOMS * MAX_ROOM_GUESTS;
+    private static final int SWEEP_MS = 1000;
+    private static final int SOCKET_BUFFER_BYTES = 4 << 20;
+
+    private static final class Room {
+        final String code;
+        // Indexed by slot, which is also the guest port the host sees the guest at
+        final Guest[] guests = new Guest[MAX_ROOM_GUESTS];
+        int guestCount;
+        SocketAddress host;
+        long hostSeenMs;
+
+        Room(String code) { this.code = code; }
+
+        int freeSlot() {
+            for (int i = 0; i < guests.length; i++) if (guests[i] == null) return i;
+            return -1;
+        }
+
+        Guest find(int ssrc) {
+            for (Guest g : guests) if (g != null && g.ssrc == ssrc) return g;
+            return null;
+        }
+    }
+
+    private static final class Guest {
+        final Room room;
+        final int slot;
+        final SocketAddress address;
+        // Zero when the guest's JOIN didn't carry one
+        final int ssrc;
+        long seenMs;
+
+        Guest(Room room, int slot, SocketAddress address, int ssrc) {
+            this.room = room;
+            this.slot = slot;
+            this.address = address;
+            this.ssrc = ssrc;
+        }
+    }
+
+    private final int port;
+    private final int maxRooms;
+    private final int maxGuests;
+    private final Map<String, Room> rooms = new HashMap<>();
+    private final Map<SocketAddress, Room> hosts = new HashMap<>();
+    private final Map<SocketAddress, Guest> guests = new HashMap<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(CallSession.MAX_PACKET);
+    private final DatagramChannel[] guestPorts = new DatagramChannel[MAX_ROOM_GUESTS];
+    private Selector selector;
+    private DatagramChannel main;
+    private volatile boolean running;
+
+    private volatile int roomCount;
+    private volatile int guestCount;
+    private volatile long forwarded;
+    private volatile long forwardedBytes;
+    private volatile long dropped;
+    private volatile long refused;
+
+    /** {@code port} 0 picks any; {@link #getPort} tells which. */
+    public RelayServer(int port) {
+        this(port, DEFAULT_MAX_ROOMS, DEFAULT_MAX_GUESTS);
+    }
+
+    public RelayServer(int port, int maxRooms, int maxGuests) {
+        this.port = port;
+        this.maxRooms = maxRooms;
+        this.maxGuests = maxGuests;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = RelayControl.DEFAULT_PORT, maxRooms = DEFAULT_MAX_ROOMS, maxGuests = DEFAULT_MAX_GUESTS;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int v = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--port": port = v; break;
+                case "--max-rooms": maxRooms = v; break;
+                case "--max-guests": maxGuests = v; break;
+                default: throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        RelayServer server = new RelayServer(port, maxRooms, maxGuests);
+        server.start();
+        System.out.println("relay on port " + server.getPort());
+        server.run();
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        main = open(new InetSocketAddress(port), null);
+        InetAddress local = ((InetSocketAddress) main.getLocalAddress()).getAddress();
+        for (int slot = 0; slot < guestPorts.length; slot++) guestPorts[slot] = open(new InetSocketAddress(local, 0), slot);
+        running = true;
+    }
+
+    // Every call's packets meet at the main port, and a slot's in every room at its guest
+    // port, so each gets room for a burst
+    private DatagramChannel open(InetSocketAddress address, Integer slot) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER_BYTES);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER_BYTES);
+            channel.bind(address);
+            channel.register(selector, SelectionKey.OP_READ, slot);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    public int getPort() { return main.socket().getLocalPort(); }
+
+    public void stop() {
+        running = false;
+        if (selector != null) selector.wakeup();
+    }
+
+    public int getRooms() { return roomCount; }
+    public int getGuests() { return guestCount; }
+    public long getForwarded() { return forwarded; }
+    public long getForwardedBytes() { return forwardedBytes; }
+    /** Packets from nobody we know, for a room without a host, or refused by a full socket. */
+    public long getDropped() { return dropped; }
+    /** Registrations and joins turned away: someone else's room, no live host, or the relay full. */
+    public long getRefused() { return refused; }
+
+    /** Relays on the calling thread until {@link #stop}; closes every socket on the way out. */
+    public void run() throws IOException {
+        long nextSweepMs = 0;
+        long lastReportMs = System.currentTimeMillis();
+        long lastForwarded = 0;
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                if (now >= nextSweepMs) {
+                    sweep(now);
+                    nextSweepMs = now + SWEEP_MS;
+                }
+                if (now - lastReportMs >= 10_000) {
+                    System.out.printf("%d rooms, %d guests, %d packets/s, %d dropped, %d refused%n", roomCount,
+                            guestCount, (forwarded - lastForwarded) * 1000 / (now - lastReportMs), dropped, refused);
+                    lastForwarded = forwarded;
+                    lastReportMs = now;
+                }
+                selector.select(SWEEP_MS);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isReadable()) drain(key);
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try { key.channel().close(); } catch (IOException ignored) {}
+            }
+            selector.close();
+        }
+    }
+
+    private void drain(SelectionKey key) {
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        Integer slot = (Integer) key.attachment();
+        long now = System.currentTimeMillis();
+        while (running) {
+            buffer.clear();
+            SocketAddress from;
+            try {
+                from = channel.receive(buffer);
+            } catch (IOException e) {
+                return;
+            }
+            if (from == null) return;
+            buffer.flip();
+            if (slot == null) fromOutside(from, now);
+            else fromHost(slot, from, now);
+        }
+    }
+
+    // Main port: registrations, and guests' packets for their host
+    private void fromOutside(SocketAddress from, long now) {
+        if (buffer.hasRemaining() && RelayControl.isControl(buffer.get(0))) {
+            control(from, now);
+            return;
+        }
+        Guest g = guests.get(from);
+        if (g == null || g.room.host == null) {
+            dropped++;
+            return;
+        }
+        g.seenMs = now;
+        forward(guestPorts[g.slot], g.room.host);
+    }
+
+    // A guest port: the sender is a host, and the port picks which of its guests it's for
+    private void fromHost(int slot, SocketAddress from, long now) {
+        Room room = hosts.get(from);
+        Guest g = room != null ? room.guests[slot] : null;
+        if (g == null) {
+            dropped++;
+            return;
+        }
+        room.hostSeenMs = now;
+        forward(main, g.address);
+    }
+
+    private void forward(DatagramChannel via, SocketAddress to) {
+        int bytes = buffer.remaining();
+        try {
+            if (via.send(buffer, to) == 0) {
+                dropped++;
+                return;
+            }
+        } catch (IOException e) {
+            dropped++;
+            return;
+        }
+        forwarded++;
+        forwardedBytes += bytes;
+    }
+
+    private void control(SocketAddress from, long now) {
+        byte[] text = new byte[buffer.remaining()];
+        buffer.get(text);
+        String message = new String(text, StandardCharsets.US_ASCII).trim();
+        if (message.startsWith(RelayControl.HOST)) {
+            host(from, message.substring(RelayControl.HOST.length()), now);
+        } else if (message.startsWith(RelayControl.JOIN)) {
+            String code = message.substring(RelayControl.JOIN.length());
+            int ssrc = 0;
+            int colon = code.lastIndexOf(':');
+            if (colon >= 0) {
+                try {
+                    ssrc = Integer.parseUnsignedInt(code.substring(colon + 1), 16);
+                } catch (NumberFormatException e) {
+                    refused++;
+                    return;
+                }
+                code = code.substring(0, colon);
+            }
+            join(from, code, ssrc, now);
+        }
+    }
+
+    // The room's host refreshing, or a host taking a room nobody holds
+    private void host(SocketAddress from, String code, long now) {
+        Room room = rooms.get(code);
+        if (room == null) {
+            if (rooms.size() >= maxRooms) {
+                refused++;
+                return;
+            }
+            room = new Room(code);
+            rooms.put(code, room);
+            roomCount = rooms.size();
+        } else if (room.host != null && !room.host.equals(from)) {
+            refused++;
+            return;
+        }
+        // An address hosts one room, since its packets to a guest port name no room;
+        // a host that registers another code has moved on from the old one
+        Room previous = hosts.put(from, room);
+        if (previous != null && previous != room) previous.host = null;
+        room.host = from;
+        room.hostSeenMs = now;
+    }
+
+    private void join(SocketAddress from, String code, int ssrc, long now) {
+        Guest g = guests.get(from);
+        if (g != null && g.room.code.equals(code)) {
+            g.seenMs = now;
+            return;
+        }
+        Room room = rooms.get(code);
+        if (room == null || room.host == null) {
+            refused++;
+            return;
+        }
+        // The same guest from a new address: its old entry would hold the slot until it expired
+        Guest moved = ssrc != 0 ? room.find(ssrc) : null;
+        if (moved == null && (room.guestCount >= MAX_ROOM_GUESTS || (g == null && guests.size() >= maxGuests))) {
+            refused++;
+            return;
+        }
+        if (g != null) leave(g);
+        int slot;
+        if (moved != null) {
+            // Same slot, so the host goes on seeing it at the same port
+            slot = moved.slot;
+            leave(moved);
+        } else {
+            slot = room.freeSlot();
+        }
+        g = new Guest(room, slot, from, ssrc);
+        g.seenMs = now;
+        room.guests[slot] = g;
+        room.guestCount++;
+        guests.put(from, g);
+        guestCount = guests.size();
+    }
+
+    private void leave(Guest g) {
+        guests.remove(g.address);
+        vacate(g);
+        guestCount = guests.size();
+    }
+
+    private static void vacate(Guest g) {
+        g.room.guests[g.slot] = null;
+        g.room.guestCount--;
+    }
+
+    // Forgets guests and hosts that stopped refreshing, and rooms left with neither
+    private void sweep(long now) {
+        Iterator<Guest> it = guests.values().iterator();
+        while (it.hasNext()) {
+            Guest g = it.next();
+            if (now - g.seenMs < RelayControl.EXPIRY_MS) continue;
+            it.remove();
+            vacate(g);
+        }
+        guestCount = guests.size();
+        Iterator<Room> rt = rooms.values().iterator();
+        while (rt.hasNext()) {
+            Room room = rt.next();
+            if (room.host != null && now - room.hostSeenMs >= RelayControl.EXPIRY_MS) {
+                hosts.remove(room.host, room);
+                room.host = null;
+            }
+            if (room.host == null && room.guestCount == 0) rt.remove();
+        }
+        roomCount = rooms.size();
+    }
+}